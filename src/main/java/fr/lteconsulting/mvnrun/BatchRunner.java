@@ -0,0 +1,337 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jboss.shrinkwrap.resolver.api.maven.ConfigurableMavenResolverSystem;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
+
+import static fr.lteconsulting.mvnrun.MavenRunApp.AppOptions;
+
+/**
+ * Runs the jobs of a manifest as concurrent child processes.
+ *
+ * Each line of the manifest holds the options of an app command, like <code>-a g:a:1.0 -m Main "first arg"</code>.
+ * Blank lines and lines starting with # are ignored. Jobs are resolved one after the other with a single resolver, so
+ * shared dependencies are only resolved and downloaded once, and each job is started as soon as its classpath is ready
+ * while the next ones are resolved. At most a given number of jobs run at the same time. Their output is written line
+ * by line, prefixed with the job number and artifact id.
+ */
+public class BatchRunner
+{
+	private final int concurrency;
+
+	private final boolean quiet;
+
+	private final OutputStream stdout;
+
+	private final OutputStream stderr;
+
+	public BatchRunner(int concurrency, boolean quiet)
+	{
+		this(concurrency, quiet, new FileOutputStream(FileDescriptor.out), new FileOutputStream(FileDescriptor.err));
+	}
+
+	/**
+	 * @param stdout where the prefixed output of the jobs is written, and stderr their prefixed errors
+	 */
+	BatchRunner(int concurrency, boolean quiet, OutputStream stdout, OutputStream stderr)
+	{
+		this.concurrency = concurrency;
+		this.quiet = quiet;
+		this.stdout = stdout;
+		this.stderr = stderr;
+	}
+
+	/**
+	 * Reads the jobs of a manifest.
+	 *
+	 * @throws ParameterException if a line holds invalid options
+	 */
+	public static List<AppOptions> readManifest(File manifest) throws IOException
+	{
+		List<AppOptions> jobs = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(manifest), StandardCharsets.UTF_8)))
+		{
+			String line;
+			int number = 0;
+			while ((line = reader.readLine()) != null)
+			{
+				number++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+
+				AppOptions options = new AppOptions();
+				try
+				{
+					JCommander.newBuilder().addObject(options).build().parse(tokenize(line).toArray(new String[0]));
+				}
+				catch (ParameterException e)
+				{
+					throw new ParameterException(manifest + ":" + number + " : " + e.getMessage());
+				}
+				jobs.add(options);
+			}
+		}
+		return jobs;
+	}
+
+	/**
+	 * Splits a manifest line on white spaces, single or double quotes grouping words into one argument.
+	 */
+	static List<String> tokenize(String line)
+	{
+		List<String> tokens = new ArrayList<>();
+		StringBuilder token = null;
+		char quote = 0;
+		for (int i = 0; i < line.length(); i++)
+		{
+			char c = line.charAt(i);
+			if (quote != 0)
+			{
+				if (c == quote)
+					quote = 0;
+				else
+					token.append(c);
+			}
+			else if (c == '"' || c == '\'')
+			{
+				if (token == null)
+					token = new StringBuilder();
+				quote = c;
+			}
+			else if (Character.isWhitespace(c))
+			{
+				if (token != null)
+					tokens.add(token.toString());
+				token = null;
+			}
+			else
+			{
+				if (token == null)
+					token = new StringBuilder();
+				token.append(c);
+			}
+		}
+		if (quote != 0)
+			throw new ParameterException("Unterminated quote in " + line);
+		if (token != null)
+			tokens.add(token.toString());
+		return tokens;
+	}
+
+	/**
+	 * Runs the jobs and waits for all of them.
+	 *
+	 * @return 0 if every job succeeded, or the exit code of the first failed job in manifest order
+	 */
+	public int run(List<AppOptions> jobs) throws InterruptedException
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, concurrency));
+		List<Future<Integer>> results = new ArrayList<>();
+		try
+		{
+			ConfigurableMavenResolverSystem resolver = null;
+			Map<String, ResolvedClasspath> resolvedArtifacts = new HashMap<>();
+
+			for (int i = 0; i < jobs.size(); i++)
+			{
+				AppOptions options = jobs.get(i);
+				// jobs running together share the memory
+				options.concurrentJvms = Math.max(1, Math.min(concurrency, jobs.size()));
+				String prefix = "[" + (i + 1) + ":" + label(options) + "] ";
+				LaunchMetrics metrics = new LaunchMetrics();
+				metrics.put("artifact", options.artifact);
+
+				// locked and frozen jobs have their own way to get their classpath
+				boolean shared = options.lock == null && !options.freeze;
+				ResolvedClasspath resolved = shared ? resolvedArtifacts.get(options.artifact) : null;
+				if (resolved == null)
+				{
+					// the resolver is only bootstrapped once something has to be resolved
+					if (resolver == null && options.lock == null && options.artifact != null && (options.noCache
+							|| options.clearCache || MavenRun.cache(options).get(options.artifact) == null))
+						resolver = MavenRun.resolver();
+
+					try
+					{
+						resolved = MavenRun.resolveClasspath(options, resolver, metrics, quiet);
+					}
+					catch (RuntimeException e)
+					{
+						log(prefix + "Resolution of " + options.artifact + " failed : " + e.getMessage());
+					}
+				}
+
+				if (resolved == null)
+				{
+					log(prefix + "Unable to get the classpath of job " + (i + 1));
+					results.add(null);
+					continue;
+				}
+				if (shared)
+					resolvedArtifacts.put(options.artifact, resolved);
+
+				String problem = MavenRun.checkMainClass(MavenRun.classIndex(resolved, options, metrics, quiet),
+						resolved, options);
+				if (problem != null)
+				{
+					System.err.println(prefix + problem);
+					results.add(null);
+					continue;
+				}
+
+				if (options.inProcess)
+					log(prefix + "Jobs of a batch always run in their own process, ignoring --in-process");
+
+				results.add(executor.submit(new Job(prefix, options, resolved, metrics)));
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+
+		int exitCode = 0;
+		int failures = 0;
+		for (int i = 0; i < results.size(); i++)
+		{
+			int jobExitCode = exitCode(results.get(i));
+			if (jobExitCode != 0)
+			{
+				failures++;
+				System.err.println("Job " + (i + 1) + " (" + describe(jobs.get(i)) + ") failed with exit code "
+						+ jobExitCode);
+				if (exitCode == 0)
+					exitCode = jobExitCode;
+			}
+		}
+		log(jobs.size() + " jobs run, " + failures + " failed.");
+		return exitCode;
+	}
+
+	private static int exitCode(Future<Integer> result) throws InterruptedException
+	{
+		if (result == null)
+			return -1;
+		try
+		{
+			return result.get();
+		}
+		catch (ExecutionException e)
+		{
+			e.getCause().printStackTrace();
+			return -1;
+		}
+	}
+
+	private static String describe(AppOptions options)
+	{
+		return options.artifact != null ? options.artifact : options.lock;
+	}
+
+	/**
+	 * @return the artifact id of the job, or the name of its lockfile
+	 */
+	private static String label(AppOptions options)
+	{
+		if (options.artifact == null)
+			return options.lock != null ? new File(options.lock).getName() : "?";
+		String[] parts = options.artifact.split(":");
+		return parts.length > 1 ? parts[1] : options.artifact;
+	}
+
+	private void log(String message)
+	{
+		if (!quiet)
+			System.err.println(message);
+	}
+
+	private class Job implements Callable<Integer>
+	{
+		private final String prefix;
+
+		private final AppOptions options;
+
+		private final ResolvedClasspath resolved;
+
+		private final LaunchMetrics metrics;
+
+		Job(String prefix, AppOptions options, ResolvedClasspath resolved, LaunchMetrics metrics)
+		{
+			this.prefix = prefix;
+			this.options = options;
+			this.resolved = resolved;
+			this.metrics = metrics;
+		}
+
+		@Override
+		public Integer call() throws Exception
+		{
+			PrefixedOutputStream out = new PrefixedOutputStream(prefix, stdout);
+			PrefixedOutputStream err = new PrefixedOutputStream(prefix, stderr);
+
+			int exitCode;
+			try
+			{
+				CdsArchive cds = options.cds ? MavenRun.cdsArchive(resolved, options, quiet) : null;
+
+				long commandBuild = System.nanoTime();
+				List<String> command = MavenRun.buildCommand(resolved, options,
+						cds != null ? cds.jvmOptions() : Collections.<String> emptyList());
+				metrics.time("commandBuild", commandBuild);
+
+				OutputFiles files = OutputFiles.open(options, out, err);
+				try
+				{
+					// jobs do not share our stdin, they get an immediate end of file
+					exitCode = ProcessLauncher.capture(new ProcessBuilder(command), null, files.getStdout(),
+							files.getStderr(), metrics);
+				}
+				finally
+				{
+					files.close(metrics);
+				}
+
+				if (cds != null)
+					cds.publish();
+			}
+			catch (IOException e)
+			{
+				err.write(("Unable to launch process : " + e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+				exitCode = -1;
+			}
+
+			if (options.metrics != null)
+			{
+				metrics.put("exitCode", exitCode);
+				MavenRun.writeMetrics(options.metrics, metrics, err, quiet);
+			}
+
+			out.close();
+			err.close();
+			return exitCode;
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Application Class-Data Sharing archive of a resolved classpath.
+ *
+ * Archives are named after the artifact and a hash of the JVM, its options, the way the classpath is delivered, the
+ * main class and every classpath file with its size and modification time : the JVM refuses an archive dumped with
+ * other flags or another classpath. The first launch of a classpath records an archive when the JVM exits, next launches map it
+ * and skip most of the class loading work. Whenever the classpath or the JVM changes, the hash changes too : a new
+ * archive is recorded and the previous ones of the artifact are deleted.
+ *
+ * Dynamic archiving needs a Java 13 or later JVM, the child JVM being assumed to be the same as mvnrun's.
+ */
+public class CdsArchive
+{
+	private static final String EXTENSION = ".jsa";
+
+	private final File directory;
+
+	private final String prefix;
+
+	private final File archive;
+
+	private final File training;
+
+	private CdsArchive(File directory, String prefix, String hash)
+	{
+		this.directory = directory;
+		this.prefix = prefix;
+		this.archive = new File(directory, prefix + hash + EXTENSION);
+		this.training = new File(directory, prefix + hash + "." + System.nanoTime() + ".tmp");
+	}
+
+	/**
+	 * @param jvmOptions the options the JVM is launched with, besides the ones of the archive
+	 * @param delivery the {@link ClasspathDelivery} mode of the launch
+	 * @return the archive of this classpath, or null if the running JVM cannot record archives
+	 */
+	public static CdsArchive of(File directory, ResolvedClasspath resolved, String mainClass, List<String> jvmOptions,
+			String delivery)
+	{
+		if (MavenRun.javaVersion() < 13)
+			return null;
+
+		StringBuilder key = new StringBuilder();
+		key.append(System.getProperty("java.home")).append('\n');
+		key.append(System.getProperty("java.vm.version")).append('\n');
+		key.append(mainClass).append('\n');
+		for (String option : jvmOptions)
+			key.append(option).append('\n');
+		key.append(delivery).append('\n');
+		for (ResolvedClasspath.Entry entry : resolved.getEntries())
+		{
+			File file = entry.getFile();
+			key.append(file.getAbsolutePath()).append(':').append(file.length()).append(':').append(file.lastModified())
+					.append('\n');
+		}
+
+		String prefix = resolved.getArtifact().replaceAll("[^A-Za-z0-9._-]", "_") + "-";
+		return new CdsArchive(directory, prefix, Checksums.sha1(key.toString()));
+	}
+
+	File getArchive()
+	{
+		return archive;
+	}
+
+	/**
+	 * @return the options making the JVM use the archive, or record it if it does not exist yet
+	 */
+	public List<String> jvmOptions()
+	{
+		if (archive.isFile())
+			return Arrays.asList("-XX:SharedArchiveFile=" + archive.getAbsolutePath(), "-Xshare:auto");
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+			return Collections.emptyList();
+
+		// recorded aside, concurrent launches would otherwise write the same file
+		return Arrays.asList("-XX:ArchiveClassesAtExit=" + training.getAbsolutePath());
+	}
+
+	/**
+	 * To be called once the JVM has exited : installs the recorded archive, if any, in place of the stale ones. This is
+	 * best effort, a failure only means the next launch records the archive again.
+	 */
+	public void publish()
+	{
+		if (!training.isFile())
+			return;
+
+		try
+		{
+			Files.move(training.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e)
+		{
+			training.delete();
+			return;
+		}
+
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		for (File file : files)
+		{
+			String name = file.getName();
+			// same length check, as the prefix of an artifact can also start the prefix of another one
+			if (name.startsWith(prefix) && name.endsWith(EXTENSION) && name.length() == archive.getName().length()
+					&& !file.equals(archive))
+				file.delete();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashing helpers.
+ */
+public class Checksums
+{
+	private Checksums()
+	{
+	}
+
+	public static MessageDigest sha1Digest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// every Java platform has to provide SHA-1
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the hexadecimal SHA-1 of the UTF-8 bytes of the value
+	 */
+	public static String sha1(String value)
+	{
+		return hex(sha1Digest().digest(value.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Largest part of a file mapped at once
+	 */
+	private static final long MAPPED_REGION = 64 * 1024 * 1024;
+
+	/**
+	 * @return the hexadecimal SHA-1 of the content of the file, read through memory mapping so that the bytes go from
+	 *         the page cache to the digest without being copied
+	 */
+	public static String sha1(File file) throws IOException
+	{
+		MessageDigest digest = sha1Digest();
+		try (FileInputStream in = new FileInputStream(file))
+		{
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			for (long position = 0; position < size; position += MAPPED_REGION)
+				digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+						Math.min(MAPPED_REGION, size - position)));
+		}
+		return hex(digest.digest());
+	}
+
+	public static String hex(byte[] digest)
+	{
+		return String.format("%0" + (digest.length * 2) + "x", new BigInteger(1, digest));
+	}
+}
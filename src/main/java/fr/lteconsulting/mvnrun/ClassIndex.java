@@ -0,0 +1,247 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Tells which jar of a classpath holds a class or resource, without opening any of them.
+ *
+ * The index is built once per classpath from the central directories of its jars, the first jar holding a name winning
+ * like it does for class loading. It is stored in the cache as a table of name hashes sorted for binary search, followed
+ * by the names themselves, and is read through memory mapping : loading it costs nothing more than the pages that
+ * lookups touch.
+ *
+ * Classpaths holding directories, like the target/classes of reactor modules, are not indexed : their content changes
+ * without the key of the index, made of the sizes and dates of the entries, noticing it.
+ */
+public class ClassIndex
+{
+	private static final int MAGIC = 0x4d524349;
+
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Size of an entry of the table : name hash, offset of the name, jar number
+	 */
+	private static final int ENTRY_SIZE = 12;
+
+	private final List<File> jars;
+
+	private final ByteBuffer buffer;
+
+	private final int entryCount;
+
+	private final int tableStart;
+
+	private final int namesStart;
+
+	private ClassIndex(List<File> jars, ByteBuffer buffer) throws IOException
+	{
+		this.jars = jars;
+		this.buffer = buffer;
+
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION || buffer.getInt(8) != jars.size())
+			throw new IOException("Invalid class index");
+		entryCount = buffer.getInt(12);
+		tableStart = 16;
+		namesStart = tableStart + entryCount * ENTRY_SIZE;
+	}
+
+	/**
+	 * @return false if the classpath holds a directory, in which case it cannot be indexed
+	 */
+	public static boolean isIndexable(List<File> classpath)
+	{
+		for (File entry : classpath)
+		{
+			if (entry.isDirectory())
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Loads the index of the classpath from the directory, building it first if needed.
+	 *
+	 * @throws IOException if the classpath holds a directory, see {@link #isIndexable(List)}
+	 */
+	public static ClassIndex of(File directory, List<File> jars) throws IOException
+	{
+		if (!isIndexable(jars))
+			throw new IOException("Classpaths holding directories cannot be indexed");
+
+		File file = new File(directory, key(jars) + ".idx");
+		if (!file.isFile())
+			write(file, jars);
+
+		try (FileInputStream in = new FileInputStream(file))
+		{
+			FileChannel channel = in.getChannel();
+			// the mapping stays valid once the channel is closed
+			return new ClassIndex(Collections.unmodifiableList(new ArrayList<>(jars)),
+					channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	public List<File> getJars()
+	{
+		return jars;
+	}
+
+	/**
+	 * @param name a resource name, like org/example/Main.class
+	 * @return the first jar of the classpath holding it, or null if none does
+	 */
+	public File find(String name)
+	{
+		int hash = name.hashCode();
+
+		// finds the first entry with this hash
+		int low = 0;
+		int high = entryCount;
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (buffer.getInt(tableStart + middle * ENTRY_SIZE) < hash)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		byte[] expected = null;
+		for (int i = low; i < entryCount; i++)
+		{
+			int entry = tableStart + i * ENTRY_SIZE;
+			if (buffer.getInt(entry) != hash)
+				break;
+
+			if (expected == null)
+				expected = name.getBytes(StandardCharsets.UTF_8);
+			if (nameEquals(namesStart + buffer.getInt(entry + 4), expected))
+				return jars.get(buffer.getInt(entry + 8));
+		}
+		return null;
+	}
+
+	/**
+	 * @param className a binary class name, like org.example.Main
+	 * @return the first jar of the classpath holding the class, or null if none does
+	 */
+	public File findClass(String className)
+	{
+		return find(className.replace('.', '/') + ".class");
+	}
+
+	private boolean nameEquals(int position, byte[] expected)
+	{
+		int length = buffer.getShort(position) & 0xffff;
+		if (length != expected.length)
+			return false;
+		for (int i = 0; i < length; i++)
+		{
+			if (buffer.get(position + 2 + i) != expected[i])
+				return false;
+		}
+		return true;
+	}
+
+	private static String key(List<File> jars)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (File jar : jars)
+			sb.append(jar.getAbsolutePath()).append('|').append(jar.length()).append('|').append(jar.lastModified())
+					.append('\n');
+		return Checksums.sha1(sb.toString());
+	}
+
+	private static void write(File file, List<File> jars) throws IOException
+	{
+		// the first jar holding a name wins
+		final Map<String, Integer> owners = new HashMap<>();
+		for (int i = 0; i < jars.size(); i++)
+		{
+			File jar = jars.get(i);
+			if (!jar.isFile())
+				continue;
+
+			try (ZipFile zip = new ZipFile(jar))
+			{
+				Enumeration<? extends ZipEntry> entries = zip.entries();
+				while (entries.hasMoreElements())
+				{
+					ZipEntry entry = entries.nextElement();
+					if (!entry.isDirectory() && !owners.containsKey(entry.getName()))
+						owners.put(entry.getName(), i);
+				}
+			}
+			catch (IOException e)
+			{
+				// not an archive, nothing can be loaded from it
+			}
+		}
+
+		String[] names = owners.keySet().toArray(new String[0]);
+		Arrays.sort(names, new Comparator<String>()
+		{
+			@Override
+			public int compare(String a, String b)
+			{
+				int ha = a.hashCode();
+				int hb = b.hashCode();
+				return ha != hb ? (ha < hb ? -1 : 1) : a.compareTo(b);
+			}
+		});
+
+		ByteArrayOutputStream nameBytes = new ByteArrayOutputStream();
+		DataOutputStream namesOut = new DataOutputStream(nameBytes);
+		int[] offsets = new int[names.length];
+		for (int i = 0; i < names.length; i++)
+		{
+			offsets[i] = namesOut.size();
+			byte[] bytes = names[i].getBytes(StandardCharsets.UTF_8);
+			namesOut.writeShort(bytes.length);
+			namesOut.write(bytes);
+		}
+
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create directory " + directory);
+
+		File tmp = File.createTempFile(file.getName(), ".tmp", directory);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(jars.size());
+			out.writeInt(names.length);
+			for (int i = 0; i < names.length; i++)
+			{
+				out.writeInt(names[i].hashCode());
+				out.writeInt(offsets[i]);
+				out.writeInt(owners.get(names[i]));
+			}
+			nameBytes.writeTo(out);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
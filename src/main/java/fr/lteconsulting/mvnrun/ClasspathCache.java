@@ -0,0 +1,166 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * On-disk cache of resolved classpaths, keyed by artifact coordinate.
+ *
+ * Each coordinate is stored in its own properties file, recording every resolved file along with its size and last
+ * modification time. A cached classpath is only reused while all its files are still there and unchanged. Classpaths
+ * involving SNAPSHOT or dynamic versions are also considered stale after a configurable time to live, so that newly
+ * deployed snapshots get picked up.
+ */
+public class ClasspathCache
+{
+	public static final String DEFAULT_DIRECTORY = new File(System.getProperty("user.home"), ".mvnrun/cache").getPath();
+
+	private static final String FORMAT_VERSION = "1";
+
+	private final File directory;
+
+	private final long snapshotTtlMillis;
+
+	public ClasspathCache(File directory, long snapshotTtlMillis)
+	{
+		this.directory = directory;
+		this.snapshotTtlMillis = snapshotTtlMillis;
+	}
+
+	public File getDirectory()
+	{
+		return directory;
+	}
+
+	/**
+	 * @return the cached classpath for this coordinate, or null if there is none or it is not valid anymore
+	 */
+	public ResolvedClasspath get(String artifact)
+	{
+		File file = fileFor(artifact);
+		if (!file.isFile())
+			return null;
+
+		Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(file))
+		{
+			properties.load(in);
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+
+		if (!FORMAT_VERSION.equals(properties.getProperty("format")) || !artifact.equals(properties.getProperty("artifact")))
+			return null;
+
+		try
+		{
+			long resolved = Long.parseLong(properties.getProperty("resolved"));
+			int count = Integer.parseInt(properties.getProperty("entries"));
+
+			boolean dynamic = isDynamic(artifact);
+			List<ResolvedClasspath.Entry> entries = new ArrayList<>();
+			for (int i = 0; i < count; i++)
+			{
+				String coordinate = properties.getProperty("entry." + i + ".coordinate");
+				File entryFile = new File(properties.getProperty("entry." + i + ".path"));
+				long size = Long.parseLong(properties.getProperty("entry." + i + ".size"));
+				long lastModified = Long.parseLong(properties.getProperty("entry." + i + ".mtime"));
+
+				if (!entryFile.isFile() || entryFile.length() != size || entryFile.lastModified() != lastModified)
+					return null;
+
+				dynamic |= isDynamic(coordinate);
+				entries.add(new ResolvedClasspath.Entry(coordinate, entryFile));
+			}
+
+			if (dynamic && System.currentTimeMillis() - resolved > snapshotTtlMillis)
+				return null;
+
+			File mainJar = new File(properties.getProperty("main"));
+			if (!mainJar.isFile())
+				return null;
+
+			return new ResolvedClasspath(artifact, mainJar, entries);
+		}
+		catch (RuntimeException e)
+		{
+			// missing or malformed property, consider the entry as absent
+			return null;
+		}
+	}
+
+	public void put(ResolvedClasspath classpath) throws IOException
+	{
+		Properties properties = new Properties();
+		properties.setProperty("format", FORMAT_VERSION);
+		properties.setProperty("artifact", classpath.getArtifact());
+		properties.setProperty("resolved", String.valueOf(System.currentTimeMillis()));
+		properties.setProperty("main", classpath.getMainJar().getAbsolutePath());
+
+		List<ResolvedClasspath.Entry> entries = classpath.getEntries();
+		properties.setProperty("entries", String.valueOf(entries.size()));
+		for (int i = 0; i < entries.size(); i++)
+		{
+			ResolvedClasspath.Entry entry = entries.get(i);
+			properties.setProperty("entry." + i + ".coordinate", entry.getCoordinate());
+			properties.setProperty("entry." + i + ".path", entry.getFile().getAbsolutePath());
+			properties.setProperty("entry." + i + ".size", String.valueOf(entry.getFile().length()));
+			properties.setProperty("entry." + i + ".mtime", String.valueOf(entry.getFile().lastModified()));
+		}
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create cache directory " + directory);
+
+		// write aside then move, so that concurrent readers never see a partial file
+		File file = fileFor(classpath.getArtifact());
+		File tmp = File.createTempFile(file.getName(), ".tmp", directory);
+		try (OutputStream out = new FileOutputStream(tmp))
+		{
+			properties.store(out, "mvnrun resolved classpath");
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public void remove(String artifact)
+	{
+		fileFor(artifact).delete();
+	}
+
+	public void clear()
+	{
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		for (File file : files)
+		{
+			if (file.isFile() && file.getName().endsWith(".properties"))
+				file.delete();
+		}
+	}
+
+	private File fileFor(String artifact)
+	{
+		return new File(directory, artifact.replaceAll("[^A-Za-z0-9._-]", "_") + ".properties");
+	}
+
+	/**
+	 * @return true when the coordinate may resolve to something different over time
+	 */
+	static boolean isDynamic(String coordinate)
+	{
+		String version = coordinate.substring(coordinate.lastIndexOf(':') + 1);
+		return version.endsWith("SNAPSHOT") || "LATEST".equals(version) || "RELEASE".equals(version)
+				|| version.startsWith("[") || version.startsWith("(");
+	}
+}
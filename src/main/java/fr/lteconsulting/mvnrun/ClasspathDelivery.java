@@ -0,0 +1,131 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Passes a classpath to a child JVM.
+ *
+ * Small classpaths are given inline with -cp. Large ones would hit the limits operating systems put on command lines,
+ * so they are written to an argument file (Java 9 and later) or to the manifest of an otherwise empty pathing jar. The
+ * generated files are named after a hash of the classpath, so that each of them is written once and reused by every
+ * launch of the same classpath.
+ */
+public class ClasspathDelivery
+{
+	public static final String AUTO = "auto";
+
+	public static final String INLINE = "inline";
+
+	public static final String ARGFILE = "argfile";
+
+	public static final String JAR = "jar";
+
+	/**
+	 * Longest classpath given inline in auto mode, well below the 32K characters of a Windows command line
+	 */
+	static final int INLINE_LIMIT = 8 * 1024;
+
+	private ClasspathDelivery()
+	{
+	}
+
+	/**
+	 * @param mode one of auto, inline, argfile or jar
+	 * @param directory where generated files are stored
+	 * @return the JVM arguments setting the classpath
+	 */
+	public static List<String> arguments(List<String> classPath, String mode, File directory) throws IOException
+	{
+		String joined = MavenRun.join(classPath, File.pathSeparator);
+
+		if (AUTO.equals(mode))
+		{
+			if (joined.length() <= INLINE_LIMIT)
+				mode = INLINE;
+			else
+				mode = MavenRun.javaVersion() >= 9 ? ARGFILE : JAR;
+		}
+
+		switch (mode)
+		{
+			case INLINE:
+				return Arrays.asList("-cp", joined);
+
+			case ARGFILE:
+				return Arrays.asList("@" + argumentFile(joined, directory).getAbsolutePath());
+
+			case JAR:
+				return Arrays.asList("-cp", pathingJar(classPath, joined, directory).getAbsolutePath());
+
+			default:
+				throw new IllegalArgumentException("Unknown classpath delivery mode " + mode);
+		}
+	}
+
+	private static File argumentFile(String joined, File directory) throws IOException
+	{
+		File file = new File(directory, Checksums.sha1(joined) + ".args");
+		if (file.isFile())
+			return file;
+
+		File tmp = temporaryFile(file, directory);
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))
+		{
+			// inside quotes, the java launcher treats backslashes as escape characters
+			writer.write("-cp \"" + joined.replace("\\", "\\\\").replace("\"", "\\\"") + "\"\n");
+		}
+		return install(tmp, file);
+	}
+
+	private static File pathingJar(List<String> classPath, String joined, File directory) throws IOException
+	{
+		File file = new File(directory, Checksums.sha1(joined) + ".jar");
+		if (file.isFile())
+			return file;
+
+		StringBuilder urls = new StringBuilder();
+		for (String path : classPath)
+		{
+			if (urls.length() > 0)
+				urls.append(' ');
+			urls.append(new File(path).toURI().toString());
+		}
+
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, urls.toString());
+
+		File tmp = temporaryFile(file, directory);
+		try (OutputStream out = new JarOutputStream(new FileOutputStream(tmp), manifest))
+		{
+			// the manifest is all there is
+		}
+		return install(tmp, file);
+	}
+
+	private static File temporaryFile(File file, File directory) throws IOException
+	{
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create directory " + directory);
+		return File.createTempFile(file.getName(), ".tmp", directory);
+	}
+
+	private static File install(File tmp, File file) throws IOException
+	{
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return file;
+	}
+}
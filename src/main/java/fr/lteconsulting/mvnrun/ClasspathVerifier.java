@@ -0,0 +1,190 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks the files of a classpath against the .sha1 files the local repository keeps next to them.
+ *
+ * Files are hashed in parallel, one task per file over as many threads as there are processors. Successful checks are
+ * recorded with the size and modification time of the file, so that unchanged files are not hashed again by the next
+ * launches. Files without a .sha1 file cannot be checked and are skipped.
+ */
+public class ClasspathVerifier
+{
+	private final File resultsFile;
+
+	private int hashed;
+
+	/**
+	 * @param resultsFile where successful checks are recorded
+	 */
+	public ClasspathVerifier(File resultsFile)
+	{
+		this.resultsFile = resultsFile;
+	}
+
+	/**
+	 * @return the number of files hashed by the last verification, the other ones being already known as valid or
+	 *         having no checksum
+	 */
+	public int getHashed()
+	{
+		return hashed;
+	}
+
+	/**
+	 * @return a description of each corrupted file, empty when all of them are valid
+	 */
+	public List<String> verify(ResolvedClasspath classpath) throws IOException
+	{
+		Properties results = loadResults();
+
+		List<File> files = new ArrayList<>();
+		List<String> expected = new ArrayList<>();
+		for (ResolvedClasspath.Entry entry : classpath.getEntries())
+		{
+			File file = entry.getFile().getAbsoluteFile();
+			String sha1 = expectedSha1(file);
+			if (sha1 == null || (fingerprint(file) + ":" + sha1).equals(results.getProperty(file.getPath())))
+				continue;
+			files.add(file);
+			expected.add(sha1);
+		}
+
+		hashed = files.size();
+		if (files.isEmpty())
+			return new ArrayList<>();
+
+		List<String> actual = hash(files);
+
+		List<String> problems = new ArrayList<>();
+		boolean verified = false;
+		for (int i = 0; i < files.size(); i++)
+		{
+			File file = files.get(i);
+			if (expected.get(i).equalsIgnoreCase(actual.get(i)))
+			{
+				results.setProperty(file.getPath(), fingerprint(file) + ":" + expected.get(i));
+				verified = true;
+			}
+			else
+			{
+				results.remove(file.getPath());
+				problems.add(file + " is corrupted : its SHA-1 is " + actual.get(i) + " instead of " + expected.get(i));
+			}
+		}
+
+		if (verified)
+			storeResults(results);
+		return problems;
+	}
+
+	private static List<String> hash(List<File> files) throws IOException
+	{
+		ExecutorService executor = Executors
+				.newFixedThreadPool(Math.min(files.size(), Runtime.getRuntime().availableProcessors()));
+		try
+		{
+			List<Future<String>> futures = new ArrayList<>();
+			for (final File file : files)
+			{
+				futures.add(executor.submit(new Callable<String>()
+				{
+					@Override
+					public String call() throws IOException
+					{
+						return Checksums.sha1(file);
+					}
+				}));
+			}
+
+			List<String> sha1s = new ArrayList<>();
+			for (Future<String> future : futures)
+				sha1s.add(future.get());
+			return sha1s;
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while hashing", e);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return the checksum published along with the file, or null if there is none
+	 */
+	static String expectedSha1(File file) throws IOException
+	{
+		File sha1File = new File(file.getPath() + ".sha1");
+		if (!sha1File.isFile())
+			return null;
+
+		// some repositories append the file name after the checksum
+		String content = new String(Files.readAllBytes(sha1File.toPath()), StandardCharsets.US_ASCII).trim();
+		String[] parts = content.split("\\s+");
+		return parts[0].isEmpty() ? null : parts[0];
+	}
+
+	private static String fingerprint(File file)
+	{
+		return file.length() + ":" + file.lastModified();
+	}
+
+	private Properties loadResults()
+	{
+		Properties results = new Properties();
+		if (resultsFile.isFile())
+		{
+			try (InputStream in = new FileInputStream(resultsFile))
+			{
+				results.load(in);
+			}
+			catch (IOException e)
+			{
+				// everything will be hashed again
+			}
+		}
+		return results;
+	}
+
+	private void storeResults(Properties results) throws IOException
+	{
+		File directory = resultsFile.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create directory " + directory);
+
+		File tmp = File.createTempFile(resultsFile.getName(), ".tmp", directory);
+		try (OutputStream out = new FileOutputStream(tmp))
+		{
+			results.store(out, "mvnrun verified files");
+		}
+		Files.move(tmp.toPath(), resultsFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+}
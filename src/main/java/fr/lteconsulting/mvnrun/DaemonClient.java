@@ -0,0 +1,139 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Thin client of {@link MavenRunDaemon}, taking the same arguments as {@link MavenRunApp}.
+ *
+ * It forwards its arguments, environment, working directory and standard streams to the daemon and exits with the exit
+ * code of the launched process. When no daemon is running, the request is run locally instead. Two extra arguments are
+ * understood : --stats prints the daemon statistics and --stop stops it.
+ */
+public class DaemonClient
+{
+	public static void main(String[] args) throws IOException
+	{
+		String request = DaemonProtocol.REQUEST_RUN;
+		if (args.length == 1 && "--stats".equals(args[0]))
+			request = DaemonProtocol.REQUEST_STATS;
+		else if (args.length == 1 && "--stop".equals(args[0]))
+			request = DaemonProtocol.REQUEST_STOP;
+
+		Properties daemon = DaemonProtocol.readDaemonFile();
+		Socket socket = connect(daemon);
+		if (socket == null)
+		{
+			if (!DaemonProtocol.REQUEST_RUN.equals(request))
+			{
+				System.err.println("No mvnrun daemon is running");
+				System.exit(1);
+			}
+
+			MavenRunApp.main(args);
+			return;
+		}
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+		DaemonProtocol.writeString(out, daemon.getProperty("token"));
+		DaemonProtocol.writeString(out, request);
+		if (DaemonProtocol.REQUEST_RUN.equals(request))
+		{
+			DaemonProtocol.writeString(out, System.getProperty("user.dir"));
+			out.writeInt(args.length);
+			for (String arg : args)
+				DaemonProtocol.writeString(out, arg);
+
+			Map<String, String> environment = System.getenv();
+			out.writeInt(environment.size());
+			for (Map.Entry<String, String> entry : environment.entrySet())
+			{
+				DaemonProtocol.writeString(out, entry.getKey());
+				DaemonProtocol.writeString(out, entry.getValue());
+			}
+			out.flush();
+
+			forwardStdin(out);
+		}
+		out.flush();
+
+		OutputStream stdout = new FileOutputStream(FileDescriptor.out);
+		OutputStream stderr = new FileOutputStream(FileDescriptor.err);
+		byte[] buffer = new byte[StreamPump.BUFFER_SIZE];
+		while (true)
+		{
+			byte channel = in.readByte();
+			int length = in.readInt();
+			if (channel == DaemonProtocol.CHANNEL_EXIT)
+			{
+				int exitCode = in.readInt();
+				socket.close();
+				System.exit(exitCode);
+			}
+
+			OutputStream target = channel == DaemonProtocol.CHANNEL_STDERR ? stderr : stdout;
+			while (length > 0)
+			{
+				int read = in.read(buffer, 0, Math.min(buffer.length, length));
+				if (read < 0)
+					throw new IOException("Connection to the daemon lost");
+				target.write(buffer, 0, read);
+				length -= read;
+			}
+		}
+	}
+
+	private static Socket connect(Properties daemon)
+	{
+		if (daemon == null)
+			return null;
+
+		try
+		{
+			return new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(daemon.getProperty("port")));
+		}
+		catch (IOException | RuntimeException e)
+		{
+			// stale daemon file
+			return null;
+		}
+	}
+
+	private static void forwardStdin(DataOutputStream out)
+	{
+		final InputStream stdin = new FileInputStream(FileDescriptor.in);
+		final DaemonProtocol.FrameOutputStream frames = new DaemonProtocol.FrameOutputStream(out, DaemonProtocol.CHANNEL_STDIN);
+		Thread thread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				new StreamPump(stdin, frames, false).run();
+				try
+				{
+					frames.end();
+				}
+				catch (IOException e)
+				{
+					// the process is already over
+				}
+			}
+		}, "mvnrun-stdin");
+		thread.setDaemon(true);
+		thread.start();
+	}
+}
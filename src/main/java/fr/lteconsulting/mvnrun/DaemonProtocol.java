@@ -0,0 +1,273 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/**
+ * Wire format spoken between {@link DaemonClient} and {@link MavenRunDaemon}.
+ *
+ * A connection starts with the client's request : the daemon token, the request kind and, for a launch, the working
+ * directory, the arguments and the environment. Then both sides exchange frames made of a channel byte, an int length
+ * and that many bytes : stdin from the client, stdout and stderr from the daemon, until the daemon sends the exit frame
+ * holding the exit code. An empty stdin frame means end of input.
+ *
+ * Every length read from the connection is checked before anything is allocated : the token and the request kind are
+ * at most {@link #MAX_TOKEN_LENGTH} bytes, the rest of the request at most {@link #MAX_REQUEST_LENGTH} bytes.
+ *
+ * Only this class and {@link DaemonClient} are loaded on the client side, so it must not depend on anything else.
+ */
+public final class DaemonProtocol
+{
+	public static final String REQUEST_RUN = "run";
+
+	public static final String REQUEST_STATS = "stats";
+
+	public static final String REQUEST_STOP = "stop";
+
+	public static final byte CHANNEL_STDIN = 0;
+
+	public static final byte CHANNEL_STDOUT = 1;
+
+	public static final byte CHANNEL_STDERR = 2;
+
+	public static final byte CHANNEL_EXIT = 3;
+
+	/**
+	 * Bound of the token and of the request kind, read before the client is known to hold the token
+	 */
+	public static final int MAX_TOKEN_LENGTH = 64 * 1024;
+
+	/**
+	 * Bound of the working directory, arguments and environment of a launch request, taken together
+	 */
+	public static final int MAX_REQUEST_LENGTH = 8 * 1024 * 1024;
+
+	/**
+	 * File where a running daemon publishes its port and token
+	 */
+	public static final File DAEMON_FILE = new File(System.getProperty("user.home"), ".mvnrun/daemon.properties");
+
+	private DaemonProtocol()
+	{
+	}
+
+	public static void writeString(DataOutputStream out, String value) throws IOException
+	{
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	public static String readString(DataInputStream in) throws IOException
+	{
+		return readString(in, MAX_REQUEST_LENGTH);
+	}
+
+	/**
+	 * @throws ProtocolException if the announced length is negative or above the maximum
+	 */
+	public static String readString(DataInputStream in, int maxLength) throws IOException
+	{
+		int length = in.readInt();
+		if (length < 0 || length > maxLength)
+			throw new ProtocolException("Invalid string length " + length);
+
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads the number of strings which follow, each of them taking at least the bytes of its length.
+	 *
+	 * @throws ProtocolException if the count is negative or cannot fit in a request
+	 */
+	public static int readCount(DataInputStream in) throws IOException
+	{
+		int count = in.readInt();
+		if (count < 0 || count > MAX_REQUEST_LENGTH / 4)
+			throw new ProtocolException("Invalid count " + count);
+		return count;
+	}
+
+	/**
+	 * @return a stream reading at most {@link #MAX_REQUEST_LENGTH} bytes of the connection, without buffering any
+	 */
+	public static DataInputStream requestInput(DataInputStream in)
+	{
+		return new DataInputStream(new LimitedInputStream(in, MAX_REQUEST_LENGTH));
+	}
+
+	/**
+	 * @return the port and token of the running daemon, or null if none was started
+	 */
+	public static Properties readDaemonFile() throws IOException
+	{
+		if (!DAEMON_FILE.isFile())
+			return null;
+
+		Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(DAEMON_FILE))
+		{
+			properties.load(in);
+		}
+		return properties;
+	}
+
+	/**
+	 * Writes everything as frames of one channel. Several of them may share the same connection.
+	 */
+	public static class FrameOutputStream extends OutputStream
+	{
+		private final DataOutputStream out;
+
+		private final byte channel;
+
+		public FrameOutputStream(DataOutputStream out, byte channel)
+		{
+			this.out = out;
+			this.channel = channel;
+		}
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			if (len == 0)
+				return;
+
+			synchronized (out)
+			{
+				out.writeByte(channel);
+				out.writeInt(len);
+				out.write(b, off, len);
+			}
+		}
+
+		/**
+		 * Sends the empty frame telling the other side that this channel is over.
+		 */
+		public void end() throws IOException
+		{
+			synchronized (out)
+			{
+				out.writeByte(channel);
+				out.writeInt(0);
+				out.flush();
+			}
+		}
+
+		@Override
+		public void flush() throws IOException
+		{
+			synchronized (out)
+			{
+				out.flush();
+			}
+		}
+	}
+
+	/**
+	 * Reads the payload of consecutive frames of a connection carrying only one channel.
+	 */
+	public static class FrameInputStream extends InputStream
+	{
+		private final DataInputStream in;
+
+		private int remaining;
+
+		private boolean ended;
+
+		public FrameInputStream(DataInputStream in)
+		{
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			while (remaining == 0)
+			{
+				if (ended)
+					return -1;
+
+				in.readByte();
+				remaining = in.readInt();
+				if (remaining < 0)
+					throw new ProtocolException("Invalid frame length " + remaining);
+				if (remaining == 0)
+					ended = true;
+			}
+
+			int read = in.read(b, off, Math.min(len, remaining));
+			if (read < 0)
+				return -1;
+			remaining -= read;
+			return read;
+		}
+
+		@Override
+		public int available() throws IOException
+		{
+			return Math.min(remaining, in.available());
+		}
+	}
+
+	/**
+	 * Fails once more than a given number of bytes were read.
+	 */
+	private static class LimitedInputStream extends FilterInputStream
+	{
+		private long remaining;
+
+		LimitedInputStream(InputStream in, long limit)
+		{
+			super(in);
+			this.remaining = limit;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			consume(1);
+			return super.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int read = super.read(b, off, (int) Math.min(len, Math.max(remaining, 1)));
+			if (read > 0)
+				consume(read);
+			return read;
+		}
+
+		private void consume(int count) throws ProtocolException
+		{
+			if (count > remaining)
+				throw new ProtocolException("Request longer than " + MAX_REQUEST_LENGTH + " bytes");
+			remaining -= count;
+		}
+	}
+}
@@ -0,0 +1,542 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * What the directories of a repository held when it was last indexed.
+ * <p/>
+ * Each directory holding files is recorded with its last modification time, its number of entries and a hash of the
+ * names, sizes and modification times of its files, along with the uinfos of its artifacts, the keys of their
+ * documents in the index. A directory found the same on the next run holds the artifacts which were indexed then,
+ * their files need not be looked at again. The files themselves are not read, hashing their content would cost as
+ * much as indexing them.
+ * <p/>
+ * A snapshot is only valid for the index it was taken with, and is ignored when the index is built with other index
+ * creators.
+ * <p/>
+ * A snapshot may be given a number of directories to keep in memory. Past it, the directories recorded by a scan are
+ * written to a spill file until the snapshot is saved, and a snapshot read from a file is kept in an on disk hash table
+ * instead of the heap. Such a snapshot can neither be listed nor have directories removed.
+ */
+public class DirectorySnapshot implements Closeable {
+    private static final int MAGIC = 0x6d76736e;
+
+    private static final int VERSION = 1;
+
+    private final String key;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private final Map<String, List<String>> uinfos = new ConcurrentHashMap<String, List<String>>();
+
+    /**
+     * The paths of the entries in order, built by the first lookup of a sub-tree and kept up to date from then on
+     */
+    private volatile NavigableSet<String> sortedPaths;
+
+    private final int maxInMemory;
+
+    private final File spillDirectory;
+
+    /**
+     * Directories recorded once the memory budget was reached, in the format of the snapshot file
+     */
+    private File spillFile;
+
+    private DataOutputStream spill;
+
+    private int spilled;
+
+    private IOException spillError;
+
+    /**
+     * Directories of a snapshot read from a file which did not fit in memory
+     */
+    private SpilledTable table;
+
+    /**
+     * @param key what the index holds, like the ids of its index creators
+     */
+    public DirectorySnapshot(String key) {
+        this(key, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * @param maxInMemory the number of directories kept in memory
+     * @param spillDirectory where directories past that number are written, the temporary directory if null
+     */
+    public DirectorySnapshot(String key, int maxInMemory, File spillDirectory) {
+        this.key = key;
+        this.maxInMemory = maxInMemory;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Reads the snapshot saved in the file.
+     *
+     * @return the snapshot, empty if the file does not exist, cannot be read or was taken with another key
+     */
+    public static DirectorySnapshot load(File file, String key) {
+        return load(file, key, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Reads the snapshot saved in the file, keeping it on disk if it holds more than the given number of directories.
+     *
+     * @return the snapshot, empty if the file does not exist, cannot be read or was taken with another key
+     */
+    public static DirectorySnapshot load(File file, String key, int maxInMemory, File spillDirectory) {
+        DirectorySnapshot snapshot = new DirectorySnapshot(key, maxInMemory, spillDirectory);
+        if (!file.isFile()) {
+            return snapshot;
+        }
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !key.equals(in.readUTF())) {
+                return snapshot;
+            }
+
+            int count = in.readInt();
+            if (count > maxInMemory) {
+                snapshot.table = new SpilledTable(spillDirectory, count);
+            }
+            for (int i = count; i > 0; i--) {
+                String path = in.readUTF();
+                Entry entry = new Entry(in.readLong(), in.readInt(), in.readLong());
+                List<String> artifacts = new ArrayList<String>();
+                for (int j = in.readInt(); j > 0; j--) {
+                    artifacts.add(in.readUTF());
+                }
+                if (snapshot.table != null) {
+                    snapshot.table.put(path, entry, artifacts);
+                } else {
+                    snapshot.put(path, entry, artifacts);
+                }
+            }
+        } catch (IOException e) {
+            // a truncated or corrupt snapshot, everything is indexed again
+            snapshot.close();
+            snapshot = new DirectorySnapshot(key, maxInMemory, spillDirectory);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Writes the snapshot, replacing the file at once.
+     */
+    public void save(File file) throws IOException {
+        if (table != null) {
+            throw new IllegalStateException("A snapshot read from a file and kept on disk cannot be saved");
+        }
+        if (spillError != null) {
+            throw new IOException("Cannot spill the snapshot to disk", spillError);
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+
+            out.writeInt(spilled + entries.size());
+            if (spill != null) {
+                spill.flush();
+                Files.copy(spillFile.toPath(), out);
+            }
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                writeRecord(out, entry.getKey(), entry.getValue(), getUinfos(entry.getKey()));
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param path the path of the directory relative to the repository
+     * @return whether the directory was recorded with the same state
+     */
+    public boolean isUnchanged(String path, Entry entry) {
+        Entry recorded = entries.get(path);
+        if (recorded == null && table != null) {
+            SpilledTable.Record record = table.get(path);
+            recorded = record != null ? record.entry : null;
+        }
+        return entry.equals(recorded);
+    }
+
+    /**
+     * @param artifacts the uinfos of the artifacts found in the directory
+     */
+    public void put(String path, Entry entry, Collection<String> artifacts) {
+        uinfos.put(path, new ArrayList<String>(artifacts));
+        entries.put(path, entry);
+        if (sortedPaths != null) {
+            sortedPaths.add(path);
+        }
+
+        if (entries.size() > maxInMemory) {
+            spill();
+        }
+    }
+
+    /**
+     * Forgets a directory which no longer exists.
+     *
+     * @return the uinfos of the artifacts it held
+     */
+    public List<String> remove(String path) {
+        checkInMemory();
+        List<String> artifacts = getUinfos(path);
+        entries.remove(path);
+        uinfos.remove(path);
+        if (sortedPaths != null) {
+            sortedPaths.remove(path);
+        }
+        return artifacts;
+    }
+
+    /**
+     * @return the paths of the recorded directories
+     */
+    public Set<String> getPaths() {
+        checkInMemory();
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * @param path the path of a directory relative to the repository
+     * @return the paths of the recorded directories which are that one or below it
+     */
+    public List<String> getSubTree(String path) {
+        checkInMemory();
+        if (sortedPaths == null) {
+            sortedPaths = new ConcurrentSkipListSet<String>(entries.keySet());
+        }
+
+        List<String> subTree = new ArrayList<String>();
+        if (entries.containsKey(path)) {
+            subTree.add(path);
+        }
+        // the paths starting with the directory and a separator, the next character closing the range
+        subTree.addAll(sortedPaths.subSet(path + File.separatorChar, path + (char) (File.separatorChar + 1)));
+        return subTree;
+    }
+
+    /**
+     * @return the uinfos of the artifacts of the directory
+     */
+    public List<String> getUinfos(String path) {
+        List<String> artifacts = uinfos.get(path);
+        if (artifacts == null && table != null) {
+            SpilledTable.Record record = table.get(path);
+            artifacts = record != null ? record.uinfos : null;
+        }
+        return artifacts != null ? artifacts : Collections.<String>emptyList();
+    }
+
+    public int size() {
+        return entries.size() + getSpilled();
+    }
+
+    /**
+     * @return the number of directories kept on disk
+     */
+    public int getSpilled() {
+        return spilled + (table != null ? table.size : 0);
+    }
+
+    /**
+     * Deletes the files holding the directories spilled to disk.
+     */
+    public void close() {
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                // deleted anyway
+            }
+            spillFile.delete();
+        }
+        if (table != null) {
+            table.close();
+        }
+    }
+
+    private void checkInMemory() {
+        if (spill != null || table != null) {
+            throw new IllegalStateException("The snapshot was spilled to disk");
+        }
+    }
+
+    /**
+     * Moves the directories in memory to the spill file.
+     */
+    private synchronized void spill() {
+        if (entries.size() <= maxInMemory || spillError != null) {
+            return;
+        }
+
+        // sub-trees are not looked up once spilled
+        sortedPaths = null;
+        try {
+            if (spill == null) {
+                spillFile = File.createTempFile("mvnrun-snapshot", ".spill", spillDirectory);
+                spillFile.deleteOnExit();
+                spill = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+            }
+
+            // an entry is put after its uinfos, those of an entry found here are there
+            for (String path : entries.keySet()) {
+                Entry entry = entries.remove(path);
+                writeRecord(spill, path, entry, uinfos.remove(path));
+                spilled++;
+            }
+        } catch (IOException e) {
+            spillError = e;
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, String path, Entry entry, List<String> artifacts)
+            throws IOException {
+        out.writeUTF(path);
+        out.writeLong(entry.lastModified);
+        out.writeInt(entry.count);
+        out.writeLong(entry.hash);
+
+        out.writeInt(artifacts.size());
+        for (String uinfo : artifacts) {
+            out.writeUTF(uinfo);
+        }
+    }
+
+    /**
+     * The state of one directory
+     */
+    public static final class Entry {
+        private final long lastModified;
+
+        private final int count;
+
+        private final long hash;
+
+        Entry(long lastModified, int count, long hash) {
+            this.lastModified = lastModified;
+            this.count = count;
+            this.hash = hash;
+        }
+
+        /**
+         * @param files the entries of the directory
+         */
+        public static Entry of(File directory, File[] files) {
+            // 64 bits FNV-1a
+            long hash = 0xcbf29ce484222325L;
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    continue;
+                }
+                for (byte b : file.getName().getBytes(StandardCharsets.UTF_8)) {
+                    hash = (hash ^ b) * 0x100000001b3L;
+                }
+                hash = (hash ^ file.length()) * 0x100000001b3L;
+                hash = (hash ^ file.lastModified()) * 0x100000001b3L;
+            }
+            return new Entry(directory.lastModified(), files.length, hash);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) o;
+            return lastModified == other.lastModified && count == other.count && hash == other.hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+
+    /**
+     * Directories kept on disk : an open addressing table of fixed size slots indexed by the hash of the path, each
+     * holding the state of a directory and where its path and uinfos are in the data file. Files are read with
+     * positional reads, by any number of threads.
+     */
+    private static final class SpilledTable {
+        /**
+         * Hash of the path, last modification time, hash of the files, offset of the record plus one, number of
+         * entries, size of the record
+         */
+        private static final int SLOT_SIZE = 40;
+
+        private final File tableFile;
+
+        private final File dataFile;
+
+        private final RandomAccessFile tableAccess;
+
+        private final RandomAccessFile dataAccess;
+
+        private final long capacity;
+
+        private long dataSize;
+
+        private int size;
+
+        SpilledTable(File directory, int count) throws IOException {
+            // at most half full, probes stay short
+            capacity = Long.highestOneBit(Math.max(2L * count, 1)) * 2;
+
+            tableFile = File.createTempFile("mvnrun-snapshot", ".table", directory);
+            tableFile.deleteOnExit();
+            dataFile = File.createTempFile("mvnrun-snapshot", ".data", directory);
+            dataFile.deleteOnExit();
+
+            tableAccess = new RandomAccessFile(tableFile, "rw");
+            tableAccess.setLength(capacity * SLOT_SIZE);
+            dataAccess = new RandomAccessFile(dataFile, "rw");
+        }
+
+        void put(String path, Entry entry, List<String> artifacts) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(path);
+            out.writeInt(artifacts.size());
+            for (String uinfo : artifacts) {
+                out.writeUTF(uinfo);
+            }
+            byte[] record = bytes.toByteArray();
+            write(dataAccess.getChannel(), ByteBuffer.wrap(record), dataSize);
+
+            long hash = hash(path);
+            long slot = hash & (capacity - 1);
+            while (read(tableAccess.getChannel(), slot * SLOT_SIZE, SLOT_SIZE).getLong(24) != 0) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(SLOT_SIZE);
+            buffer.putLong(hash).putLong(entry.lastModified).putLong(entry.hash).putLong(dataSize + 1)
+                    .putInt(entry.count).putInt(record.length);
+            buffer.flip();
+            write(tableAccess.getChannel(), buffer, slot * SLOT_SIZE);
+
+            dataSize += record.length;
+            size++;
+        }
+
+        /**
+         * @return the directory, null if it is not recorded or cannot be read
+         */
+        Record get(String path) {
+            try {
+                long hash = hash(path);
+                for (long slot = hash & (capacity - 1); ; slot = (slot + 1) & (capacity - 1)) {
+                    ByteBuffer buffer = read(tableAccess.getChannel(), slot * SLOT_SIZE, SLOT_SIZE);
+                    long offset = buffer.getLong(24);
+                    if (offset == 0) {
+                        return null;
+                    }
+                    if (buffer.getLong(0) != hash) {
+                        continue;
+                    }
+
+                    byte[] record = read(dataAccess.getChannel(), offset - 1, buffer.getInt(36)).array();
+                    DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+                    if (!in.readUTF().equals(path)) {
+                        continue;
+                    }
+                    List<String> artifacts = new ArrayList<String>();
+                    for (int i = in.readInt(); i > 0; i--) {
+                        artifacts.add(in.readUTF());
+                    }
+                    return new Record(new Entry(buffer.getLong(8), buffer.getInt(32), buffer.getLong(16)), artifacts);
+                }
+            } catch (IOException e) {
+                // the directory is indexed again
+                return null;
+            }
+        }
+
+        void close() {
+            try {
+                tableAccess.close();
+                dataAccess.close();
+            } catch (IOException e) {
+                // deleted anyway
+            }
+            tableFile.delete();
+            dataFile.delete();
+        }
+
+        private static long hash(String path) {
+            long hash = 0xcbf29ce484222325L;
+            for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+                hash = (hash ^ b) * 0x100000001b3L;
+            }
+            // spreads the bits of the hash over the low ones, which choose the slot
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+
+        private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        }
+
+        private static final class Record {
+            private final Entry entry;
+
+            private final List<String> uinfos;
+
+            Record(Entry entry, List<String> uinfos) {
+                this.entry = entry;
+                this.uinfos = uinfos;
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Runs a main class inside the current JVM, saving the startup of a second one.
+ *
+ * The launched classpath gets its own class loader, whose parent is the platform class loader : none of mvnrun's own
+ * dependencies are visible to the application. When the classpath has a {@link ClassIndex}, the loader uses it to go
+ * straight to the jar of each class. The thread context class loader is switched for the time of the call.
+ *
+ * A call to System.exit ends the whole JVM with that status, as it would end a forked one : intercepting it needs a
+ * security manager, which recent runtimes no longer allow and which would trap the exits of every other thread too.
+ * Applications which call System.exit before they are done should be launched in their own process.
+ */
+public class InProcessLauncher
+{
+	private InProcessLauncher()
+	{
+	}
+
+	/**
+	 * Finds the main class of an executable jar.
+	 *
+	 * @return the Main-Class manifest entry, or null if the jar has none
+	 */
+	public static String findMainClass(File jar) throws IOException
+	{
+		try (JarFile jarFile = new JarFile(jar))
+		{
+			Manifest manifest = jarFile.getManifest();
+			return manifest == null ? null : manifest.getMainAttributes().getValue("Main-Class");
+		}
+	}
+
+	/**
+	 * Invokes the main method and waits for it to return. Threads started by the application keep running afterwards,
+	 * so the class loader is left open.
+	 *
+	 * @param index the index of the classpath, or null to look for classes in every jar
+	 * @param className the class to launch, or null to use the Main-Class of the main jar
+	 * @return 0 if main returned normally, 1 if it failed
+	 */
+	public static int launch(List<File> classpath, ClassIndex index, File mainJar, String className, String[] args)
+			throws IOException, ReflectiveOperationException
+	{
+		return invoke(loadMain(classpath, index, mainJar, className), args);
+	}
+
+	/**
+	 * Loads the main class in a new isolated class loader, without initializing it.
+	 *
+	 * @param index the index of the classpath, or null to look for classes in every jar
+	 * @param className the class to launch, or null to use the Main-Class of the main jar
+	 * @return its main method
+	 */
+	static Method loadMain(List<File> classpath, ClassIndex index, File mainJar, String className)
+			throws IOException, ReflectiveOperationException
+	{
+		if (className == null)
+		{
+			className = findMainClass(mainJar);
+			if (className == null)
+				throw new IOException("No Main-Class in the manifest of " + mainJar + ", a main class must be specified");
+		}
+
+		ClassLoader parent = ClassLoader.getSystemClassLoader().getParent();
+		ClassLoader loader;
+		if (index != null)
+		{
+			loader = new IndexedClassLoader(index, parent);
+		}
+		else
+		{
+			URL[] urls = new URL[classpath.size()];
+			for (int i = 0; i < urls.length; i++)
+				urls[i] = classpath.get(i).toURI().toURL();
+			loader = new URLClassLoader(urls, parent);
+		}
+
+		Class<?> mainClass = Class.forName(className, false, loader);
+		Method main = mainClass.getMethod("main", String[].class);
+		if (!Modifier.isStatic(main.getModifiers()))
+			throw new NoSuchMethodException(className + ".main(String[]) is not static");
+		return main;
+	}
+
+	/**
+	 * Invokes a main method loaded by {@link #loadMain(List, ClassIndex, File, String)} and waits for it to return.
+	 *
+	 * @return 0 if main returned normally, 1 if it failed
+	 */
+	static int invoke(Method main, String[] args) throws IllegalAccessException
+	{
+		ClassLoader loader = main.getDeclaringClass().getClassLoader();
+
+		Thread thread = Thread.currentThread();
+		ClassLoader previousLoader = thread.getContextClassLoader();
+
+		thread.setContextClassLoader(loader);
+		try
+		{
+			main.invoke(null, (Object) args);
+			return 0;
+		}
+		catch (InvocationTargetException e)
+		{
+			e.getCause().printStackTrace();
+			return 1;
+		}
+		finally
+		{
+			thread.setContextClassLoader(previousLoader);
+		}
+	}
+}
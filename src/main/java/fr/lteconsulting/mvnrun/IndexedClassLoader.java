@@ -0,0 +1,174 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Class loader of a classpath which asks its {@link ClassIndex} which jar holds a class, instead of looking into every
+ * jar in turn. Names the index does not know are not looked for at all.
+ *
+ * Jars are opened on first use and stay open for the life of the loader. Listing every resource of a name, and loading
+ * from multi-release jars, are left to {@link URLClassLoader}.
+ */
+public class IndexedClassLoader extends URLClassLoader
+{
+	static
+	{
+		ClassLoader.registerAsParallelCapable();
+	}
+
+	private final ClassIndex index;
+
+	private final Map<File, JarFile> openJars = new HashMap<>();
+
+	public IndexedClassLoader(ClassIndex index, ClassLoader parent) throws MalformedURLException
+	{
+		super(urls(index.getJars()), parent);
+		this.index = index;
+	}
+
+	private static URL[] urls(List<File> jars) throws MalformedURLException
+	{
+		URL[] urls = new URL[jars.size()];
+		for (int i = 0; i < urls.length; i++)
+			urls[i] = jars.get(i).toURI().toURL();
+		return urls;
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException
+	{
+		String path = name.replace('.', '/') + ".class";
+		File jar = index.find(path);
+		if (jar == null)
+			throw new ClassNotFoundException(name);
+
+		try
+		{
+			JarFile jarFile = open(jar);
+			if (isMultiRelease(jarFile))
+				return super.findClass(name);
+
+			JarEntry entry = jarFile.getJarEntry(path);
+			if (entry == null)
+				throw new ClassNotFoundException(name);
+
+			byte[] bytes;
+			try (InputStream in = jarFile.getInputStream(entry))
+			{
+				bytes = readFully(in, entry.getSize());
+			}
+
+			definePackageOf(name, jarFile.getManifest(), jar);
+
+			// signers are only known once the entry has been read
+			CodeSigner[] signers = entry.getCodeSigners();
+			return defineClass(name, bytes, 0, bytes.length, new CodeSource(jar.toURI().toURL(), signers));
+		}
+		catch (IOException e)
+		{
+			throw new ClassNotFoundException(name, e);
+		}
+	}
+
+	@Override
+	public URL findResource(String name)
+	{
+		File jar = index.find(name);
+		if (jar == null)
+			return null;
+		try
+		{
+			return new URL("jar:" + jar.toURI().toURL() + "!/" + name);
+		}
+		catch (MalformedURLException e)
+		{
+			return null;
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		synchronized (openJars)
+		{
+			for (JarFile jarFile : openJars.values())
+				jarFile.close();
+			openJars.clear();
+		}
+		super.close();
+	}
+
+	private JarFile open(File jar) throws IOException
+	{
+		synchronized (openJars)
+		{
+			JarFile jarFile = openJars.get(jar);
+			if (jarFile == null)
+			{
+				jarFile = new JarFile(jar);
+				openJars.put(jar, jarFile);
+			}
+			return jarFile;
+		}
+	}
+
+	private static boolean isMultiRelease(JarFile jarFile) throws IOException
+	{
+		Manifest manifest = jarFile.getManifest();
+		return manifest != null && "true".equalsIgnoreCase(manifest.getMainAttributes().getValue("Multi-Release"));
+	}
+
+	private void definePackageOf(String className, Manifest manifest, File jar) throws MalformedURLException
+	{
+		int dot = className.lastIndexOf('.');
+		if (dot < 0)
+			return;
+
+		String packageName = className.substring(0, dot);
+		synchronized (this)
+		{
+			if (getPackage(packageName) != null)
+				return;
+
+			if (manifest == null)
+			{
+				definePackage(packageName, null, null, null, null, null, null, null);
+				return;
+			}
+
+			Attributes attributes = manifest.getMainAttributes();
+			definePackage(packageName, attributes.getValue(Attributes.Name.SPECIFICATION_TITLE),
+					attributes.getValue(Attributes.Name.SPECIFICATION_VERSION),
+					attributes.getValue(Attributes.Name.SPECIFICATION_VENDOR),
+					attributes.getValue(Attributes.Name.IMPLEMENTATION_TITLE),
+					attributes.getValue(Attributes.Name.IMPLEMENTATION_VERSION),
+					attributes.getValue(Attributes.Name.IMPLEMENTATION_VENDOR),
+					"true".equalsIgnoreCase(attributes.getValue(Attributes.Name.SEALED)) ? jar.toURI().toURL() : null);
+		}
+	}
+
+	private static byte[] readFully(InputStream in, long size) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream(size > 0 ? (int) size : 8192);
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) >= 0)
+			out.write(buffer, 0, read);
+		return out.toByteArray();
+	}
+}
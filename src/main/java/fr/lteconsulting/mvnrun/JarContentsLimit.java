@@ -0,0 +1,83 @@
+package fr.lteconsulting.mvnrun;
+
+import org.apache.lucene.document.Document;
+import org.apache.maven.index.ArtifactContext;
+import org.apache.maven.index.ArtifactInfo;
+import org.apache.maven.index.IndexerField;
+import org.apache.maven.index.context.IndexCreator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.ZipFile;
+
+/**
+ * An index creator reading the content of jars, which leaves out jars having too many entries.
+ * <p/>
+ * The class names of a jar are gathered in memory before being indexed, the number of entries of a jar is read from its
+ * central directory without looking at them. Other artifacts and the rest of the document are indexed as usual.
+ */
+public class JarContentsLimit implements IndexCreator {
+    private final IndexCreator creator;
+
+    private final MemoryBudget budget;
+
+    public JarContentsLimit(IndexCreator creator, MemoryBudget budget) {
+        this.creator = creator;
+        this.budget = budget;
+    }
+
+    /**
+     * @return the number of entries from which the content of a jar is not indexed
+     */
+    public int getMaxJarEntries() {
+        return budget.getMaxJarEntries();
+    }
+
+    public String getId() {
+        return creator.getId();
+    }
+
+    public List<String> getCreatorDependencies() {
+        return creator.getCreatorDependencies();
+    }
+
+    public Collection<IndexerField> getIndexerFields() {
+        return creator.getIndexerFields();
+    }
+
+    public void populateArtifactInfo(ArtifactContext artifactContext) throws IOException {
+        File artifact = artifactContext.getArtifact();
+        if (artifact != null && artifact.isFile() && countEntries(artifact) > budget.getMaxJarEntries()) {
+            budget.jarSkipped();
+            return;
+        }
+        creator.populateArtifactInfo(artifactContext);
+    }
+
+    public void updateDocument(ArtifactInfo artifactInfo, Document document) {
+        creator.updateDocument(artifactInfo, document);
+    }
+
+    public boolean updateArtifactInfo(Document document, ArtifactInfo artifactInfo) {
+        return creator.updateArtifactInfo(document, artifactInfo);
+    }
+
+    @Override
+    public String toString() {
+        return creator.toString();
+    }
+
+    /**
+     * @return the number of entries of the archive, 0 if it is not one
+     */
+    private static int countEntries(File artifact) {
+        try (ZipFile zip = new ZipFile(artifact)) {
+            return zip.size();
+        } catch (IOException e) {
+            // the creator reports it
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,493 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static fr.lteconsulting.mvnrun.MavenRunApp.AppOptions;
+
+/**
+ * Warm child JVMs of one classpath, kept by the daemon for artifacts launched over and over.
+ *
+ * Each JVM runs {@link PooledMain}, which loads the classpath and waits for a request. Up to a given number of them are
+ * kept ready : a request takes one and a new one is started in the background to replace it. A JVM serves a limited
+ * number of requests before being discarded, and ready JVMs unused for longer than the idle timeout are stopped.
+ *
+ * A pool is bound to the working directory and environment of the request which created it, both being part of its
+ * {@link #key(ResolvedClasspath, AppOptions, File, Map) key}.
+ */
+public class JvmPool
+{
+	private final List<String> command;
+
+	private final File workingDirectory;
+
+	private final Map<String, String> environment;
+
+	private final List<String> classpath;
+
+	private final String indexDirectory;
+
+	private final String mainJar;
+
+	private final String mainClass;
+
+	private final int size;
+
+	private final long idleTimeoutMillis;
+
+	private final int maxUses;
+
+	private final Executor executor;
+
+	private final Deque<Jvm> ready = new ArrayDeque<>();
+
+	private int starting;
+
+	private int busy;
+
+	private long lastUsed = System.currentTimeMillis();
+
+	private boolean closed;
+
+	public JvmPool(ResolvedClasspath resolved, AppOptions options, File workingDirectory,
+			Map<String, String> environment, Executor executor) throws IOException
+	{
+		this.workingDirectory = workingDirectory;
+		this.environment = environment;
+		this.classpath = resolved.getPaths();
+		if (!classpath.contains(resolved.getMainJar().getAbsolutePath()))
+			classpath.add(resolved.getMainJar().getAbsolutePath());
+		this.indexDirectory = MavenRun.classIndexDirectory(options).getAbsolutePath();
+		this.mainJar = resolved.getMainJar().getAbsolutePath();
+		this.mainClass = options.mainClass;
+		this.size = options.pool;
+		this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(options.poolIdleTimeout);
+		this.maxUses = options.poolMaxUses;
+		this.executor = executor;
+
+		command = new ArrayList<>();
+		command.add("java");
+		// the ready JVMs of the pool share the memory
+		command.addAll(MavenRun.tuningOptions(options, size));
+		command.add("-cp");
+		command.add(mvnrunLocation());
+		command.add(PooledMain.class.getName());
+	}
+
+	/**
+	 * @return the key of the pool serving this launch, its JVMs having been started with the given environment
+	 */
+	public static String key(ResolvedClasspath resolved, AppOptions options, File workingDirectory,
+			Map<String, String> environment)
+	{
+		StringBuilder key = new StringBuilder();
+		key.append(MavenRun.join(resolved.getPaths(), File.pathSeparator)).append('\n');
+		key.append(resolved.getMainJar().getAbsolutePath()).append('\n');
+		key.append(options.mainClass).append('\n');
+		key.append(workingDirectory.getAbsolutePath()).append('\n');
+		key.append(options.profile).append('\n');
+		for (Map.Entry<String, String> variable : new TreeMap<>(environment).entrySet())
+			key.append(variable.getKey()).append('=').append(variable.getValue()).append('\0');
+		return Checksums.sha1(key.toString());
+	}
+
+	/**
+	 * Books the pool for a request, which keeps it from being evicted until the JVM is released. Cheap enough to be
+	 * called while holding the lock of the pools, unlike {@link #take(LaunchMetrics)} which must follow it.
+	 */
+	public synchronized void reserve()
+	{
+		lastUsed = System.currentTimeMillis();
+		busy++;
+	}
+
+	/**
+	 * Takes a ready JVM, or starts one if none is, and starts replacements in the background. The pool must have been
+	 * {@link #reserve() reserved}, the reservation being cancelled if no JVM can be started.
+	 */
+	public Jvm take(LaunchMetrics metrics) throws IOException
+	{
+		Jvm jvm = null;
+		synchronized (this)
+		{
+			while (jvm == null && !ready.isEmpty())
+			{
+				jvm = ready.pollFirst();
+				if (!jvm.isAlive())
+				{
+					jvm.destroy();
+					jvm = null;
+				}
+			}
+		}
+
+		metrics.put("poolHit", jvm != null);
+		try
+		{
+			if (jvm == null)
+			{
+				long spawn = System.nanoTime();
+				jvm = start();
+				metrics.time("spawn", spawn);
+			}
+		}
+		catch (IOException e)
+		{
+			synchronized (this)
+			{
+				busy--;
+			}
+			throw e;
+		}
+
+		refill();
+		return jvm;
+	}
+
+	/**
+	 * Gives back a JVM after a request. It is kept ready if it can serve more requests.
+	 *
+	 * @param reusable false when the request did not end normally, in which case the JVM is discarded
+	 */
+	public void release(Jvm jvm, boolean reusable)
+	{
+		synchronized (this)
+		{
+			busy--;
+			lastUsed = System.currentTimeMillis();
+			if (reusable && !closed && jvm.uses < maxUses && ready.size() < size && jvm.isAlive())
+			{
+				jvm.idleSince = lastUsed;
+				ready.addLast(jvm);
+				return;
+			}
+		}
+		jvm.destroy();
+	}
+
+	/**
+	 * Stops the ready JVMs which have been idle for longer than the timeout.
+	 *
+	 * @return true when the pool has nothing left and has not been used for longer than the timeout, so that it can be
+	 *         forgotten
+	 */
+	public synchronized boolean evictIdle()
+	{
+		long now = System.currentTimeMillis();
+		for (Iterator<Jvm> it = ready.iterator(); it.hasNext();)
+		{
+			Jvm jvm = it.next();
+			if (now - jvm.idleSince > idleTimeoutMillis || !jvm.isAlive())
+			{
+				it.remove();
+				jvm.destroy();
+			}
+		}
+		return ready.isEmpty() && busy == 0 && starting == 0 && now - lastUsed > idleTimeoutMillis;
+	}
+
+	public synchronized void shutdown()
+	{
+		closed = true;
+		for (Jvm jvm : ready)
+			jvm.destroy();
+		ready.clear();
+	}
+
+	private void refill()
+	{
+		synchronized (this)
+		{
+			if (closed || ready.size() + starting >= size)
+				return;
+			starting++;
+		}
+
+		executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				Jvm jvm = null;
+				try
+				{
+					jvm = start();
+				}
+				catch (IOException e)
+				{
+					System.err.println("Unable to start a pooled JVM : " + e.getMessage());
+				}
+
+				if (jvm == null)
+				{
+					synchronized (JvmPool.this)
+					{
+						starting--;
+					}
+					return;
+				}
+
+				boolean added = false;
+				synchronized (JvmPool.this)
+				{
+					starting--;
+					if (!closed && ready.size() < size)
+					{
+						jvm.idleSince = System.currentTimeMillis();
+						ready.addLast(jvm);
+						added = true;
+					}
+				}
+				if (added)
+					refill();
+				else
+					jvm.destroy();
+			}
+		});
+	}
+
+	private Jvm start() throws IOException
+	{
+		ProcessBuilder builder = new ProcessBuilder(command).directory(workingDirectory);
+		builder.environment().clear();
+		builder.environment().putAll(environment);
+		// the JVM's own messages, the application's stderr goes through the frames
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+		Process process = builder.start();
+		Jvm jvm = new Jvm(process);
+		try
+		{
+			jvm.toChild.writeInt(classpath.size());
+			for (String path : classpath)
+				DaemonProtocol.writeString(jvm.toChild, path);
+			DaemonProtocol.writeString(jvm.toChild, indexDirectory);
+			DaemonProtocol.writeString(jvm.toChild, mainJar);
+			DaemonProtocol.writeString(jvm.toChild, mainClass == null ? "" : mainClass);
+			jvm.toChild.flush();
+		}
+		catch (IOException e)
+		{
+			jvm.destroy();
+			throw e;
+		}
+		return jvm;
+	}
+
+	private static String mvnrunLocation() throws IOException
+	{
+		try
+		{
+			return new File(PooledMain.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+					.getAbsolutePath();
+		}
+		catch (URISyntaxException | RuntimeException e)
+		{
+			throw new IOException("Cannot locate the mvnrun classes", e);
+		}
+	}
+
+	/**
+	 * A running {@link PooledMain}.
+	 */
+	public static class Jvm
+	{
+		private final Process process;
+
+		private final DataOutputStream toChild;
+
+		private final DataInputStream fromChild;
+
+		private int uses;
+
+		private long idleSince;
+
+		Jvm(Process process)
+		{
+			this.process = process;
+			this.toChild = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+			this.fromChild = new DataInputStream(new BufferedInputStream(process.getInputStream(),
+					StreamPump.BUFFER_SIZE));
+		}
+
+		/**
+		 * Runs one request, relaying its streams until the main method returns.
+		 *
+		 * @return the exit code of the request
+		 * @throws EOFException if the JVM ended during the request, after having relayed what it wrote
+		 */
+		public int run(List<String> arguments, InputStream stdin, OutputStream stdout, OutputStream stderr,
+				LaunchMetrics metrics) throws IOException
+		{
+			uses++;
+			long started = System.nanoTime();
+
+			toChild.writeInt(arguments.size());
+			for (String argument : arguments)
+				DaemonProtocol.writeString(toChild, argument);
+			toChild.flush();
+
+			StdinForwarder forwarder = new StdinForwarder(stdin, toChild);
+			Thread thread = new Thread(forwarder, "mvnrun-pooled-stdin");
+			thread.setDaemon(true);
+			thread.start();
+
+			try
+			{
+				boolean firstOutput = true;
+				byte[] buffer = new byte[StreamPump.BUFFER_SIZE];
+				while (true)
+				{
+					byte channel = fromChild.readByte();
+					int length = fromChild.readInt();
+
+					if (channel == DaemonProtocol.CHANNEL_EXIT)
+					{
+						int exitCode = fromChild.readInt();
+						metrics.time("childRun", started);
+						return exitCode;
+					}
+
+					if (firstOutput)
+					{
+						metrics.time("firstOutput", started);
+						firstOutput = false;
+					}
+					if (buffer.length < length)
+						buffer = new byte[length];
+					fromChild.readFully(buffer, 0, length);
+
+					OutputStream target = channel == DaemonProtocol.CHANNEL_STDERR ? stderr : stdout;
+					target.write(buffer, 0, length);
+					if (fromChild.available() == 0)
+					{
+						stdout.flush();
+						stderr.flush();
+					}
+				}
+			}
+			finally
+			{
+				forwarder.finish();
+			}
+		}
+
+		/**
+		 * @return the exit code of the process, once it has ended
+		 */
+		public int waitFor() throws InterruptedException
+		{
+			return process.waitFor();
+		}
+
+		boolean isAlive()
+		{
+			try
+			{
+				process.exitValue();
+				return false;
+			}
+			catch (IllegalThreadStateException e)
+			{
+				return true;
+			}
+		}
+
+		void destroy()
+		{
+			try
+			{
+				// closing stdin lets PooledMain exit by itself
+				toChild.close();
+			}
+			catch (IOException e)
+			{
+				// already gone
+			}
+			process.destroy();
+		}
+	}
+
+	/**
+	 * Forwards a request's stdin to the child as frames, until it ends or the request is over. Either way, the end frame
+	 * is sent exactly once.
+	 */
+	private static class StdinForwarder implements Runnable
+	{
+		private final InputStream in;
+
+		private final DataOutputStream toChild;
+
+		private final DaemonProtocol.FrameOutputStream frames;
+
+		private boolean finished;
+
+		StdinForwarder(InputStream in, DataOutputStream toChild)
+		{
+			this.in = in;
+			this.toChild = toChild;
+			this.frames = new DaemonProtocol.FrameOutputStream(toChild, DaemonProtocol.CHANNEL_STDIN);
+		}
+
+		@Override
+		public void run()
+		{
+			byte[] buffer = new byte[StreamPump.BUFFER_SIZE];
+			try
+			{
+				int read;
+				while ((read = in.read(buffer)) >= 0)
+				{
+					synchronized (toChild)
+					{
+						if (finished)
+							return;
+						frames.write(buffer, 0, read);
+						if (in.available() == 0)
+							frames.flush();
+					}
+				}
+			}
+			catch (IOException e)
+			{
+				// the client or the child went away
+			}
+			finish();
+		}
+
+		void finish()
+		{
+			synchronized (toChild)
+			{
+				if (finished)
+					return;
+				finished = true;
+				try
+				{
+					frames.end();
+				}
+				catch (IOException e)
+				{
+					// the child went away
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,345 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Named sets of JVM options for the launched processes, sized from the CPU and memory the process can actually use.
+ *
+ * The limits come from the cgroup the current process belongs to, as given by /proc/self/cgroup, and from its ancestors
+ * as far as they are visible under /sys/fs/cgroup, like in a container. The machine's values apply to what they do not
+ * limit. The memory is shared by mvnrun's own heap and the JVMs it launches at the same time. Profiles are :
+ * <ul>
+ * <li>throughput : most of the memory as the maximum heap and the parallel collector, for batch work,</li>
+ * <li>low-latency : a large maximum heap, G1 with a pause goal and concurrent threads, for interactive services,</li>
+ * <li>small : a small heap, the serial collector and the client compiler only, for short lived tools.</li>
+ * </ul>
+ *
+ * A properties file can give the profile of artifacts, keyed by groupId:artifactId or by their full coordinates.
+ */
+public class JvmTuning
+{
+	public static final String DEFAULT_PROFILES_FILE = new File(System.getProperty("user.home"),
+			".mvnrun/profiles.properties").getPath();
+
+	public static final String THROUGHPUT = "throughput";
+
+	public static final String LOW_LATENCY = "low-latency";
+
+	public static final String SMALL = "small";
+
+	/**
+	 * Profile leaving the JVM to its own ergonomics
+	 */
+	public static final String NONE = "none";
+
+	public static final List<String> PROFILES = Arrays.asList(THROUGHPUT, LOW_LATENCY, SMALL, NONE);
+
+	private static final File CGROUP_ROOT = new File("/sys/fs/cgroup");
+
+	private static final File PROCESS_CGROUPS = new File("/proc/self/cgroup");
+
+	/**
+	 * Smallest heap given, whatever the limits
+	 */
+	private static final long MIN_HEAP_MB = 64;
+
+	private static Limits current;
+
+	private JvmTuning()
+	{
+	}
+
+	/**
+	 * CPU and memory available to the processes we launch.
+	 */
+	public static class Limits
+	{
+		private final int cpus;
+
+		private final long memoryBytes;
+
+		/**
+		 * @param memoryBytes the memory available, 0 when it is not known
+		 */
+		public Limits(int cpus, long memoryBytes)
+		{
+			this.cpus = cpus;
+			this.memoryBytes = memoryBytes;
+		}
+
+		public int getCpus()
+		{
+			return cpus;
+		}
+
+		public long getMemoryBytes()
+		{
+			return memoryBytes;
+		}
+
+		/**
+		 * @param reservedBytes the memory already taken, like the heap of mvnrun itself
+		 * @param jvms the number of JVMs launched at the same time
+		 * @return the limits of each of these JVMs
+		 */
+		public Limits share(long reservedBytes, int jvms)
+		{
+			if (memoryBytes <= 0)
+				return this;
+			long left = Math.max(MIN_HEAP_MB * 1024 * 1024, memoryBytes - Math.max(0, reservedBytes));
+			return new Limits(cpus, left / Math.max(1, jvms));
+		}
+
+		@Override
+		public String toString()
+		{
+			return cpus + " CPUs, " + (memoryBytes / (1024 * 1024)) + " MB";
+		}
+	}
+
+	/**
+	 * @return the limits of the current process, detected once
+	 */
+	public static synchronized Limits currentLimits()
+	{
+		if (current == null)
+			current = detect(CGROUP_ROOT, PROCESS_CGROUPS, Runtime.getRuntime().availableProcessors(),
+					physicalMemory());
+		return current;
+	}
+
+	/**
+	 * Reads the limits of the cgroups of the process and of their ancestors, in the version 2 hierarchy and in the
+	 * version 1 cpu and memory ones, the lowest limit winning and the machine's values applying to what is not limited.
+	 *
+	 * @param cgroupRoot where the hierarchies are mounted
+	 * @param processCgroups the cgroups of the process, in the format of /proc/self/cgroup
+	 */
+	static Limits detect(File cgroupRoot, File processCgroups, int machineCpus, long machineMemory)
+	{
+		Map<String, String> paths = cgroupPaths(read(processCgroups));
+		int cpus = machineCpus;
+		long memory = machineMemory;
+
+		// cgroup v2 : "<quota> <period>" or "max <period>", and a byte count or "max"
+		for (File directory : hierarchy(cgroupRoot, paths.get("")))
+		{
+			String[] cpuMax = split(read(new File(directory, "cpu.max")));
+			if (cpuMax != null && cpuMax.length == 2)
+				cpus = limitCpus(cpus, parse(cpuMax[0]), parse(cpuMax[1]));
+			memory = limitMemory(memory, parse(read(new File(directory, "memory.max"))));
+		}
+
+		// cgroup v1 : a quota of -1 and a huge byte count mean unlimited
+		for (File directory : hierarchy(new File(cgroupRoot, "cpu"), paths.get("cpu")))
+			cpus = limitCpus(cpus, parse(read(new File(directory, "cpu.cfs_quota_us"))),
+					parse(read(new File(directory, "cpu.cfs_period_us"))));
+		for (File directory : hierarchy(new File(cgroupRoot, "memory"), paths.get("memory")))
+			memory = limitMemory(memory, parse(read(new File(directory, "memory.limit_in_bytes"))));
+
+		return new Limits(cpus, memory);
+	}
+
+	/**
+	 * @param content lines like "0::/user.slice" for version 2 and "4:cpu,cpuacct:/docker/abc" for version 1
+	 * @return the path of the cgroup of the process by controller, the version 2 one having an empty controller
+	 */
+	static Map<String, String> cgroupPaths(String content)
+	{
+		Map<String, String> paths = new HashMap<>();
+		if (content == null)
+			return paths;
+		for (String line : content.split("\n"))
+		{
+			String[] parts = line.trim().split(":", 3);
+			if (parts.length != 3)
+				continue;
+			if (parts[1].isEmpty())
+				paths.put("", parts[2]);
+			for (String controller : parts[1].split(","))
+			{
+				if (!controller.isEmpty())
+					paths.put(controller, parts[2]);
+			}
+		}
+		return paths;
+	}
+
+	/**
+	 * @return the directory of the cgroup followed by those of its ancestors, as far as they are visible under the
+	 *         root : in a container, the root often is the container's own cgroup and the path does not exist
+	 */
+	private static List<File> hierarchy(File root, String path)
+	{
+		List<File> directories = new ArrayList<>();
+		if (path != null)
+		{
+			File directory = new File(root, path);
+			while (directory != null && directory.getPath().length() > root.getPath().length())
+			{
+				if (directory.isDirectory())
+					directories.add(directory);
+				directory = directory.getParentFile();
+			}
+		}
+		directories.add(root);
+		return directories;
+	}
+
+	private static int limitCpus(int cpus, Long quota, Long period)
+	{
+		if (quota == null || period == null || quota <= 0 || period <= 0)
+			return cpus;
+		return (int) Math.max(1, Math.min(cpus, (quota + period - 1) / period));
+	}
+
+	private static long limitMemory(long memory, Long limit)
+	{
+		if (limit == null || limit <= 0 || limit >= Long.MAX_VALUE / 2 || (memory > 0 && limit >= memory))
+			return memory;
+		return limit;
+	}
+
+	/**
+	 * Finds the profile configured for an artifact.
+	 *
+	 * @return the profile, or null if the file has none for the artifact
+	 */
+	public static String profileOf(String artifact, File profilesFile) throws IOException
+	{
+		if (artifact == null || !profilesFile.isFile())
+			return null;
+
+		Properties profiles = new Properties();
+		try (InputStream in = new FileInputStream(profilesFile))
+		{
+			profiles.load(in);
+		}
+
+		String profile = profiles.getProperty(artifact);
+		if (profile == null)
+		{
+			String[] parts = artifact.split(":");
+			if (parts.length > 2)
+				profile = profiles.getProperty(parts[0] + ":" + parts[1]);
+		}
+		return profile == null ? null : profile.trim();
+	}
+
+	/**
+	 * @param limits the limits of the launched JVM, see {@link Limits#share(long, int)}
+	 * @return the JVM options of the profile for these limits
+	 * @throws IOException if the profile is unknown
+	 */
+	public static List<String> options(String profile, Limits limits, int javaVersion) throws IOException
+	{
+		List<String> options = new ArrayList<>();
+		int cpus = limits.getCpus();
+		long memoryMb = limits.getMemoryBytes() / (1024 * 1024);
+
+		switch (profile)
+		{
+			case THROUGHPUT:
+				addHeap(options, memoryMb, 75);
+				options.add("-XX:+UseParallelGC");
+				options.add("-XX:ParallelGCThreads=" + cpus);
+				break;
+
+			case LOW_LATENCY:
+				// the remaining memory goes to G1's own structures and to thread stacks
+				addHeap(options, memoryMb, 60);
+				options.add("-XX:+UseG1GC");
+				options.add("-XX:MaxGCPauseMillis=50");
+				options.add("-XX:ParallelGCThreads=" + cpus);
+				options.add("-XX:ConcGCThreads=" + Math.max(1, (cpus + 3) / 4));
+				break;
+
+			case SMALL:
+				if (memoryMb > 0)
+					options.add("-Xmx" + Math.max(MIN_HEAP_MB, Math.min(memoryMb / 4, 256)) + "m");
+				options.add("-XX:+UseSerialGC");
+				options.add("-XX:TieredStopAtLevel=1");
+				options.add("-Xss512k");
+				break;
+
+			case NONE:
+				return options;
+
+			default:
+				throw new IOException("Unknown JVM profile " + profile + ", expected one of " + PROFILES);
+		}
+
+		// lets the JVM size its thread pools from the container's CPUs even if it cannot read the cgroup itself
+		if (javaVersion >= 10)
+			options.add("-XX:ActiveProcessorCount=" + cpus);
+		return options;
+	}
+
+	private static void addHeap(List<String> options, long memoryMb, int percent)
+	{
+		if (memoryMb <= 0)
+			return;
+
+		// starts at a quarter of its maximum, so that JVMs sharing the memory only take what they use
+		long heap = Math.max(MIN_HEAP_MB, memoryMb * percent / 100);
+		options.add("-Xms" + Math.max(MIN_HEAP_MB, heap / 4) + "m");
+		options.add("-Xmx" + heap + "m");
+	}
+
+	private static long physicalMemory()
+	{
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean)
+			return ((com.sun.management.OperatingSystemMXBean) os).getTotalPhysicalMemorySize();
+		return 0;
+	}
+
+	private static String read(File file)
+	{
+		if (!file.isFile())
+			return null;
+		try
+		{
+			return new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim();
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	private static String[] split(String value)
+	{
+		return value == null ? null : value.split("\\s+");
+	}
+
+	/**
+	 * @return the number, or null if the value is missing or is not one, like "max"
+	 */
+	private static Long parse(String value)
+	{
+		if (value == null)
+			return null;
+		try
+		{
+			return Long.parseLong(value);
+		}
+		catch (NumberFormatException e)
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings and figures of one launch, written as a single line JSON record.
+ *
+ * Phase durations are recorded in milliseconds under keys ending with "Ms". Records are appended to their target file,
+ * one per line, so that the file can be aggregated as is.
+ */
+public class LaunchMetrics
+{
+	/**
+	 * Target meaning the standard error stream
+	 */
+	public static final String STDERR = "-";
+
+	private final long start = System.nanoTime();
+
+	private final Map<String, Object> values = new LinkedHashMap<>();
+
+	/**
+	 * Value written as the JSON it gives rather than as a string.
+	 */
+	public interface JsonValue
+	{
+		String toJson();
+	}
+
+	public LaunchMetrics()
+	{
+		values.put("timestamp", System.currentTimeMillis());
+	}
+
+	/**
+	 * Records the duration of a phase which started at the given {@link System#nanoTime()}.
+	 */
+	public synchronized void time(String phase, long startNanos)
+	{
+		values.put(phase + "Ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+	}
+
+	public synchronized void put(String key, Object value)
+	{
+		values.put(key, value);
+	}
+
+	/**
+	 * @return the value recorded under the key, or null
+	 */
+	public synchronized Object get(String key)
+	{
+		return values.get(key);
+	}
+
+	public synchronized String toJson()
+	{
+		StringBuilder sb = new StringBuilder("{");
+		for (Map.Entry<String, Object> entry : values.entrySet())
+		{
+			appendString(sb, entry.getKey());
+			sb.append(':');
+			Object value = entry.getValue();
+			if (value == null || value instanceof Number || value instanceof Boolean)
+				sb.append(value);
+			else if (value instanceof JsonValue)
+				sb.append(((JsonValue) value).toJson());
+			else
+				appendString(sb, value.toString());
+			sb.append(',');
+		}
+		appendString(sb, "totalMs");
+		sb.append(':').append(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * Appends the record to the target file, or writes it to the given error stream if the target is {@link #STDERR}.
+	 */
+	public void write(String target, OutputStream stderr) throws IOException
+	{
+		byte[] record = (toJson() + "\n").getBytes(StandardCharsets.UTF_8);
+		if (STDERR.equals(target))
+		{
+			stderr.write(record);
+			stderr.flush();
+			return;
+		}
+
+		try (OutputStream out = new FileOutputStream(target, true))
+		{
+			out.write(record);
+		}
+	}
+
+	static void appendString(StringBuilder sb, String value)
+	{
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c < 0x20)
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		sb.append('"');
+	}
+}
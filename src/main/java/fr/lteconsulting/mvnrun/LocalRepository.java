@@ -0,0 +1,116 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.Collections;
+
+import org.apache.maven.settings.Settings;
+import org.jboss.shrinkwrap.resolver.api.CoordinateParseException;
+import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinate;
+import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinates;
+import org.jboss.shrinkwrap.resolver.impl.maven.bootstrap.MavenSettingsBuilder;
+
+/**
+ * Answers whether an artifact is already in the local Maven repository, without involving the resolver.
+ *
+ * The repository layout is used as the index : the files of a coordinate are at a known path, so a lookup only costs a
+ * couple of file system checks.
+ */
+public class LocalRepository
+{
+	private final File root;
+
+	private final boolean offline;
+
+	public LocalRepository(File root)
+	{
+		this(root, false);
+	}
+
+	/**
+	 * @param offline whether the settings ask the resolver to work offline
+	 */
+	public LocalRepository(File root, boolean offline)
+	{
+		this.root = root;
+		this.offline = offline;
+	}
+
+	/**
+	 * @return the local repository configured in the Maven settings, as the resolver will use it
+	 */
+	public static LocalRepository fromSettings()
+	{
+		Settings settings = new MavenSettingsBuilder().buildDefaultSettings();
+		return new LocalRepository(new File(settings.getLocalRepository()), settings.isOffline());
+	}
+
+	public File getRoot()
+	{
+		return root;
+	}
+
+	/**
+	 * @return whether the settings, or the org.apache.maven.offline property, ask the resolver to work offline
+	 */
+	public boolean isOffline()
+	{
+		return offline;
+	}
+
+	/**
+	 * @return true if the artifact file and its pom are present. Version ranges and meta versions are never considered
+	 *         present, as only the resolver knows what they stand for.
+	 */
+	public boolean contains(String artifact)
+	{
+		MavenCoordinate coordinate;
+		try
+		{
+			coordinate = MavenCoordinates.createCoordinate(artifact);
+		}
+		catch (CoordinateParseException | IllegalArgumentException e)
+		{
+			// an empty coordinate is refused before being parsed
+			return false;
+		}
+
+		String version = coordinate.getVersion();
+		if (version == null || (ClasspathCache.isDynamic(artifact) && !version.endsWith("SNAPSHOT")))
+			return false;
+
+		File folder = new File(root, coordinate.getGroupId().replace('.', File.separatorChar) + File.separator
+				+ coordinate.getArtifactId() + File.separator + version);
+		String baseName = coordinate.getArtifactId() + "-" + version;
+
+		String classifier = coordinate.getClassifier();
+		String fileName = baseName + (classifier == null || classifier.isEmpty() ? "" : "-" + classifier) + "."
+				+ coordinate.getType().getExtension();
+
+		return new File(folder, baseName + ".pom").isFile() && new File(folder, fileName).isFile();
+	}
+
+	/**
+	 * @return false when no network interface other than loopback is up, in which case remote repositories are
+	 *         unreachable anyway
+	 */
+	public static boolean isNetworkAvailable()
+	{
+		try
+		{
+			for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces()))
+			{
+				if (networkInterface.isUp() && !networkInterface.isLoopback()
+						&& networkInterface.getInetAddresses().hasMoreElements())
+					return true;
+			}
+			return false;
+		}
+		catch (SocketException e)
+		{
+			// cannot tell, assume the network is there
+			return true;
+		}
+	}
+}
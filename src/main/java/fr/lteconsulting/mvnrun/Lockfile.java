@@ -0,0 +1,187 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * A frozen classpath : every resolved artifact of a launch, with its coordinate, local path and SHA-1.
+ *
+ * Launching from a lockfile does not involve the resolver at all, the files are only checked to be present and to
+ * still have the recorded checksums. The file is written with sorted keys and without a date, so that freezing the same
+ * classpath twice gives the same bytes and lockfiles can be kept under version control.
+ */
+public class Lockfile
+{
+	public static final String DEFAULT_NAME = "mvnrun.lock";
+
+	private static final String FORMAT_VERSION = "1";
+
+	private final String artifact;
+
+	private final String mainClass;
+
+	private final int main;
+
+	private final List<String> coordinates;
+
+	private final List<File> files;
+
+	private final List<String> sha1s;
+
+	private Lockfile(String artifact, String mainClass, int main, List<String> coordinates, List<File> files,
+			List<String> sha1s)
+	{
+		this.artifact = artifact;
+		this.mainClass = mainClass;
+		this.main = main;
+		this.coordinates = coordinates;
+		this.files = files;
+		this.sha1s = sha1s;
+	}
+
+	/**
+	 * Writes the lockfile of a resolved classpath, hashing each of its files.
+	 *
+	 * @param mainClass the main class given at freeze time, may be null
+	 */
+	public static void write(File file, ResolvedClasspath classpath, String mainClass) throws IOException
+	{
+		List<ResolvedClasspath.Entry> entries = classpath.getEntries();
+
+		int main = -1;
+		Properties properties = new Properties();
+		properties.setProperty("format", FORMAT_VERSION);
+		properties.setProperty("artifact", classpath.getArtifact());
+		if (mainClass != null)
+			properties.setProperty("mainclass", mainClass);
+		properties.setProperty("entries", String.valueOf(entries.size()));
+		for (int i = 0; i < entries.size(); i++)
+		{
+			ResolvedClasspath.Entry entry = entries.get(i);
+			properties.setProperty("entry." + i + ".coordinate", entry.getCoordinate());
+			properties.setProperty("entry." + i + ".path", entry.getFile().getAbsolutePath());
+			properties.setProperty("entry." + i + ".sha1", Checksums.sha1(entry.getFile()));
+			if (main < 0 && entry.getFile().getAbsoluteFile().equals(classpath.getMainJar().getAbsoluteFile()))
+				main = i;
+		}
+		if (main < 0)
+			throw new IOException("The launched jar " + classpath.getMainJar() + " is not part of the classpath");
+		properties.setProperty("main", String.valueOf(main));
+
+		// stored as bytes, so that every non ASCII character is escaped
+		ByteArrayOutputStream stored = new ByteArrayOutputStream();
+		properties.store(stored, null);
+		List<String> lines = new ArrayList<>();
+		for (String line : new String(stored.toByteArray(), StandardCharsets.ISO_8859_1).split("\\r?\\n"))
+		{
+			// drops the date comment
+			if (!line.startsWith("#"))
+				lines.add(line);
+		}
+		String[] sorted = lines.toArray(new String[0]);
+		Arrays.sort(sorted);
+
+		StringBuilder content = new StringBuilder("# mvnrun lockfile\n");
+		for (String line : sorted)
+			content.append(line).append('\n');
+
+		File directory = file.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile(file.getName(), ".tmp", directory);
+		try (OutputStream out = new FileOutputStream(tmp))
+		{
+			out.write(content.toString().getBytes(StandardCharsets.ISO_8859_1));
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public static Lockfile read(File file) throws IOException
+	{
+		Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(file))
+		{
+			properties.load(in);
+		}
+
+		if (!FORMAT_VERSION.equals(properties.getProperty("format")))
+			throw new IOException(file + " is not a lockfile this version of mvnrun can read");
+
+		try
+		{
+			int count = Integer.parseInt(properties.getProperty("entries"));
+			List<String> coordinates = new ArrayList<>();
+			List<File> files = new ArrayList<>();
+			List<String> sha1s = new ArrayList<>();
+			for (int i = 0; i < count; i++)
+			{
+				coordinates.add(required(properties, "entry." + i + ".coordinate"));
+				files.add(new File(required(properties, "entry." + i + ".path")));
+				sha1s.add(required(properties, "entry." + i + ".sha1"));
+			}
+
+			int main = Integer.parseInt(properties.getProperty("main"));
+			if (main < 0 || main >= count)
+				throw new IOException("Invalid main entry in " + file);
+
+			return new Lockfile(required(properties, "artifact"), properties.getProperty("mainclass"), main,
+					coordinates, files, sha1s);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IOException("Malformed lockfile " + file, e);
+		}
+	}
+
+	private static String required(Properties properties, String key) throws IOException
+	{
+		String value = properties.getProperty(key);
+		if (value == null)
+			throw new IOException("Missing " + key + " in lockfile");
+		return value;
+	}
+
+	public String getArtifact()
+	{
+		return artifact;
+	}
+
+	/**
+	 * @return the main class given when the lockfile was written, or null
+	 */
+	public String getMainClass()
+	{
+		return mainClass;
+	}
+
+	/**
+	 * Checks that every locked file is present and unchanged.
+	 *
+	 * @return the locked classpath
+	 * @throws IOException describing the first missing or modified file
+	 */
+	public ResolvedClasspath verify() throws IOException
+	{
+		List<ResolvedClasspath.Entry> entries = new ArrayList<>();
+		for (int i = 0; i < files.size(); i++)
+		{
+			File file = files.get(i);
+			if (!file.isFile())
+				throw new IOException("Locked file " + file + " of " + coordinates.get(i) + " is missing");
+			if (!sha1s.get(i).equalsIgnoreCase(Checksums.sha1(file)))
+				throw new IOException("Locked file " + file + " of " + coordinates.get(i) + " has been modified");
+			entries.add(new ResolvedClasspath.Entry(coordinates.get(i), file));
+		}
+		return new ResolvedClasspath(artifact, files.get(main), entries);
+	}
+}
@@ -7,9 +7,12 @@ import org.apache.maven.index.*;
 import org.apache.maven.index.context.IndexCreator;
 import org.apache.maven.index.context.IndexingContext;
 import org.apache.maven.index.context.UnsupportedExistingLuceneIndexException;
+import org.apache.maven.index.creator.JarFileContentsIndexCreator;
+import org.apache.maven.index.incremental.IncrementalHandler;
 import org.apache.maven.index.packer.IndexPacker;
 import org.apache.maven.index.packer.IndexPackingRequest;
 import org.apache.maven.index.packer.IndexPackingRequest.IndexFormat;
+import org.apache.maven.index.packer.PipelinedIndexPacker;
 import org.apache.maven.index.updater.DefaultIndexUpdater;
 import org.codehaus.plexus.DefaultContainerConfiguration;
 import org.codehaus.plexus.DefaultPlexusContainer;
@@ -27,6 +30,7 @@ import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import static fr.lteconsulting.mvnrun.MavenRunApp.IndexOptions;
@@ -56,10 +60,20 @@ public class MavenIndWriter {
     // Command line options
     private static final long MB = 1024 * 1024;
 
+    /**
+     * File of the index folder keeping the state of the repository directories at the last run
+     */
+    static final String SNAPSHOT_FILE = "mvnrun-directories.snapshot";
+
     private Options options;
 
     private int status = 0;
 
+    /**
+     * Released once the indexing context is closed, the JVM waits for it when stopped while watching
+     */
+    private final CountDownLatch contextClosed = new CountDownLatch(1);
+
     public String getPomPropertiesPath() {
         return "META-INF/maven/org.sonatype.nexus/nexus-indexer/pom.properties";
     }
@@ -104,7 +118,13 @@ public class MavenIndWriter {
 
         String repositoryName = cli.repoName != null ? cli.repoName : indexFolder.getName();
 
-        List<IndexCreator> indexers = getIndexers(cli, plexus);
+        MemoryBudget budget = new MemoryBudget();
+        budget.setRamBufferMB(cli.ramBuffer);
+        budget.setMaxQueuedDirectories(cli.maxQueuedDirectories);
+        budget.setMaxJarEntries(cli.maxJarEntries);
+        budget.setMaxSnapshotDirectories(cli.maxSnapshotDirectories);
+
+        List<IndexCreator> indexers = limitJarContents(getIndexers(cli, plexus), budget);
 
         if (!cli.quiet) {
             System.err.printf("Repository Folder: %s\n", repositoryFolder.getAbsolutePath());
@@ -124,9 +144,37 @@ public class MavenIndWriter {
             } else {
                 System.err.printf("Will create baseline file.\n");
             }
+
+            if (cli.threads > 1) {
+                System.err.printf("Will scan with %d threads.\n", cli.threads);
+            }
+
+            if (cli.full) {
+                System.err.printf("Will index every artifact.\n");
+            } else {
+                System.err.printf("Will only index artifacts of directories changed since the last run.\n");
+            }
+
+            if (cli.watch) {
+                System.err.printf("Will then index artifacts as they are deployed.\n");
+            }
         }
 
-        NexusIndexer indexer = plexus.lookup(NexusIndexer.class);
+        ArtifactContextProducer artifactContextProducer = plexus.lookup(ArtifactContextProducer.class);
+        IndexerEngine indexerEngine = plexus.lookup(IndexerEngine.class);
+        ParallelScanner scanner =
+                new ParallelScanner(artifactContextProducer, indexerEngine, Math.max(1, cli.threads));
+        scanner.setMemoryBudget(budget);
+
+        // spilled to the temporary directory, the index folder being replaced at the end of the scan
+        File snapshotFile = new File(indexFolder, SNAPSHOT_FILE);
+        String snapshotKey = snapshotKey(indexers);
+        DirectorySnapshot previous = cli.full ? null
+                : DirectorySnapshot.load(snapshotFile, snapshotKey, cli.maxSnapshotDirectories, null);
+        DirectorySnapshot snapshot = new DirectorySnapshot(snapshotKey, cli.maxSnapshotDirectories, null);
+        scanner.setSnapshots(previous, snapshot);
+
+        NexusIndexer indexer = getNexusIndexer(scanner, plexus);
 
         long tstart = System.currentTimeMillis();
 
@@ -140,39 +188,199 @@ public class MavenIndWriter {
                 indexers);
 
         try {
-            IndexPacker packer = plexus.lookup(IndexPacker.class);
+            // the scan is over, every core can compress
+            final IndexPacker packer = new PipelinedIndexPacker(plexus.lookup(IncrementalHandler.class),
+                    Runtime.getRuntime().availableProcessors());
 
             ArtifactScanningListener listener = new IndexerListener(context, cli.debug, cli.quiet);
 
             indexer.scan(context, listener, true);
 
-            IndexSearcher indexSearcher = context.acquireIndexSearcher();
-
+            // only once the index holds what the snapshot says
             try {
-                IndexPackingRequest request =
-                        new IndexPackingRequest(context, indexSearcher.getIndexReader(), outputFolder);
-
-                request.setCreateChecksumFiles(cli.createChecksum);
+                snapshot.save(snapshotFile);
+            } catch (IOException e) {
+                // the next run indexes everything again
+                snapshotFile.delete();
 
-                request.setCreateIncrementalChunks(cli.createChunks);
-
-                request.setFormats(Arrays.asList(IndexFormat.FORMAT_V1));
-
-                if (cli.chunksKeeped != null) {
-                    request.setMaxIndexChunks(cli.chunksKeeped.intValue());
+                if (!cli.quiet) {
+                    System.err.printf("Cannot save the directory snapshot: %s\n", e.getMessage());
                 }
-
-                packIndex(packer, request, cli.debug, cli.quiet);
             } finally {
-                context.releaseIndexSearcher(indexSearcher);
+                budget.snapshotSpilled(snapshot.getSpilled() + (previous != null ? previous.getSpilled() : 0));
+                snapshot.close();
+                if (previous != null) {
+                    previous.close();
+                }
             }
 
+            if (!cli.quiet) {
+                System.err.printf("Artifacts unchanged: %s\n", scanner.getUnchanged());
+            }
+
+            pack(context, packer, outputFolder, cli);
+
             if (!cli.quiet) {
                 printStats(tstart);
+                budget.printUsage();
+            }
+
+            if (cli.watch) {
+                // the writer of the context, the scan wrote in a copy
+                budget.configure(context.getIndexWriter());
+
+                // the watch needs the whole snapshot in memory
+                watch(context, artifactContextProducer, indexerEngine, DirectorySnapshot.load(snapshotFile, snapshotKey),
+                        snapshotFile, packer, outputFolder, cli);
             }
         } finally {
             indexer.removeIndexingContext(context, false);
+            contextClosed.countDown();
+        }
+    }
+
+    private void pack(IndexingContext context, IndexPacker packer, File outputFolder, IndexOptions cli)
+            throws IOException {
+        IndexSearcher indexSearcher = context.acquireIndexSearcher();
+
+        try {
+            IndexPackingRequest request =
+                    new IndexPackingRequest(context, indexSearcher.getIndexReader(), outputFolder);
+
+            request.setCreateChecksumFiles(cli.createChecksum);
+
+            request.setCreateIncrementalChunks(cli.createChunks);
+
+            request.setFormats(Arrays.asList(IndexFormat.FORMAT_V1));
+
+            if (cli.chunksKeeped != null) {
+                request.setMaxIndexChunks(cli.chunksKeeped.intValue());
+            }
+
+            packIndex(packer, request, cli.debug, cli.quiet);
+        } finally {
+            context.releaseIndexSearcher(indexSearcher);
+        }
+    }
+
+    /**
+     * Indexes artifacts as they are deployed until the JVM is stopped, the context being closed by the caller.
+     */
+    private void watch(final IndexingContext context, ArtifactContextProducer artifactContextProducer,
+                       IndexerEngine indexerEngine, DirectorySnapshot snapshot, File snapshotFile,
+                       final IndexPacker packer, final File outputFolder, final IndexOptions cli)
+            throws IOException {
+        final RepositoryWatcher watcher = new RepositoryWatcher(context, artifactContextProducer, indexerEngine,
+                snapshot, snapshotFile, new RepositoryWatcher.Listener() {
+            public void changesIndexed(int updated, int removed) {
+                if (!cli.quiet) {
+                    System.err.printf("Artifacts updated: %s, removed: %s\n", updated, removed);
+                }
+            }
+
+            public void artifactError(File file, Exception e) {
+                if (!cli.quiet) {
+                    System.err.printf("! %s - %s\n", file.getAbsolutePath(), e.getMessage());
+
+                    if (cli.debug) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+
+            public void watchError(String message, IOException e) {
+                System.err.printf("! %s - %s\n", message, e.getMessage());
+
+                if (cli.debug) {
+                    e.printStackTrace();
+                }
+            }
+
+            public void publish() throws IOException {
+                pack(context, packer, outputFolder, cli);
+
+                if (!cli.quiet) {
+                    System.err.printf("Index packed to %s\n", outputFolder.getAbsolutePath());
+                }
+            }
+        });
+        watcher.setDebounceMillis(cli.debounce);
+        watcher.setMaxLatencyMillis(cli.maxLatency);
+        watcher.setRescanMillis(TimeUnit.SECONDS.toMillis(cli.rescanInterval));
+        watcher.setPublishMillis(TimeUnit.SECONDS.toMillis(cli.publishInterval));
+
+        // on Ctrl-C, the changes already seen are indexed and the index closed before the JVM ends
+        Thread hook = new Thread("mvnrun-index-watch-shutdown") {
+            @Override
+            public void run() {
+                try {
+                    watcher.close();
+                    contextClosed.await(30, TimeUnit.SECONDS);
+                } catch (IOException e) {
+                    // the watch ends anyway with the JVM
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(hook);
+
+        if (!cli.quiet) {
+            System.err.printf("Watching %s\n", context.getRepository().getAbsolutePath());
         }
+
+        try {
+            watcher.watch();
+        } finally {
+            watcher.close();
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException e) {
+                // the JVM is shutting down, the hook waits for the context to be closed
+            }
+        }
+    }
+
+    /**
+     * The indexer of the container scans everything on a single thread, one scanning with ours is assembled from the
+     * same components.
+     */
+    private NexusIndexer getNexusIndexer(ParallelScanner scanner, PlexusContainer plexus)
+            throws ComponentLookupException {
+        return new DefaultNexusIndexer(plexus.lookup(Indexer.class), scanner, scanner.getIndexerEngine(),
+                plexus.lookup(QueryCreator.class));
+    }
+
+    /**
+     * @return the index creators, the one reading the content of jars being bounded by the budget
+     */
+    private static List<IndexCreator> limitJarContents(List<IndexCreator> indexers, MemoryBudget budget) {
+        if (budget.getMaxJarEntries() == Integer.MAX_VALUE) {
+            return indexers;
+        }
+
+        List<IndexCreator> limited = new ArrayList<IndexCreator>();
+        for (IndexCreator indexer : indexers) {
+            limited.add(JarFileContentsIndexCreator.ID.equals(indexer.getId())
+                    ? new JarContentsLimit(indexer, budget) : indexer);
+        }
+        return limited;
+    }
+
+    /**
+     * @return what the documents of the index are made of, a snapshot taken with other index creators or another limit
+     * of jar entries being useless
+     */
+    static String snapshotKey(List<IndexCreator> indexers) {
+        StringBuilder key = new StringBuilder();
+        for (IndexCreator indexer : indexers) {
+            key.append(indexer.getId());
+            if (indexer instanceof JarContentsLimit) {
+                key.append("<=").append(((JarContentsLimit) indexer).getMaxJarEntries());
+            }
+            key.append(',');
+        }
+        return key.toString();
     }
 
     private void unpack(IndexOptions cli, PlexusContainer plexus)
@@ -327,6 +535,10 @@ public class MavenIndWriter {
         }
 
         private String formatFile(File file) {
+            // artifacts of unchanged directories are reported without their files
+            if (file == null) {
+                return "-";
+            }
             return file.getAbsolutePath().substring(context.getRepository().getAbsolutePath().length() + 1);
         }
 
@@ -1,25 +1,58 @@
 package fr.lteconsulting.mvnrun;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.jboss.shrinkwrap.resolver.api.ResolutionException;
+import org.jboss.shrinkwrap.resolver.api.maven.ConfigurableMavenResolverSystem;
 import org.jboss.shrinkwrap.resolver.api.maven.Maven;
 import org.jboss.shrinkwrap.resolver.api.maven.MavenResolvedArtifact;
-import org.jboss.shrinkwrap.resolver.api.maven.MavenResolverSystem;
+import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinate;
+import org.jboss.shrinkwrap.resolver.api.maven.coordinate.MavenCoordinates;
+
+import static fr.lteconsulting.mvnrun.MavenRunApp.AppOptions;
 
 public class MavenRun
 {
-	private static MavenResolverSystem resolver()
+	/**
+	 * Aether configuration property giving the number of concurrent downloads
+	 */
+	static final String DOWNLOAD_THREADS_PROPERTY = "aether.connector.wagon.threads";
+
+	static ConfigurableMavenResolverSystem resolver()
+	{
+		return Maven.configureResolver();
+	}
+
+	/**
+	 * @return the major version of the running JVM, children being launched with the same one
+	 */
+	static int javaVersion()
 	{
-		//Maven.configureResolver().workOffline();
-		return Maven.resolver();
+		String version = System.getProperty("java.specification.version");
+		if (version.startsWith("1."))
+			version = version.substring(2);
+		try
+		{
+			return Integer.parseInt(version);
+		}
+		catch (NumberFormatException e)
+		{
+			return 0;
+		}
 	}
 
-	private static String join(List<String> list, String inside)
+	static String join(List<String> list, String inside)
 	{
 		StringBuilder sb = new StringBuilder();
 		if (list != null)
@@ -37,82 +70,796 @@ public class MavenRun
 		return sb.toString();
 	}
 
-	private static void log(boolean quiet, String message){
+	static void log(boolean quiet, String message){
 		if(!quiet){
 			System.err.println(message);
 		}
 	}
 
-	public static void run(String artifact, String[] args, String className, boolean quiet)
+	/**
+	 * Resolves the artifact and its runtime dependencies in a single pass, the launched jar being picked from the
+	 * transitive result. Missing files are downloaded as one batch per repository, which the connector spreads over
+	 * its download threads.
+	 */
+	static ResolvedClasspath resolve(ConfigurableMavenResolverSystem resolver, String artifact, boolean quiet)
+	{
+		return resolve(resolver, artifact, null, quiet);
+	}
+
+	/**
+	 * @param report records what the resolution transfers, may be null
+	 */
+	static ResolvedClasspath resolve(ConfigurableMavenResolverSystem resolver, String artifact,
+			ResolutionReport report, boolean quiet)
+	{
+		return resolve(resolver, artifact, report, null, quiet);
+	}
+
+	/**
+	 * @param threads the number of concurrent downloads of this resolution, the resolver's own one if null
+	 * @throws IllegalArgumentException if the number of downloads cannot be given to the resolver
+	 */
+	static ResolvedClasspath resolve(ConfigurableMavenResolverSystem resolver, String artifact,
+			ResolutionReport report, Integer threads, boolean quiet)
+	{
+		if (threads == null)
+			return resolveTransitively(resolver, artifact, report, quiet);
+
+		// set on the session of this resolution only, a shared resolver gets it back as it was
+		DefaultRepositorySystemSession session;
+		try
+		{
+			session = ResolutionReport.sessionOf(resolver);
+		}
+		catch (IllegalStateException e)
+		{
+			throw new IllegalArgumentException("--threads cannot be applied to the resolver : " + e.getMessage(), e);
+		}
+		Object previous = session.getConfigProperties().get(DOWNLOAD_THREADS_PROPERTY);
+		session.setConfigProperty(DOWNLOAD_THREADS_PROPERTY, threads);
+		try
+		{
+			return resolveTransitively(resolver, artifact, report, quiet);
+		}
+		finally
+		{
+			session.setConfigProperty(DOWNLOAD_THREADS_PROPERTY, previous);
+		}
+	}
+
+	private static ResolvedClasspath resolveTransitively(ConfigurableMavenResolverSystem resolver, String artifact,
+			ResolutionReport report, boolean quiet)
 	{
 		log(quiet,"Resolving artifacts...");
 
-		MavenResolverSystem resolver = resolver();
+		// the resolver's session is regenerated each time it goes online or offline
+		if (report != null)
+		{
+			try
+			{
+				report.attachTo(resolver);
+			}
+			catch (IllegalStateException e)
+			{
+				System.err.println("Unable to listen to the resolver (" + e.getMessage()
+						+ "), the resolution report will be empty");
+			}
+		}
+
+		MavenCoordinate requested = MavenCoordinates.createCoordinate(artifact);
 
-		List<String> classPath = new ArrayList<>();
+		List<ResolvedClasspath.Entry> entries = new ArrayList<>();
+		File jarFile = null;
 
 		MavenResolvedArtifact[] resolveds = resolver.resolve(artifact).withTransitivity().asResolvedArtifact();
 		for (MavenResolvedArtifact ra : resolveds)
-			classPath.add(ra.asFile().getAbsolutePath());
+		{
+			entries.add(new ResolvedClasspath.Entry(ra.getCoordinate().toCanonicalForm(), ra.asFile()));
+
+			if (jarFile == null && isRequested(requested, ra.getCoordinate()))
+				jarFile = ra.asFile();
+		}
 
-		File jarFile = resolver.resolve(artifact).withoutTransitivity().asSingleFile();
 		if (jarFile == null)
 		{
 			log(quiet,"Unable to find a jar file to launch for artifact " + artifact + ". Aborting.");
-			return;
+			return null;
 		}
 
-		String commandLine = "";
-		if (className == null)
+		return new ResolvedClasspath(artifact, jarFile, entries);
+	}
+
+	/**
+	 * Resolves without contacting any remote repository.
+	 *
+	 * @param offline whether the settings already ask for offline mode, which is restored afterwards
+	 * @return the resolved classpath, or null if something is missing from the local repository
+	 */
+	private static ResolvedClasspath resolveOffline(ConfigurableMavenResolverSystem resolver, String artifact,
+			boolean offline, ResolutionReport report, Integer threads, boolean quiet)
+	{
+		log(quiet, "Artifact found in the local repository, resolving offline...");
+
+		resolver.workOffline(true);
+		try
 		{
-			commandLine = "java -cp " + join(classPath, File.pathSeparator) + " " + " -jar " + jarFile.getAbsolutePath();
+			return resolve(resolver, artifact, report, threads, quiet);
 		}
-		else
+		catch (ResolutionException e)
 		{
-			classPath.add(jarFile.getAbsolutePath());
-			commandLine = "java -cp " + join(classPath, File.pathSeparator) + " " + " " + className;
+			log(quiet, "Offline resolution failed (" + e.getMessage() + ")"
+					+ (offline ? "" : ", using remote repositories"));
+			return null;
+		}
+		finally
+		{
+			// the fallback must not contact remotes the user disabled
+			resolver.workOffline(offline);
+		}
+	}
+
+	private static boolean isRequested(MavenCoordinate requested, MavenCoordinate resolved)
+	{
+		// versions are not compared, the requested one may be a range or a meta version
+		return requested.getGroupId().equals(resolved.getGroupId())
+				&& requested.getArtifactId().equals(resolved.getArtifactId())
+				&& classifier(requested).equals(classifier(resolved));
+	}
+
+	private static String classifier(MavenCoordinate coordinate)
+	{
+		return coordinate.getClassifier() == null ? "" : coordinate.getClassifier();
+	}
+
+	public static int run(String artifact, String[] args, String className, boolean quiet)
+	{
+		AppOptions options = new AppOptions();
+		options.artifact = artifact;
+		options.mainClass = className;
+		options.arguments = new ArrayList<>(Arrays.asList(args));
+		return run(options, quiet);
+	}
+
+	/**
+	 * Resolves the artifact and runs it in a child process.
+	 *
+	 * @return the exit code of the child process, or -1 if it could not be launched
+	 */
+	public static int run(AppOptions options, boolean quiet)
+	{
+		return run(options, null, quiet);
+	}
+
+	/**
+	 * Resolves the artifact and runs it in a child process.
+	 *
+	 * @param session the resolver of the running Maven build, or null to bootstrap one
+	 * @return the exit code of the child process, or -1 if it could not be launched
+	 */
+	public static int run(AppOptions options, SessionResolver session, boolean quiet)
+	{
+		LaunchMetrics metrics = new LaunchMetrics();
+		metrics.put("artifact", options.artifact);
+
+		int exitCode = launch(options, session, metrics, quiet);
+
+		if (options.metrics != null)
+		{
+			// a lockfile may have given the artifact
+			metrics.put("artifact", options.artifact);
+			metrics.put("exitCode", exitCode);
+			writeMetrics(options.metrics, metrics, new FileOutputStream(FileDescriptor.err), quiet);
+		}
+		return exitCode;
+	}
+
+	private static int launch(AppOptions options, SessionResolver session, LaunchMetrics metrics, boolean quiet)
+	{
+		if (options.profile != null && !JvmTuning.PROFILES.contains(options.profile))
+		{
+			System.err.println("Unknown JVM profile " + options.profile + ", expected one of " + JvmTuning.PROFILES);
+			return -1;
+		}
+
+		ResolvedClasspath resolved = resolveClasspath(options, null, session, metrics, quiet);
+		if (resolved == null)
+			return -1;
+
+		ClassIndex index = classIndex(resolved, options, metrics, quiet);
+		String problem = checkMainClass(index, resolved, options);
+		if (problem != null)
+		{
+			System.err.println(problem);
+			return -1;
+		}
+
+		if (options.inProcess)
+		{
+			if (options.profile != null)
+				log(quiet, "JVM profiles only apply to new processes, ignoring --profile");
+			if (OutputFiles.requested(options))
+				log(quiet, "Output files only apply to new processes, ignoring --stdout-file and --stderr-file");
+			return runInProcess(resolved, index, options, metrics, quiet);
 		}
 
-		for (int i = 0; i < args.length; i++)
-			commandLine += " " + args[i];
+		if (options.pool > 0)
+			log(quiet, "Warm JVM pools are kept by the daemon, ignoring --pool");
 
-		log(quiet,"Command line : " + commandLine);
+		CdsArchive cds = options.cds ? cdsArchive(resolved, options, quiet) : null;
 
 		try
 		{
+			long commandBuild = System.nanoTime();
+			List<String> command = buildCommand(resolved, options,
+					cds != null ? cds.jvmOptions() : Collections.<String> emptyList());
+			metrics.time("commandBuild", commandBuild);
+
+			log(quiet,"Command line : " + join(command, " "));
+
 			log(quiet,"");
 			log(quiet,"Launching process...");
 
-			Process process = Runtime.getRuntime().exec(commandLine);
+			ProcessBuilder builder = new ProcessBuilder(command);
+			int exitCode;
+			if (OutputFiles.requested(options))
+				exitCode = launchToFiles(builder, options, metrics);
+			else if (options.capture)
+				exitCode = ProcessLauncher.capture(builder, metrics);
+			else
+				exitCode = ProcessLauncher.inherit(builder, metrics);
 
-			log(quiet,"");
-			log(quiet,"Process launched.");
+			log(quiet,"Process terminated with exit code " + exitCode + ".");
+
+			if (cds != null)
+				cds.publish();
+
+			return exitCode;
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			return -1;
+		}
+	}
+
+	/**
+	 * Runs the process with its outputs pumped to the files given by the options, or to ours for the one which has no
+	 * file.
+	 */
+	private static int launchToFiles(ProcessBuilder builder, AppOptions options, LaunchMetrics metrics)
+			throws IOException, InterruptedException
+	{
+		OutputFiles files = OutputFiles.open(options, new FileOutputStream(FileDescriptor.out),
+				new FileOutputStream(FileDescriptor.err));
+		try
+		{
+			return ProcessLauncher.capture(builder, new FileInputStream(FileDescriptor.in), files.getStdout(),
+					files.getStderr(), metrics);
+		}
+		finally
+		{
+			files.close(metrics);
+		}
+	}
+
+	/**
+	 * Gets the classpath of the artifact from the lockfile, the cache, or resolves it.
+	 *
+	 * @param resolver the resolver to use on a cache miss, or null to create one only if needed
+	 * @return the resolved classpath, or null if the artifact cannot be launched
+	 */
+	static ResolvedClasspath resolveClasspath(AppOptions options, ConfigurableMavenResolverSystem resolver,
+			LaunchMetrics metrics, boolean quiet)
+	{
+		return resolveClasspath(options, resolver, null, metrics, quiet);
+	}
+
+	/**
+	 * @param session the resolver of the running Maven build, used instead of ours when not null
+	 */
+	private static ResolvedClasspath resolveClasspath(AppOptions options, ConfigurableMavenResolverSystem resolver,
+			SessionResolver session, LaunchMetrics metrics, boolean quiet)
+	{
+		if (options.lock != null)
+			return lockedClasspath(options, metrics, quiet);
+		if (options.artifact == null)
+		{
+			System.err.println("An artifact (--artifact) or a lockfile (--lock) is required");
+			return null;
+		}
+
+		if (options.versionIndex != null)
+			selectVersion(options, metrics, quiet);
+
+		ResolvedClasspath resolved = cachedOrResolved(options, resolver, session, metrics, quiet);
+		if (resolved != null && options.verify && !verify(resolved, options, metrics, quiet))
+			return null;
+		if (resolved != null && options.freeze)
+		{
+			try
+			{
+				long freeze = System.nanoTime();
+				Lockfile.write(new File(options.freezeFile), resolved, options.mainClass);
+				metrics.time("freeze", freeze);
+				log(quiet, "Classpath frozen in " + options.freezeFile);
+			}
+			catch (IOException e)
+			{
+				System.err.println("Unable to write lockfile " + options.freezeFile + " : " + e.getMessage());
+				return null;
+			}
+		}
+		return resolved;
+	}
+
+	/**
+	 * Gets the classpath of the artifact from the cache only, after the same version selection and with the same
+	 * verification as {@link #resolveClasspath(AppOptions, ConfigurableMavenResolverSystem, LaunchMetrics, boolean)}.
+	 * Used by the daemon, which resolves cache misses one at a time.
+	 *
+	 * @return the cached classpath, or null on a cache miss
+	 * @throws IOException if the cached classpath fails the verification, in which case it is dropped from the cache
+	 */
+	static ResolvedClasspath cachedClasspath(AppOptions options, LaunchMetrics metrics, boolean quiet)
+			throws IOException
+	{
+		if (options.versionIndex != null)
+			selectVersion(options, metrics, quiet);
+
+		long lookup = System.nanoTime();
+		ResolvedClasspath resolved = cache(options).get(options.artifact);
+		if (resolved == null)
+			return null;
+		metrics.time("cacheLookup", lookup);
+		metrics.put("cacheHit", true);
+		measure(resolved, metrics);
+
+		if (options.verify && !verify(resolved, options, metrics, quiet))
+			throw new IOException("The cached classpath of " + options.artifact + " failed the verification");
+		return resolved;
+	}
+
+	/**
+	 * Checks the classpath files against the checksums of the local repository.
+	 *
+	 * @return false if a file is corrupted, in which case the cached classpath is dropped
+	 */
+	private static boolean verify(ResolvedClasspath resolved, AppOptions options, LaunchMetrics metrics,
+			boolean quiet)
+	{
+		ClasspathVerifier verifier = new ClasspathVerifier(new File(options.cacheDir, "verified.properties"));
+		try
+		{
+			long verify = System.nanoTime();
+			List<String> problems = verifier.verify(resolved);
+			metrics.time("verify", verify);
+			metrics.put("hashedFiles", verifier.getHashed());
+			log(quiet, "Classpath verified, " + verifier.getHashed() + " files hashed");
+
+			if (problems.isEmpty())
+				return true;
+
+			for (String problem : problems)
+				System.err.println(problem);
+			System.err.println("Delete the corrupted files from the local repository so that they are downloaded again");
+			cache(options).remove(options.artifact);
+			return false;
+		}
+		catch (IOException e)
+		{
+			System.err.println("Unable to verify the classpath : " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Replaces a range, LATEST or RELEASE version of the artifact with the version selected from the local index. The
+	 * resolver is left to select it when the index knows no matching version.
+	 */
+	private static void selectVersion(AppOptions options, LaunchMetrics metrics, boolean quiet)
+	{
+		try
+		{
+			long selection = System.nanoTime();
+			String selected = new VersionIndex(new File(options.versionIndex), new File(options.cacheDir, "versions"),
+					TimeUnit.SECONDS.toMillis(options.versionTtl)).select(options.artifact);
+			metrics.time("versionSelection", selection);
+
+			if (selected != null)
+			{
+				log(quiet, "Selected " + selected + " for " + options.artifact + " from the index");
+				options.artifact = selected;
+			}
+		}
+		catch (IOException e)
+		{
+			log(quiet, "Unable to select a version from the index (" + e.getMessage() + "), using the resolver");
+		}
+	}
+
+	/**
+	 * Verifies the files of the lockfile given by the options, which also provides the artifact and the main class when
+	 * they are not given.
+	 */
+	private static ResolvedClasspath lockedClasspath(AppOptions options, LaunchMetrics metrics, boolean quiet)
+	{
+		try
+		{
+			long verify = System.nanoTime();
+			Lockfile lockfile = Lockfile.read(new File(options.lock));
+			if (options.artifact != null && !options.artifact.equals(lockfile.getArtifact()))
+			{
+				System.err.println("Lockfile " + options.lock + " is for " + lockfile.getArtifact() + ", not "
+						+ options.artifact);
+				return null;
+			}
+			ResolvedClasspath resolved = lockfile.verify();
+			metrics.time("lockVerify", verify);
+
+			log(quiet, "Using classpath locked in " + options.lock);
+			options.artifact = lockfile.getArtifact();
+			if (options.mainClass == null)
+				options.mainClass = lockfile.getMainClass();
+			measure(resolved, metrics);
+			return resolved;
+		}
+		catch (IOException e)
+		{
+			System.err.println("Unable to launch from lockfile " + options.lock + " : " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static ResolvedClasspath cachedOrResolved(AppOptions options, ConfigurableMavenResolverSystem resolver,
+			SessionResolver session, LaunchMetrics metrics, boolean quiet)
+	{
+		String artifact = options.artifact;
+
+		ClasspathCache cache = cache(options);
+		if (options.clearCache)
+		{
+			log(quiet, "Clearing classpath cache " + cache.getDirectory());
+			cache.clear();
+		}
+
+		long lookup = System.nanoTime();
+		ResolvedClasspath resolved = options.noCache ? null : cache.get(artifact);
+		metrics.time("cacheLookup", lookup);
+		metrics.put("cacheHit", resolved != null);
+		if (resolved != null)
+		{
+			log(quiet, "Using cached classpath for " + artifact);
+			measure(resolved, metrics);
+			return resolved;
+		}
+
+		// processes launching the same artifact at the same time resolve it once, the others reuse the cached result
+		ResolutionLock lock = null;
+		try
+		{
+			lock = ResolutionLock.acquire(new File(cache.getDirectory(), "locks"), artifact,
+					TimeUnit.SECONDS.toMillis(options.resolutionLockTimeout), quiet);
+			metrics.put("resolutionLockWaitMs", lock.getWaitedMillis());
+		}
+		catch (IOException e)
+		{
+			log(quiet, "Unable to lock the resolution of " + artifact + " (" + e.getMessage() + "), resolving anyway");
+		}
+
+		try
+		{
+			if (lock != null && !options.noCache)
+			{
+				resolved = cache.get(artifact);
+				if (resolved != null)
+				{
+					log(quiet, "Using classpath resolved by a concurrent launch of " + artifact);
+					metrics.put("cacheHit", true);
+					measure(resolved, metrics);
+					return resolved;
+				}
+			}
+
+			return resolveAndCache(options, resolver, session, cache, metrics, quiet);
+		}
+		finally
+		{
+			if (lock != null)
+			{
+				try
+				{
+					lock.close();
+				}
+				catch (IOException e)
+				{
+					log(quiet, "Unable to release the resolution lock of " + artifact + " : " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	private static ResolvedClasspath resolveAndCache(AppOptions options, ConfigurableMavenResolverSystem resolver,
+			SessionResolver session, ClasspathCache cache, LaunchMetrics metrics, boolean quiet)
+	{
+		ResolvedClasspath resolved;
+		if (session != null)
+		{
+			// the build's session already knows its settings and whether it is offline
+			ResolutionReport report = new ResolutionReport();
+			long resolution = System.nanoTime();
+			resolved = session.resolve(options.artifact, report, options.threads, quiet);
+			metrics.time("resolution", resolution);
+			report(report, metrics, quiet);
+		}
+		else
+		{
+			resolved = resolveStandalone(options, resolver, metrics, quiet);
+		}
+
+		if (resolved != null)
+			measure(resolved, metrics);
+
+		if (resolved != null && !options.noCache)
+		{
+			try
+			{
+				cache.put(resolved);
+			}
+			catch (IOException e)
+			{
+				log(quiet, "Unable to cache classpath : " + e.getMessage());
+			}
+		}
+		return resolved;
+	}
+
+	/**
+	 * Resolves with our own resolver, which is bootstrapped if none is given.
+	 */
+	private static ResolvedClasspath resolveStandalone(AppOptions options, ConfigurableMavenResolverSystem resolver,
+			LaunchMetrics metrics, boolean quiet)
+	{
+		String artifact = options.artifact;
+
+		ConfigurableMavenResolverSystem system = resolver;
+		if (system == null)
+		{
+			long bootstrap = System.nanoTime();
+			system = resolver();
+			metrics.time("resolverBootstrap", bootstrap);
+		}
+
+		ResolutionReport report = new ResolutionReport();
+		long resolution = System.nanoTime();
+		ResolvedClasspath resolved = null;
+		try
+		{
+			if (options.offlineFirst || !LocalRepository.isNetworkAvailable())
+			{
+				LocalRepository local = LocalRepository.fromSettings();
+				if (local.contains(artifact))
+					resolved = resolveOffline(system, artifact, local.isOffline(), report, options.threads, quiet);
+			}
+			if (resolved == null)
+				resolved = resolve(system, artifact, report, options.threads, quiet);
+		}
+		finally
+		{
+			metrics.time("resolution", resolution);
+			report(report, metrics, quiet);
+		}
+		return resolved;
+	}
+
+	/**
+	 * Adds the report to the metrics record and prints its summary.
+	 */
+	private static void report(ResolutionReport report, LaunchMetrics metrics, boolean quiet)
+	{
+		metrics.put("resolution", report);
+		for (String line : report.summary())
+			log(quiet, line);
+	}
+
+	static void measure(ResolvedClasspath resolved, LaunchMetrics metrics)
+	{
+		long bytes = 0;
+		for (ResolvedClasspath.Entry entry : resolved.getEntries())
+			bytes += entry.getFile().length();
+		metrics.put("artifacts", resolved.getEntries().size());
+		metrics.put("classpathBytes", bytes);
+	}
 
-			InputStream stdin = process.getInputStream();
-			BufferedReader reader = new BufferedReader(new InputStreamReader(stdin));
+	/**
+	 * Writes the metrics record to its target, a failure being only reported as metrics must not fail the launch.
+	 */
+	static void writeMetrics(String target, LaunchMetrics metrics, OutputStream stderr, boolean quiet)
+	{
+		try
+		{
+			metrics.write(target, stderr);
+		}
+		catch (IOException e)
+		{
+			log(quiet, "Unable to write metrics to " + target + " : " + e.getMessage());
+		}
+	}
 
-			InputStream stderr = process.getErrorStream();
-			BufferedReader reader2 = new BufferedReader(new InputStreamReader(stderr));
+	/**
+	 * Loads the class index of the classpath, building it on its first launch.
+	 *
+	 * @return the index, or null if it cannot be built or if the classpath holds directories, in which case classes are
+	 *         looked for in every entry
+	 */
+	static ClassIndex classIndex(ResolvedClasspath resolved, AppOptions options, LaunchMetrics metrics, boolean quiet)
+	{
+		if (!ClassIndex.isIndexable(resolved.getFiles()))
+		{
+			log(quiet, "The classpath holds directories, it is not indexed and the main class is not checked");
+			return null;
+		}
 
-			String line, lineErr = null;
-			do
+		try
+		{
+			long start = System.nanoTime();
+			ClassIndex index = ClassIndex.of(classIndexDirectory(options), resolved.getFiles());
+			metrics.time("classIndex", start);
+			return index;
+		}
+		catch (IOException e)
+		{
+			log(quiet, "Unable to index the classpath (" + e.getMessage() + "), the main class is not checked");
+			return null;
+		}
+	}
+
+	/**
+	 * Checks that the main class of the launch is in the classpath, so that a wrong one is reported before a JVM is
+	 * started for nothing.
+	 *
+	 * @param index the index of the classpath, or null to skip the check
+	 * @return why the launch cannot work, or null if the main class is found
+	 */
+	static String checkMainClass(ClassIndex index, ResolvedClasspath resolved, AppOptions options)
+	{
+		if (index == null)
+			return null;
+
+		String className = options.mainClass;
+		if (className == null)
+		{
+			try
 			{
-				line = reader.readLine();
-				lineErr = reader2.readLine();
-				if (line == null && lineErr == null)
-					break;
-				if (line != null)
-					System.out.println(line);
-				if (lineErr != null)
-					System.err.println(lineErr);
+				className = InProcessLauncher.findMainClass(resolved.getMainJar());
 			}
-			while (true);
+			catch (IOException e)
+			{
+				return "Unable to read the manifest of " + resolved.getMainJar() + " : " + e.getMessage();
+			}
+			if (className == null)
+				return "No Main-Class in the manifest of " + resolved.getMainJar() + ", a main class must be specified";
+		}
+
+		if (index.findClass(className) == null)
+			return "Main class " + className + " not found in the classpath of " + options.artifact;
+		return null;
+	}
+
+	static File classIndexDirectory(AppOptions options)
+	{
+		return new File(options.cacheDir, "classindex");
+	}
+
+	static ClasspathCache cache(AppOptions options)
+	{
+		return new ClasspathCache(new File(options.cacheDir), TimeUnit.SECONDS.toMillis(options.snapshotTtl));
+	}
+
+	/**
+	 * @return the class data sharing archive to use for this launch, or null if it is not supported
+	 */
+	static CdsArchive cdsArchive(ResolvedClasspath resolved, AppOptions options, boolean quiet)
+	{
+		List<String> jvmOptions;
+		try
+		{
+			jvmOptions = tuningOptions(options);
+		}
+		catch (IOException e)
+		{
+			// the launch reports it
+			return null;
+		}
+
+		// an auto delivery depends on the classpath and the JVM, which are part of the key as well
+		CdsArchive cds = CdsArchive.of(new File(options.cacheDir, "cds"), resolved, options.mainClass, jvmOptions,
+				options.classpathDelivery);
+		if (cds == null)
+			log(quiet, "Class data sharing archives need Java 13 or later, ignoring --cds");
+		return cds;
+	}
+
+	/**
+	 * @return the command line launching the resolved classpath in a new JVM
+	 * @throws IOException if no main class is given and the main jar has none
+	 */
+	static List<String> buildCommand(ResolvedClasspath resolved, AppOptions options, List<String> jvmOptions)
+			throws IOException
+	{
+		List<String> classPath = resolved.getPaths();
+		File jarFile = resolved.getMainJar();
+
+		// not -jar, which would make the JVM ignore the delivered classpath
+		String mainClass = options.mainClass;
+		if (mainClass == null)
+		{
+			mainClass = InProcessLauncher.findMainClass(jarFile);
+			if (mainClass == null)
+				throw new IOException("No Main-Class in the manifest of " + jarFile + ", a main class must be specified");
+		}
+
+		List<String> command = new ArrayList<>();
+		command.add("java");
+		command.addAll(tuningOptions(options));
+		command.addAll(jvmOptions);
+		if (!classPath.contains(jarFile.getAbsolutePath()))
+			classPath.add(jarFile.getAbsolutePath());
+		command.addAll(ClasspathDelivery.arguments(classPath, options.classpathDelivery, classpathDirectory(options)));
+		command.add(mainClass);
+		command.addAll(options.arguments);
+		return command;
+	}
+
+	/**
+	 * @return the JVM options of the tuning profile of the launch, given by the options or by the profiles file
+	 * @throws IOException if the profile is unknown or the profiles file cannot be read
+	 */
+	static List<String> tuningOptions(AppOptions options) throws IOException
+	{
+		return tuningOptions(options, options.concurrentJvms);
+	}
+
+	/**
+	 * @param jvms the number of JVMs launched at the same time, which share the memory left by mvnrun's own heap
+	 */
+	static List<String> tuningOptions(AppOptions options, int jvms) throws IOException
+	{
+		String profile = options.profile;
+		if (profile == null)
+			profile = JvmTuning.profileOf(options.artifact, new File(options.profilesFile));
+		if (profile == null)
+			return Collections.emptyList();
+
+		long ownHeap = Runtime.getRuntime().maxMemory();
+		JvmTuning.Limits limits = JvmTuning.currentLimits().share(ownHeap == Long.MAX_VALUE ? 0 : ownHeap, jvms);
+		return JvmTuning.options(profile, limits, javaVersion());
+	}
+
+	private static File classpathDirectory(AppOptions options)
+	{
+		return new File(options.cacheDir, "classpath");
+	}
+
+	private static int runInProcess(ResolvedClasspath resolved, ClassIndex index, AppOptions options,
+			LaunchMetrics metrics, boolean quiet)
+	{
+		try
+		{
+			log(quiet,"");
+			log(quiet,"Launching in process...");
+
+			long run = System.nanoTime();
+			int exitCode = InProcessLauncher.launch(resolved.getFiles(), index, resolved.getMainJar(),
+					options.mainClass, options.arguments.toArray(new String[0]));
+			metrics.time("run", run);
 
-			log(quiet,"Process terminated.");
+			log(quiet,"Application terminated with exit code " + exitCode + ".");
+			return exitCode;
 		}
 		catch (Exception e)
 		{
 			e.printStackTrace();
+			return -1;
 		}
 	}
 }
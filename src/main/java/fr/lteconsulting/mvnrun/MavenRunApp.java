@@ -1,5 +1,6 @@
 package fr.lteconsulting.mvnrun;
 
+import java.io.File;
 import java.util.List;
 import java.util.ArrayList;
 import com.beust.jcommander.JCommander;
@@ -15,7 +16,7 @@ public class MavenRunApp
 {
 
 	public static class AppOptions {
-		@Parameter(names = {"--artifact", "-a"}, description = "like groupId:artifactId:version", required = true)
+		@Parameter(names = {"--artifact", "-a"}, description = "like groupId:artifactId:version, required unless --lock is given", required = false)
 		String artifact;
 
 		@Parameter(names = {"--mainclass", "-m"}, description = "main class name, like org.sharpx.cli.Main", required = false)
@@ -27,9 +28,98 @@ public class MavenRunApp
 		@Parameter(names = {"--verbose", "-V"}, description = "verbose")
 		boolean verbose = false;
 
+		@Parameter(names = {"--no-cache"}, description = "do not use the resolved classpath cache")
+		boolean noCache = false;
+
+		@Parameter(names = {"--clear-cache"}, description = "clear the resolved classpath cache before resolving")
+		boolean clearCache = false;
+
+		@Parameter(names = {"--cache-dir"}, description = "resolved classpath cache folder")
+		String cacheDir = ClasspathCache.DEFAULT_DIRECTORY;
+
+		@Parameter(names = {"--snapshot-ttl"}, description = "seconds a cached SNAPSHOT classpath stays valid")
+		long snapshotTtl = 600;
+
+		@Parameter(names = {"--threads"}, description = "number of dependencies downloaded concurrently")
+		Integer threads;
+
+		@Parameter(names = {"--resolution-lock-timeout"}, description = "seconds to wait for another process resolving the same artifact, after which it is resolved anyway")
+		long resolutionLockTimeout = ResolutionLock.DEFAULT_TIMEOUT;
+
+		@Parameter(names = {"--capture"}, description = "pump the process streams through mvnrun instead of letting it inherit them")
+		boolean capture = false;
+
+		@Parameter(names = {"--in-process"}, description = "run the main class inside the mvnrun JVM instead of forking a new one")
+		boolean inProcess = false;
+
+		@Parameter(names = {"--cds"}, description = "record and reuse a class data sharing archive of the classpath (Java 13+)")
+		boolean cds = false;
+
+		@Parameter(names = {"--classpath-delivery"}, description = "how the classpath is given to the JVM : auto, inline, argfile or jar")
+		String classpathDelivery = ClasspathDelivery.AUTO;
+
+		@Parameter(names = {"--offline-first"}, description = "resolve from the local repository when the artifact is there, remote repositories being used only for what is missing (implied when no network is available)")
+		boolean offlineFirst = false;
+
+		@Parameter(names = {"--metrics"}, description = "write the timings of the launch phases as a JSON line to this file, or to stderr with -")
+		String metrics;
+
+		@Parameter(names = {"--freeze"}, description = "write the resolved classpath, with the checksum of every file, to a lockfile")
+		boolean freeze = false;
+
+		@Parameter(names = {"--freeze-file"}, description = "lockfile written by --freeze")
+		String freezeFile = Lockfile.DEFAULT_NAME;
+
+		@Parameter(names = {"--lock"}, description = "launch the classpath of this lockfile, without resolving anything")
+		String lock;
+
+		@Parameter(names = {"--version-index"}, description = "local Maven index folder used to select the version of ranges, LATEST and RELEASE")
+		String versionIndex;
+
+		@Parameter(names = {"--version-ttl"}, description = "seconds the versions read from the index stay cached")
+		long versionTtl = 3600;
+
+		@Parameter(names = {"--verify"}, description = "check every file of the classpath against its .sha1 in the local repository before launching")
+		boolean verify = false;
+
+		@Parameter(names = {"--pool"}, description = "number of warm JVMs the daemon keeps ready for this classpath, 0 to fork a new one for each launch")
+		int pool = 0;
+
+		@Parameter(names = {"--pool-idle-timeout"}, description = "seconds a warm JVM stays ready without being used")
+		long poolIdleTimeout = 300;
+
+		@Parameter(names = {"--pool-max-uses"}, description = "number of launches a warm JVM serves before being replaced")
+		int poolMaxUses = 1;
+
+		@Parameter(names = {"--profile"}, description = "JVM tuning profile of the launched process, sized from the CPU and memory limits : throughput, low-latency, small or none")
+		String profile;
+
+		@Parameter(names = {"--profiles-file"}, description = "properties file giving the JVM tuning profile of artifacts, keyed by groupId:artifactId or full coordinates")
+		String profilesFile = JvmTuning.DEFAULT_PROFILES_FILE;
+
+		@Parameter(names = {"--stdout-file"}, description = "append the process stdout to this file, written in the background and rotated by size")
+		String stdoutFile;
+
+		@Parameter(names = {"--stderr-file"}, description = "append the process stderr to this file, which may be the --stdout-file")
+		String stderrFile;
+
+		@Parameter(names = {"--log-max-size"}, description = "size in MB from which output files are rotated, 0 to never rotate them")
+		long logMaxSize = 100;
+
+		@Parameter(names = {"--log-keep"}, description = "number of rotated output files kept")
+		int logKeep = 5;
+
+		@Parameter(names = {"--log-compress"}, description = "compress rotated output files with gzip")
+		boolean logCompress;
+
 		@Parameter(names = {"--help", "-h"}, help = true)
 		private boolean help;
 
+		/**
+		 * Number of JVMs launched at the same time as this one, set by batches
+		 */
+		int concurrentJvms = 1;
+
 	};
 
 	public static class IndexOptions {
@@ -70,6 +160,56 @@ public class MavenRunApp
 		@Parameter(names = {"--keep", "-k"}, description = "Number of incremental chunks to keep.")
 		Integer chunksKeeped;
 
+		@Parameter(names = {"--threads", "-j"}, description = "Number of threads scanning and indexing the repository.")
+		int threads = 1;
+
+		@Parameter(names = {"--full"}, description = "Index every artifact again, even those of directories unchanged since the last run.")
+		boolean full = false;
+
+		@Parameter(names = {"--watch", "-w"}, description = "Keep running once the repository is indexed, indexing artifacts as they are deployed.")
+		boolean watch = false;
+
+		@Parameter(names = {"--debounce"}, description = "Milliseconds without change in the repository before deployed artifacts are indexed, with --watch.")
+		long debounce = 2000;
+
+		@Parameter(names = {"--max-latency"}, description = "Maximum milliseconds deployed artifacts wait for the repository to be quiet before they are indexed, with --watch.")
+		long maxLatency = 30000;
+
+		@Parameter(names = {"--rescan-interval"}, description = "Seconds between two looks at the directories which could not be watched, with --watch.")
+		long rescanInterval = 60;
+
+		@Parameter(names = {"--publish-interval"}, description = "Minimum seconds between two packings of the index, with --watch.")
+		long publishInterval = 300;
+
+		@Parameter(names = {"--ram-buffer"}, description = "Megabytes of documents the index writer buffers before flushing them.")
+		double ramBuffer = 2;
+
+		@Parameter(names = {"--max-queued-dirs"}, description = "Directories waiting for a scanning thread, beyond which the thread finding them walks them.")
+		int maxQueuedDirectories = 10000;
+
+		@Parameter(names = {"--max-jar-entries"}, description = "Entries from which the content of a jar is not indexed, no limit by default.")
+		int maxJarEntries = Integer.MAX_VALUE;
+
+		@Parameter(names = {"--max-snapshot-dirs"}, description = "Directories of the incremental snapshots kept in memory, the others being spilled to disk.")
+		int maxSnapshotDirectories = 200000;
+
+	};
+
+	public static class DaemonOptions {
+
+		@Parameter(names = {"--port", "-p"}, description = "Loopback port to listen on, a free one by default.")
+		int port = 0;
+
+	};
+
+	public static class BatchOptions {
+
+		@Parameter(names = {"--manifest", "-f"}, description = "File listing the jobs, one line of app options per job.", required = true)
+		String manifest;
+
+		@Parameter(names = {"--jobs", "-j"}, description = "Maximum number of jobs running at the same time.")
+		int jobs = Runtime.getRuntime().availableProcessors();
+
 	};
 
 	@Parameter(names = {"--verbose", "-V"}, description = "verbose")
@@ -81,9 +221,11 @@ public class MavenRunApp
 	public static void main(String[] args) {
 		AppOptions appOptions = new AppOptions();
 		IndexOptions indexOptions = new IndexOptions();
+		DaemonOptions daemonOptions = new DaemonOptions();
+		BatchOptions batchOptions = new BatchOptions();
 		MavenRunApp cli = new MavenRunApp();
 		JCommander jc = JCommander.newBuilder().addObject(cli).addCommand("app",appOptions).addCommand("index",indexOptions)
-				.build();
+				.addCommand("daemon",daemonOptions).addCommand("batch",batchOptions).build();
 		jc.parse(args);
 		if (cli.help) {
 			jc.usage();
@@ -94,12 +236,39 @@ public class MavenRunApp
 			cli.run(appOptions);
 		}else if("index".equals(jc.getParsedCommand())){
 			cli.run(indexOptions);
+		}else if("daemon".equals(jc.getParsedCommand())){
+			cli.run(daemonOptions);
+		}else if("batch".equals(jc.getParsedCommand())){
+			cli.run(batchOptions);
 		}
 
 	}
 
 	void run(AppOptions appOptions){
-		MavenRun.run(appOptions.artifact, appOptions.arguments.toArray(new String[0]), appOptions.mainClass, !verbose);
+		int exitCode = MavenRun.run(appOptions, !verbose);
+		if (exitCode != 0)
+			System.exit(exitCode);
+	}
+
+	void run(DaemonOptions daemonOptions){
+		try {
+			new MavenRunDaemon(daemonOptions.port, !verbose).serve();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	void run(BatchOptions batchOptions){
+		int exitCode;
+		try {
+			exitCode = new BatchRunner(batchOptions.jobs, !verbose)
+					.run(BatchRunner.readManifest(new File(batchOptions.manifest)));
+		} catch (Exception e) {
+			e.printStackTrace();
+			exitCode = -1;
+		}
+		if (exitCode != 0)
+			System.exit(exitCode);
 	}
 
 	void run(IndexOptions indexOptions){
@@ -0,0 +1,522 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.shrinkwrap.resolver.api.maven.ConfigurableMavenResolverSystem;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
+
+import static fr.lteconsulting.mvnrun.MavenRunApp.AppOptions;
+
+/**
+ * Long running mvnrun, serving launch requests sent by {@link DaemonClient} on a loopback socket.
+ *
+ * The resolver, with its parsed settings and repository system, is created once and kept warm for every request. Each
+ * request is run as a child process in the client's working directory and environment, its streams being relayed
+ * through the connection.
+ */
+public class MavenRunDaemon
+{
+	private final ServerSocket serverSocket;
+
+	private final String token;
+
+	private final File daemonFile;
+
+	private final boolean quiet;
+
+	private final ConfigurableMavenResolverSystem resolver;
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor();
+
+	private final Map<String, JvmPool> pools = new HashMap<>();
+
+	private final long started = System.currentTimeMillis();
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private final AtomicLong cacheHits = new AtomicLong();
+
+	private final AtomicLong poolHits = new AtomicLong();
+
+	private final AtomicLong launchNanos = new AtomicLong();
+
+	private volatile boolean running = true;
+
+	public MavenRunDaemon(int port, boolean quiet) throws IOException
+	{
+		this(port, quiet, DaemonProtocol.DAEMON_FILE);
+	}
+
+	/**
+	 * @param daemonFile where the port and token are published
+	 */
+	MavenRunDaemon(int port, boolean quiet, File daemonFile) throws IOException
+	{
+		this.quiet = quiet;
+		this.daemonFile = daemonFile;
+		this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		this.token = new BigInteger(130, new SecureRandom()).toString(32);
+		this.resolver = MavenRun.resolver();
+	}
+
+	/**
+	 * Publishes the daemon and serves requests until a stop request is received.
+	 */
+	public void serve() throws IOException
+	{
+		publish();
+		log("mvnrun daemon listening on port " + serverSocket.getLocalPort());
+
+		evictor.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				evictIdleJvms();
+			}
+		}, 1, 1, TimeUnit.SECONDS);
+
+		try
+		{
+			while (running)
+			{
+				final Socket socket;
+				try
+				{
+					socket = serverSocket.accept();
+				}
+				catch (IOException e)
+				{
+					if (running)
+						throw e;
+					break;
+				}
+
+				executor.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						handle(socket);
+					}
+				});
+			}
+		}
+		finally
+		{
+			daemonFile.delete();
+			evictor.shutdownNow();
+			synchronized (pools)
+			{
+				for (JvmPool pool : pools.values())
+					pool.shutdown();
+				pools.clear();
+			}
+			executor.shutdown();
+		}
+	}
+
+	public String stats()
+	{
+		long served = requests.get();
+		int poolCount;
+		synchronized (pools)
+		{
+			poolCount = pools.size();
+		}
+		return String.format("Uptime:            %d sec\n" + "Requests served:   %d\n" + "Cache hits:        %d\n"
+				+ "Warm JVM hits:     %d\n" + "JVM pools:         %d\n" + "Average latency:   %d ms\n",
+				TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - started), served, cacheHits.get(),
+				poolHits.get(), poolCount,
+				served == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(launchNanos.get() / served));
+	}
+
+	private void publish() throws IOException
+	{
+		File file = daemonFile;
+		if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs())
+			throw new IOException("Cannot create " + file.getParentFile());
+
+		Properties properties = new Properties();
+		properties.setProperty("port", String.valueOf(serverSocket.getLocalPort()));
+		properties.setProperty("token", token);
+
+		File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+		try
+		{
+			// the token is what keeps other users of the host away from the daemon
+			Files.setPosixFilePermissions(tmp.toPath(), PosixFilePermissions.fromString("rw-------"));
+		}
+		catch (UnsupportedOperationException e)
+		{
+			// not a posix file system
+		}
+		try (OutputStream out = new FileOutputStream(tmp))
+		{
+			properties.store(out, "mvnrun daemon");
+		}
+		if (!tmp.renameTo(file))
+			throw new IOException("Cannot write " + file);
+	}
+
+	private void handle(Socket socket)
+	{
+		try (Socket s = socket)
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+
+			// bounded and checked before anything else is read
+			String received = DaemonProtocol.readString(in, DaemonProtocol.MAX_TOKEN_LENGTH);
+			if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), received.getBytes(StandardCharsets.UTF_8)))
+			{
+				log("Connection with an invalid token refused");
+				return;
+			}
+
+			DaemonProtocol.FrameOutputStream stdout = new DaemonProtocol.FrameOutputStream(out, DaemonProtocol.CHANNEL_STDOUT);
+			DaemonProtocol.FrameOutputStream stderr = new DaemonProtocol.FrameOutputStream(out, DaemonProtocol.CHANNEL_STDERR);
+
+			int exitCode;
+			String request = DaemonProtocol.readString(in, DaemonProtocol.MAX_TOKEN_LENGTH);
+			if (DaemonProtocol.REQUEST_STATS.equals(request))
+			{
+				stdout.write(stats().getBytes("UTF-8"));
+				exitCode = 0;
+			}
+			else if (DaemonProtocol.REQUEST_STOP.equals(request))
+			{
+				running = false;
+				serverSocket.close();
+				exitCode = 0;
+			}
+			else if (DaemonProtocol.REQUEST_RUN.equals(request))
+			{
+				exitCode = launch(in, stdout, stderr);
+			}
+			else
+			{
+				stderr.write(("Unknown request " + request + "\n").getBytes("UTF-8"));
+				exitCode = 2;
+			}
+
+			synchronized (out)
+			{
+				out.writeByte(DaemonProtocol.CHANNEL_EXIT);
+				out.writeInt(4);
+				out.writeInt(exitCode);
+				out.flush();
+			}
+		}
+		catch (IOException e)
+		{
+			// client went away
+			log("Connection lost : " + e.getMessage());
+		}
+	}
+
+	private int launch(DataInputStream in, OutputStream stdout, OutputStream stderr) throws IOException
+	{
+		long start = System.nanoTime();
+		requests.incrementAndGet();
+
+		// frames follow, read from the connection itself
+		DataInputStream request = DaemonProtocol.requestInput(in);
+		File workingDirectory = new File(DaemonProtocol.readString(request));
+
+		String[] args = new String[DaemonProtocol.readCount(request)];
+		for (int i = 0; i < args.length; i++)
+			args[i] = DaemonProtocol.readString(request);
+
+		Map<String, String> environment = new HashMap<>();
+		for (int i = DaemonProtocol.readCount(request); i > 0; i--)
+			environment.put(DaemonProtocol.readString(request), DaemonProtocol.readString(request));
+
+		MavenRunApp cli = new MavenRunApp();
+		AppOptions options = new AppOptions();
+		try
+		{
+			JCommander jc = JCommander.newBuilder().addObject(cli).addCommand("app", options).build();
+			jc.parse(args);
+			if (!"app".equals(jc.getParsedCommand()))
+				throw new ParameterException("Only the app command is served by the daemon");
+		}
+		catch (ParameterException e)
+		{
+			stderr.write((e.getMessage() + "\n").getBytes("UTF-8"));
+			return 2;
+		}
+
+		// relative paths are the client's ones
+		if (options.lock != null)
+			options.lock = clientPath(workingDirectory, options.lock);
+		options.freezeFile = clientPath(workingDirectory, options.freezeFile);
+		if (options.versionIndex != null)
+			options.versionIndex = clientPath(workingDirectory, options.versionIndex);
+		options.profilesFile = clientPath(workingDirectory, options.profilesFile);
+		options.cacheDir = clientPath(workingDirectory, options.cacheDir);
+		if (options.stdoutFile != null)
+			options.stdoutFile = clientPath(workingDirectory, options.stdoutFile);
+		if (options.stderrFile != null)
+			options.stderrFile = clientPath(workingDirectory, options.stderrFile);
+
+		LaunchMetrics metrics = new LaunchMetrics();
+		metrics.put("artifact", options.artifact);
+
+		int exitCode = launch(options, workingDirectory, environment, in, stdout, stderr, metrics, start);
+
+		if (options.metrics != null)
+		{
+			// a lockfile may have given the artifact
+			metrics.put("artifact", options.artifact);
+			metrics.put("exitCode", exitCode);
+			String target = options.metrics;
+			if (!LaunchMetrics.STDERR.equals(target))
+				target = clientPath(workingDirectory, target);
+			MavenRun.writeMetrics(target, metrics, stderr, quiet);
+		}
+		return exitCode;
+	}
+
+	private static String clientPath(File workingDirectory, String path)
+	{
+		return new File(path).isAbsolute() ? path : new File(workingDirectory, path).getPath();
+	}
+
+	private int launch(AppOptions options, File workingDirectory, Map<String, String> environment, DataInputStream in,
+			OutputStream stdout, OutputStream stderr, LaunchMetrics metrics, long start) throws IOException
+	{
+		ResolvedClasspath resolved = null;
+		if (!options.noCache && !options.clearCache && !options.freeze && options.lock == null
+				&& options.artifact != null)
+		{
+			// selected from the version index and verified like any other launch
+			try
+			{
+				resolved = MavenRun.cachedClasspath(options, metrics, quiet);
+			}
+			catch (IOException e)
+			{
+				stderr.write((e.getMessage() + "\n").getBytes("UTF-8"));
+				return -1;
+			}
+		}
+		if (resolved != null)
+			cacheHits.incrementAndGet();
+		else
+		{
+			// the resolver is not thread safe, concurrent cache misses are resolved one at a time
+			try
+			{
+				synchronized (resolver)
+				{
+					resolved = MavenRun.resolveClasspath(options, resolver, metrics, quiet);
+				}
+			}
+			catch (RuntimeException e)
+			{
+				log("Resolution of " + options.artifact + " failed : " + e.getMessage());
+			}
+			if (resolved == null)
+			{
+				stderr.write(("Unable to resolve " + options.artifact + "\n").getBytes("UTF-8"));
+				return -1;
+			}
+		}
+
+		// pooled JVMs map the index built here
+		String problem = MavenRun.checkMainClass(MavenRun.classIndex(resolved, options, metrics, quiet), resolved,
+				options);
+		if (problem != null)
+		{
+			stderr.write((problem + "\n").getBytes("UTF-8"));
+			return -1;
+		}
+
+		OutputFiles files;
+		try
+		{
+			files = OutputFiles.open(options, stdout, stderr);
+		}
+		catch (IOException e)
+		{
+			stderr.write(("Unable to open output files : " + e.getMessage() + "\n").getBytes("UTF-8"));
+			return -1;
+		}
+		try
+		{
+			return execute(options, resolved, workingDirectory, environment, in, files.getStdout(), files.getStderr(),
+					metrics, start);
+		}
+		finally
+		{
+			files.close(metrics);
+		}
+	}
+
+	/**
+	 * Runs the request in a warm JVM or in a new process, with its outputs going to the given streams.
+	 */
+	private int execute(AppOptions options, ResolvedClasspath resolved, File workingDirectory,
+			Map<String, String> environment, DataInputStream in, OutputStream stdout, OutputStream stderr,
+			LaunchMetrics metrics, long start) throws IOException
+	{
+		if (options.pool > 0)
+			return launchPooled(options, resolved, workingDirectory, environment, in, stdout, stderr, metrics, start);
+
+		// children always run in their own process, the daemon's standard streams are not the client's
+		CdsArchive cds = options.cds ? MavenRun.cdsArchive(resolved, options, quiet) : null;
+
+		ProcessBuilder builder;
+		try
+		{
+			long commandBuild = System.nanoTime();
+			List<String> command = MavenRun.buildCommand(resolved, options,
+					cds != null ? cds.jvmOptions() : Collections.<String> emptyList());
+			builder = new ProcessBuilder(command).directory(workingDirectory);
+			metrics.time("commandBuild", commandBuild);
+		}
+		catch (IOException e)
+		{
+			stderr.write(("Unable to build the command line : " + e.getMessage() + "\n").getBytes("UTF-8"));
+			return -1;
+		}
+		builder.environment().clear();
+		builder.environment().putAll(environment);
+
+		launchNanos.addAndGet(System.nanoTime() - start);
+
+		try
+		{
+			int exitCode = ProcessLauncher.capture(builder, new DaemonProtocol.FrameInputStream(in), stdout, stderr,
+					metrics);
+			if (cds != null)
+				cds.publish();
+			return exitCode;
+		}
+		catch (IOException e)
+		{
+			stderr.write(("Unable to launch process : " + e.getMessage() + "\n").getBytes("UTF-8"));
+			return -1;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return -1;
+		}
+	}
+
+	/**
+	 * Runs the request in a warm JVM of the pool of its classpath, creating the pool on first use.
+	 */
+	private int launchPooled(AppOptions options, ResolvedClasspath resolved, File workingDirectory,
+			Map<String, String> environment, DataInputStream in, OutputStream stdout, OutputStream stderr,
+			LaunchMetrics metrics, long start) throws IOException
+	{
+		JvmPool.Jvm jvm;
+		JvmPool pool;
+		try
+		{
+			// requests with another environment get a pool of their own
+			String key = JvmPool.key(resolved, options, workingDirectory, environment);
+			synchronized (pools)
+			{
+				pool = pools.get(key);
+				if (pool == null)
+				{
+					pool = new JvmPool(resolved, options, workingDirectory, environment, executor);
+					pools.put(key, pool);
+				}
+				// reserved while the pool cannot be evicted
+				pool.reserve();
+			}
+
+			// which may start a JVM, other launches and evictions do not wait for it
+			jvm = pool.take(metrics);
+		}
+		catch (IOException e)
+		{
+			stderr.write(("Unable to start a pooled JVM : " + e.getMessage() + "\n").getBytes("UTF-8"));
+			return -1;
+		}
+
+		if (Boolean.TRUE.equals(metrics.get("poolHit")))
+			poolHits.incrementAndGet();
+		launchNanos.addAndGet(System.nanoTime() - start);
+
+		boolean reusable = false;
+		try
+		{
+			int exitCode = jvm.run(options.arguments, new DaemonProtocol.FrameInputStream(in), stdout, stderr, metrics);
+			reusable = true;
+			return exitCode;
+		}
+		catch (EOFException e)
+		{
+			// the JVM ended during the request, like when the application calls System.exit
+			try
+			{
+				return jvm.waitFor();
+			}
+			catch (InterruptedException ie)
+			{
+				Thread.currentThread().interrupt();
+				return -1;
+			}
+		}
+		finally
+		{
+			pool.release(jvm, reusable);
+		}
+	}
+
+	private void evictIdleJvms()
+	{
+		synchronized (pools)
+		{
+			for (Iterator<JvmPool> it = pools.values().iterator(); it.hasNext();)
+			{
+				if (it.next().evictIdle())
+					it.remove();
+			}
+		}
+	}
+
+	private void log(String message)
+	{
+		if (!quiet)
+			System.err.println(message);
+	}
+}
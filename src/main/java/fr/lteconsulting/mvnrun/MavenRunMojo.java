@@ -1,12 +1,26 @@
 package fr.lteconsulting.mvnrun;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.settings.Settings;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.RemoteRepository;
+
+import static fr.lteconsulting.mvnrun.MavenRunApp.AppOptions;
 
+/**
+ * Runs an artifact from within Maven. Resolution goes through the repository system and session of the running build,
+ * so that no resolver has to be bootstrapped and the build's mirrors, proxies and offline mode apply.
+ */
 @Mojo(name = "run",
 		requiresDirectInvocation = true,
 		requiresProject = false)
@@ -24,6 +38,15 @@ public class MavenRunMojo extends AbstractMojo
 	@Parameter(property = "mvnrun.settings", defaultValue = "${settings}")
 	private Settings settings;
 
+	@Component
+	private RepositorySystem repositorySystem;
+
+	@Parameter(defaultValue = "${repositorySystemSession}", readonly = true)
+	private RepositorySystemSession repositorySystemSession;
+
+	@Parameter(defaultValue = "${project.remoteProjectRepositories}", readonly = true)
+	private List<RemoteRepository> remoteRepositories;
+
 	@Override
 	public void execute() throws MojoExecutionException, MojoFailureException
 	{
@@ -40,8 +63,13 @@ public class MavenRunMojo extends AbstractMojo
 				return;
 			}
 
-			String[] arguments = parameters != null ? parameters.split(" ") : new String[] {};
-			MavenRun.run(artifact, arguments, className, false);
+			AppOptions options = new AppOptions();
+			options.artifact = artifact;
+			options.mainClass = className;
+			options.arguments = parameters != null ? new ArrayList<>(Arrays.asList(parameters.split(" ")))
+					: new ArrayList<String>();
+			MavenRun.run(options, new SessionResolver(repositorySystem, repositorySystemSession, remoteRepositories),
+					false);
 		}
 		catch (Exception e)
 		{
@@ -0,0 +1,176 @@
+package fr.lteconsulting.mvnrun;
+
+import org.apache.lucene.index.IndexWriter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The memory an indexing run may use, and what it used.
+ * <p/>
+ * Most of what grows with the size of the repository is bounded : documents buffered by the Lucene writer before
+ * they are flushed to a segment, directories queued for the scanning threads, class names read from a jar, and
+ * directory snapshots, which are spilled to disk past their budget. Artifacts being indexed are already bounded by the
+ * number of scanning threads.
+ * <p/>
+ * Two structures are not : the uinfo of every artifact found, which the {@code DefaultScannerListener} of indexer-core
+ * keeps to remove the artifacts which are gone, and the snapshot of a watched repository, which is loaded whole as the
+ * watch updates it.
+ */
+public class MemoryBudget {
+    private static final long MB = 1024 * 1024;
+
+    private double ramBufferMB = 2;
+
+    private int maxQueuedDirectories = 10000;
+
+    private int maxJarEntries = Integer.MAX_VALUE;
+
+    private int maxSnapshotDirectories = Integer.MAX_VALUE;
+
+    private final AtomicInteger queuedDirectories = new AtomicInteger();
+
+    private final AtomicInteger peakQueuedDirectories = new AtomicInteger();
+
+    private final AtomicLong peakRamBuffer = new AtomicLong();
+
+    private final AtomicInteger skippedJars = new AtomicInteger();
+
+    private int spilledDirectories;
+
+    public double getRamBufferMB() {
+        return ramBufferMB;
+    }
+
+    /**
+     * @param ramBufferMB the size of the documents the Lucene writer buffers before flushing them
+     */
+    public void setRamBufferMB(double ramBufferMB) {
+        this.ramBufferMB = ramBufferMB;
+    }
+
+    public int getMaxQueuedDirectories() {
+        return maxQueuedDirectories;
+    }
+
+    /**
+     * @param maxQueuedDirectories how many directories may wait for a scanning thread, others are walked by the
+     * thread finding them
+     */
+    public void setMaxQueuedDirectories(int maxQueuedDirectories) {
+        this.maxQueuedDirectories = maxQueuedDirectories;
+    }
+
+    public int getMaxJarEntries() {
+        return maxJarEntries;
+    }
+
+    /**
+     * @param maxJarEntries the number of entries from which the content of a jar is not indexed
+     */
+    public void setMaxJarEntries(int maxJarEntries) {
+        this.maxJarEntries = maxJarEntries;
+    }
+
+    public int getMaxSnapshotDirectories() {
+        return maxSnapshotDirectories;
+    }
+
+    /**
+     * @param maxSnapshotDirectories how many directories a snapshot keeps in memory before spilling them to disk
+     */
+    public void setMaxSnapshotDirectories(int maxSnapshotDirectories) {
+        this.maxSnapshotDirectories = maxSnapshotDirectories;
+    }
+
+    /**
+     * Applies the budget of the Lucene writer.
+     */
+    void configure(IndexWriter writer) {
+        writer.getConfig().setRAMBufferSizeMB(ramBufferMB);
+    }
+
+    /**
+     * @return false if the directory may not be queued, the caller walks it then
+     */
+    boolean queueDirectory() {
+        int queued = queuedDirectories.incrementAndGet();
+        if (queued > maxQueuedDirectories) {
+            queuedDirectories.decrementAndGet();
+            return false;
+        }
+        updatePeak(peakQueuedDirectories, queued);
+        return true;
+    }
+
+    void directoryDequeued() {
+        queuedDirectories.decrementAndGet();
+    }
+
+    void sampleRamBuffer(IndexWriter writer) {
+        updatePeak(peakRamBuffer, writer.ramBytesUsed());
+    }
+
+    void jarSkipped() {
+        skippedJars.incrementAndGet();
+    }
+
+    /**
+     * @param spilledDirectories the directories a snapshot of the run spilled to disk
+     */
+    void snapshotSpilled(int spilledDirectories) {
+        this.spilledDirectories += spilledDirectories;
+    }
+
+    public int getSkippedJars() {
+        return skippedJars.get();
+    }
+
+    public int getPeakQueuedDirectories() {
+        return peakQueuedDirectories.get();
+    }
+
+    public int getSpilledDirectories() {
+        return spilledDirectories;
+    }
+
+    /**
+     * Prints the budget and its use, along with the peak use of the heap.
+     */
+    public void printUsage() {
+        System.err.printf("Lucene buffer:       peak %dK of %sM\n", peakRamBuffer.get() / 1024, ramBufferMB);
+        System.err.printf("Queued directories:  peak %d of %d\n", peakQueuedDirectories.get(), maxQueuedDirectories);
+        if (maxJarEntries != Integer.MAX_VALUE) {
+            System.err.printf("Jars over %d entries, content not indexed: %d\n", maxJarEntries, skippedJars.get());
+        }
+        if (maxSnapshotDirectories != Integer.MAX_VALUE) {
+            System.err.printf("Snapshot directories spilled to disk: %d (over %d)\n", spilledDirectories,
+                    maxSnapshotDirectories);
+        }
+
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.err.printf("Peak heap:    %dM/%dM\n", peakHeap / MB, Runtime.getRuntime().maxMemory() / MB);
+    }
+
+    private static void updatePeak(AtomicInteger peak, int value) {
+        int current;
+        while (value > (current = peak.get()) && !peak.compareAndSet(current, value)) {
+            // another thread raised it meanwhile
+        }
+    }
+
+    private static void updatePeak(AtomicLong peak, long value) {
+        long current;
+        while (value > (current = peak.get()) && !peak.compareAndSet(current, value)) {
+            // another thread raised it meanwhile
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static fr.lteconsulting.mvnrun.MavenRunApp.AppOptions;
+
+/**
+ * The outputs of a launched process, each one going to the {@link RotatingLog} given by the options or to its usual
+ * stream. Both outputs share one log when they are sent to the same file.
+ */
+public class OutputFiles
+{
+	private final OutputStream stdout;
+
+	private final OutputStream stderr;
+
+	private final OutputStream console;
+
+	private final List<RotatingLog> logs;
+
+	private OutputFiles(OutputStream stdout, OutputStream stderr, OutputStream console, List<RotatingLog> logs)
+	{
+		this.stdout = stdout;
+		this.stderr = stderr;
+		this.console = console;
+		this.logs = logs;
+	}
+
+	/**
+	 * @return true when the options send an output to a file
+	 */
+	public static boolean requested(AppOptions options)
+	{
+		return options.stdoutFile != null || options.stderrFile != null;
+	}
+
+	/**
+	 * Opens the log files given by the options.
+	 *
+	 * @param stdout where the process stdout goes when it is not sent to a file
+	 * @param stderr where the process stderr goes when it is not sent to a file, and where log failures are reported
+	 */
+	public static OutputFiles open(AppOptions options, OutputStream stdout, OutputStream stderr) throws IOException
+	{
+		List<RotatingLog> logs = new ArrayList<>();
+		try
+		{
+			RotatingLog out = options.stdoutFile != null ? open(new File(options.stdoutFile), options) : null;
+			if (out != null)
+				logs.add(out);
+
+			RotatingLog err = null;
+			if (options.stderrFile != null)
+			{
+				if (out != null && new File(options.stderrFile).getAbsoluteFile()
+						.equals(new File(options.stdoutFile).getAbsoluteFile()))
+				{
+					err = out;
+				}
+				else
+				{
+					err = open(new File(options.stderrFile), options);
+					logs.add(err);
+				}
+			}
+
+			return new OutputFiles(out != null ? out : stdout, err != null ? err : stderr, stderr, logs);
+		}
+		catch (IOException e)
+		{
+			for (RotatingLog log : logs)
+				log.close();
+			throw e;
+		}
+	}
+
+	private static RotatingLog open(File file, AppOptions options) throws IOException
+	{
+		return new RotatingLog(file, options.logMaxSize * 1024 * 1024, options.logKeep, options.logCompress);
+	}
+
+	public OutputStream getStdout()
+	{
+		return stdout;
+	}
+
+	public OutputStream getStderr()
+	{
+		return stderr;
+	}
+
+	/**
+	 * Writes what the logs still buffer and closes them, reporting failures instead of throwing them as the process has
+	 * already run. Bytes lost because the disk could not keep up are recorded in the metrics.
+	 */
+	public void close(LaunchMetrics metrics)
+	{
+		long dropped = 0;
+		for (RotatingLog log : logs)
+		{
+			try
+			{
+				log.close();
+			}
+			catch (IOException e)
+			{
+				try
+				{
+					console.write(("Unable to write log : " + e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+					console.flush();
+				}
+				catch (IOException ignored)
+				{
+					// nowhere left to report it
+				}
+			}
+			dropped += log.getDropped();
+		}
+		if (dropped > 0)
+			metrics.put("droppedLogBytes", dropped);
+	}
+}
@@ -0,0 +1,199 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip stream compressing blocks of its data on several threads.
+ * <p/>
+ * Data is cut in blocks which are deflated at the same time, each primed with the end of the previous block so that
+ * the compression ratio stays close to the one of a single stream, and flushed to a byte boundary so that the
+ * compressed blocks can be put end to end. The result is a single deflate stream in a standard gzip member, which any
+ * gzip reader understands.
+ * <p/>
+ * The writing thread only copies data and computes the checksum, compressed blocks are written in order as they are
+ * ready, and a bounded number of blocks are in flight so that memory use does not depend on the size of the data.
+ */
+public class ParallelGzipOutputStream extends FilterOutputStream {
+    /**
+     * How far back deflate looks for matches
+     */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    private final ExecutorService executor;
+
+    private final int maxInFlight;
+
+    private final Deque<Future<byte[]>> inFlight = new ArrayDeque<Future<byte[]>>();
+
+    private final CRC32 crc = new CRC32();
+
+    private byte[] block;
+
+    private int count;
+
+    private byte[] dictionary;
+
+    private long size;
+
+    private boolean closed;
+
+    public ParallelGzipOutputStream(OutputStream out, int threads) throws IOException {
+        this(out, threads, DEFAULT_BLOCK_SIZE);
+    }
+
+    public ParallelGzipOutputStream(OutputStream out, int threads, int blockSize) throws IOException {
+        super(out);
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.maxInFlight = 2 * threads;
+        this.block = new byte[blockSize];
+
+        // the header written by java.util.zip.GZIPOutputStream
+        out.write(new byte[] {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0});
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        crc.update(b, off, len);
+        size += len;
+
+        while (len > 0) {
+            int n = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+
+            if (count == block.length) {
+                submit(false);
+            }
+        }
+    }
+
+    /**
+     * Does not flush the deflate stream, the blocks in flight are written.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!inFlight.isEmpty()) {
+            writeOldest();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            submit(true);
+            while (!inFlight.isEmpty()) {
+                writeOldest();
+            }
+
+            byte[] trailer = new byte[8];
+            writeInt(trailer, 0, crc.getValue());
+            writeInt(trailer, 4, size);
+            out.write(trailer);
+            out.flush();
+        } finally {
+            executor.shutdownNow();
+            out.close();
+        }
+    }
+
+    private void submit(final boolean last) throws IOException {
+        final byte[] data = block;
+        final int length = count;
+        final byte[] primer = dictionary;
+
+        // the end of this block is the dictionary of the next one
+        int kept = Math.min(DICTIONARY_SIZE, length);
+        if (kept > 0) {
+            dictionary = Arrays.copyOfRange(data, length - kept, length);
+        }
+        block = new byte[data.length];
+        count = 0;
+
+        inFlight.add(executor.submit(new Callable<byte[]>() {
+            public byte[] call() {
+                return deflate(data, length, primer, last);
+            }
+        }));
+        while (inFlight.size() > maxInFlight) {
+            writeOldest();
+        }
+    }
+
+    private void writeOldest() throws IOException {
+        try {
+            out.write(inFlight.removeFirst().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Cannot compress", e.getCause());
+        }
+    }
+
+    private static byte[] deflate(byte[] data, int length, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(data, 0, length);
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[16 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                // ends on a byte boundary, the output is complete when it does not fill the buffer
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Little endian, as gzip wants it
+     */
+    private static void writeInt(byte[] b, int off, long value) {
+        for (int i = 0; i < 4; i++) {
+            b[off + i] = (byte) (value >> (8 * i));
+        }
+    }
+}
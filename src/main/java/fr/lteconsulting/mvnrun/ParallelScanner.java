@@ -0,0 +1,404 @@
+package fr.lteconsulting.mvnrun;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.Term;
+import org.apache.maven.index.ArtifactContext;
+import org.apache.maven.index.ArtifactContextProducer;
+import org.apache.maven.index.ArtifactInfo;
+import org.apache.maven.index.ArtifactScanningListener;
+import org.apache.maven.index.IndexerEngine;
+import org.apache.maven.index.Scanner;
+import org.apache.maven.index.ScanningRequest;
+import org.apache.maven.index.ScanningResult;
+import org.apache.maven.index.artifact.Gav;
+import org.apache.maven.index.context.IndexingContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link Scanner} walking the repository on several threads.
+ * <p/>
+ * Directories are walked by the tasks of a work-stealing pool, each directory being a task, so that idle threads take
+ * over sub-trees of busy ones. Files of a directory are handled in the order of the default scanner, poms first.
+ * <p/>
+ * The listener of the scan keeps track of what was found and is not thread safe, so it is called by one thread at a
+ * time. The indexing itself, running the index creators on the artifact and adding its document to the shared Lucene
+ * writer, is what takes time : the {@link #getIndexerEngine() engine} given to the listener only records what to do,
+ * and the scanning thread does it once it has left the listener.
+ * <p/>
+ * When given the {@link DirectorySnapshot} of the previous scan, the artifacts recorded for a directory which has not
+ * changed since are reported to the listener without looking at its files, so that they are not taken for deleted
+ * ones. Artifacts of the other directories are updated in the index even when it already holds them, as their files
+ * may have been deployed again : their document replaces the stored one through the writer, without looking the stored
+ * one up, which would refresh the searcher of the index for each artifact.
+ */
+public class ParallelScanner implements Scanner {
+    private final ArtifactContextProducer artifactContextProducer;
+
+    private final IndexerEngine indexerEngine;
+
+    private final int threads;
+
+    private final Object listenerLock = new Object();
+
+    private DirectorySnapshot previous;
+
+    private DirectorySnapshot next;
+
+    private final AtomicInteger unchanged = new AtomicInteger();
+
+    private MemoryBudget budget;
+
+    /**
+     * Indexing deferred by the engine during the call to the listener of the current thread
+     */
+    private final ThreadLocal<Deferred> deferred = new ThreadLocal<Deferred>();
+
+    /**
+     * Set while the current thread calls the listener for a discovered artifact
+     */
+    private final ThreadLocal<Boolean> discovering = new ThreadLocal<Boolean>();
+
+    private final IndexerEngine deferringEngine = new IndexerEngine() {
+        public void index(IndexingContext context, ArtifactContext ac) throws IOException {
+            if (!defer(context, false)) {
+                indexerEngine.index(context, ac);
+            }
+        }
+
+        public void update(IndexingContext context, ArtifactContext ac) throws IOException {
+            if (!defer(context, true)) {
+                indexerEngine.update(context, ac);
+            }
+        }
+
+        public void remove(IndexingContext context, ArtifactContext ac) throws IOException {
+            indexerEngine.remove(context, ac);
+        }
+    };
+
+    public ParallelScanner(ArtifactContextProducer artifactContextProducer, IndexerEngine indexerEngine, int threads) {
+        this.artifactContextProducer = artifactContextProducer;
+        this.indexerEngine = indexerEngine;
+        this.threads = threads;
+    }
+
+    /**
+     * @return the engine to give to the listener of the scan, indexing on the scanning threads
+     */
+    public IndexerEngine getIndexerEngine() {
+        return deferringEngine;
+    }
+
+    /**
+     * Makes the scan incremental.
+     *
+     * @param previous the snapshot of the last scan, may be null to index everything
+     * @param next where the state of the directories found is recorded, only once their artifacts are indexed
+     */
+    public void setSnapshots(DirectorySnapshot previous, DirectorySnapshot next) {
+        this.previous = previous;
+        this.next = next;
+    }
+
+    /**
+     * Bounds the Lucene buffer of the index being written and the directories waiting for a thread.
+     */
+    public void setMemoryBudget(MemoryBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return the number of artifacts left as they were in the index, their directory being unchanged
+     */
+    public int getUnchanged() {
+        return unchanged.get();
+    }
+
+    public ScanningResult scan(ScanningRequest request) {
+        ArtifactScanningListener listener = request.getArtifactScanningListener();
+        IndexingContext context = request.getIndexingContext();
+
+        listener.scanningStarted(context);
+
+        ScanningResult result = new ScanningResult(request);
+
+        if (budget != null) {
+            try {
+                budget.configure(context.getIndexWriter());
+            } catch (IOException e) {
+                result.addException(e);
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new DirectoryTask(request.getStartingDirectory(), request, false));
+        } finally {
+            pool.shutdown();
+        }
+
+        listener.scanningFinished(context, result);
+
+        return result;
+    }
+
+    /**
+     * Reports the artifacts of an unchanged directory as they were recorded.
+     *
+     * @return false if the index lacks one of them, the files of the directory have to be processed then
+     */
+    private boolean replay(List<String> uinfos, ScanningRequest request) {
+        boolean indexed = true;
+        for (String uinfo : uinfos) {
+            indexed &= discover(toArtifactContext(uinfo), request.getArtifactScanningListener()) == null;
+        }
+        return indexed;
+    }
+
+    /**
+     * @param uinfos where the uinfos of the artifacts of the directory are added
+     * @return false if the artifact of the file could not be indexed
+     */
+    private boolean processFile(File file, ScanningRequest request, Set<String> uinfos) {
+        IndexingContext context = request.getIndexingContext();
+        ArtifactScanningListener listener = request.getArtifactScanningListener();
+
+        ArtifactContext ac = artifactContextProducer.getArtifactContext(context, file);
+        if (ac == null) {
+            return true;
+        }
+
+        Deferred work = discover(ac, listener);
+        boolean found = uinfos.add(ac.getArtifactInfo().getUinfo());
+        if (work == null && !found) {
+            // another file of an artifact already handled
+            return true;
+        }
+
+        // the listener has already reported the errors found so far
+        int reported = ac.getErrors().size();
+        List<Exception> errors = new ArrayList<Exception>();
+        try {
+            IndexingContext indexingContext = work != null ? work.context : context;
+            if (work == null) {
+                // the listener skips artifacts already indexed, their files may have changed though
+                replace(indexingContext, ac);
+            } else if (work.update) {
+                indexerEngine.update(indexingContext, ac);
+            } else {
+                indexerEngine.index(indexingContext, ac);
+            }
+
+            if (budget != null) {
+                budget.sampleRamBuffer(indexingContext.getIndexWriter());
+            }
+        } catch (IOException e) {
+            errors.add(e);
+        }
+        List<Exception> acErrors = ac.getErrors();
+        errors.addAll(0, acErrors.subList(Math.min(reported, acErrors.size()), acErrors.size()));
+
+        if (errors.isEmpty()) {
+            return true;
+        }
+
+        synchronized (listenerLock) {
+            for (Exception e : errors) {
+                listener.artifactError(ac, e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the document of an artifact the index already holds, its groups being already recorded.
+     */
+    private static void replace(IndexingContext context, ArtifactContext ac) throws IOException {
+        if (ac.getGav() == null) {
+            return;
+        }
+        Document document = ac.createDocument(context);
+        if (document != null) {
+            context.getIndexWriter().updateDocument(new Term(ArtifactInfo.UINFO, ac.getArtifactInfo().getUinfo()),
+                    document);
+        }
+    }
+
+    /**
+     * Calls the listener, which is not thread safe.
+     *
+     * @return the indexing the listener asked for, null if none
+     */
+    private Deferred discover(ArtifactContext ac, ArtifactScanningListener listener) {
+        synchronized (listenerLock) {
+            discovering.set(Boolean.TRUE);
+            try {
+                listener.artifactDiscovered(ac);
+            } finally {
+                discovering.remove();
+            }
+            Deferred work = deferred.get();
+            deferred.remove();
+            return work;
+        }
+    }
+
+    /**
+     * @return the context of an artifact known by its uinfo, without its files
+     */
+    static ArtifactContext toArtifactContext(String uinfo) {
+        String[] parts = Pattern.compile(ArtifactInfo.FS, Pattern.LITERAL).split(uinfo, -1);
+        ArtifactInfo ai = new ArtifactInfo();
+        ai.setGroupId(parts[0]);
+        ai.setArtifactId(parts[1]);
+        ai.setVersion(parts[2]);
+        ai.setClassifier(ArtifactInfo.renvl(parts[3]));
+        ai.setFileExtension(parts[4]);
+        Gav gav = ai.calculateGav();
+        return new ArtifactContext(null, null, null, ai, gav);
+    }
+
+    /**
+     * @return false if the current thread is not discovering an artifact, in which case nothing is deferred
+     */
+    private boolean defer(IndexingContext context, boolean update) {
+        if (discovering.get() == null) {
+            return false;
+        }
+        deferred.set(new Deferred(context, update));
+        return true;
+    }
+
+    private static final class Deferred {
+        private final IndexingContext context;
+
+        private final boolean update;
+
+        Deferred(IndexingContext context, boolean update) {
+            this.context = context;
+            this.update = update;
+        }
+    }
+
+    /**
+     * Handles the files of a directory and forks a task per sub-directory.
+     */
+    private final class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final File directory;
+
+        private final ScanningRequest request;
+
+        /**
+         * Whether the task counts in the directories queued by the budget
+         */
+        private final boolean queued;
+
+        DirectoryTask(File directory, ScanningRequest request, boolean queued) {
+            this.directory = directory;
+            this.request = request;
+            this.queued = queued;
+        }
+
+        @Override
+        protected void compute() {
+            if (queued) {
+                budget.directoryDequeued();
+            }
+
+            if (directory == null) {
+                return;
+            }
+
+            File[] files = directory.listFiles();
+            if (files == null) {
+                return;
+            }
+            Arrays.sort(files, POMS_FIRST);
+
+            // taken before indexing, a file changed in the meantime is seen as changed on the next scan
+            DirectorySnapshot.Entry state = next != null ? DirectorySnapshot.Entry.of(directory, files) : null;
+            String path = state != null ? relativePath(directory, request.getIndexingContext().getRepository()) : null;
+
+            boolean skipFiles = false;
+            if (state != null && previous != null && previous.isUnchanged(path, state)) {
+                List<String> recorded = previous.getUinfos(path);
+                skipFiles = replay(recorded, request);
+                if (skipFiles) {
+                    unchanged.addAndGet(recorded.size());
+                    next.put(path, state, recorded);
+                }
+            }
+
+            boolean indexed = true;
+            boolean hasFiles = false;
+            Set<String> uinfos = new LinkedHashSet<String>();
+            List<DirectoryTask> subDirectories = new ArrayList<DirectoryTask>();
+            for (File file : files) {
+                if (file.getName().startsWith(".")) {
+                    // skip all hidden files and directories
+                    continue;
+                }
+
+                if (file.isDirectory()) {
+                    if (budget == null || budget.queueDirectory()) {
+                        DirectoryTask task = new DirectoryTask(file, request, budget != null);
+                        task.fork();
+                        subDirectories.add(task);
+                    } else {
+                        // too many directories are waiting, this thread walks this one
+                        new DirectoryTask(file, request, false).invoke();
+                    }
+                } else if (!skipFiles) {
+                    hasFiles = true;
+                    indexed &= processFile(file, request, uinfos);
+                }
+            }
+
+            // a directory whose artifacts failed is indexed again on the next scan
+            if (state != null && hasFiles && indexed) {
+                next.put(path, state, uinfos);
+            }
+
+            for (DirectoryTask task : subDirectories) {
+                task.join();
+            }
+        }
+    }
+
+    /**
+     * @return the path of the directory in the snapshots
+     */
+    static String relativePath(File directory, File repository) {
+        String root = repository.getAbsolutePath();
+        String path = directory.getAbsolutePath();
+        return path.startsWith(root) ? path.substring(root.length()) : path;
+    }
+
+    /**
+     * The order of the default scanner, so that an artifact is discovered from its pom rather than from its files
+     */
+    static final Comparator<File> POMS_FIRST = new Comparator<File>() {
+        public int compare(File f1, File f2) {
+            boolean pom1 = f1.getName().endsWith(".pom");
+            boolean pom2 = f2.getName().endsWith(".pom");
+            if (pom1 != pom2) {
+                return pom1 ? -1 : 1;
+            }
+            return f1.getName().compareTo(f2.getName());
+        }
+    };
+}
@@ -0,0 +1,193 @@
+package fr.lteconsulting.mvnrun;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.Bits;
+import org.apache.maven.index.ArtifactInfo;
+import org.apache.maven.index.context.DefaultIndexingContext;
+import org.apache.maven.index.context.IndexingContext;
+import org.apache.maven.index.updater.IndexDataWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes the documents of an index in the transfer format of {@link IndexDataWriter}, byte for byte, compressed on
+ * several threads.
+ * <p/>
+ * Documents are serialized as they are read from the index reader, and the {@link ParallelGzipOutputStream} deflates
+ * what was serialized so far while the next documents are read, instead of one thread doing everything in turn.
+ */
+public class PipelinedIndexDataWriter {
+    private static final int VERSION = 1;
+
+    private static final int F_INDEXED = 1;
+
+    private static final int F_TOKENIZED = 2;
+
+    private static final int F_STORED = 4;
+
+    private final DataOutputStream dos;
+
+    private final Set<String> allGroups = new HashSet<String>();
+
+    private final Set<String> rootGroups = new HashSet<String>();
+
+    private boolean descriptorWritten;
+
+    public PipelinedIndexDataWriter(OutputStream os, int threads) throws IOException {
+        this.dos = new DataOutputStream(
+                new BufferedOutputStream(new ParallelGzipOutputStream(new BufferedOutputStream(os), threads)));
+    }
+
+    /**
+     * Writes the documents and closes the stream.
+     *
+     * @param docIndexes the documents to write, all those of the reader if null
+     * @return the number of documents written
+     */
+    public int write(IndexingContext context, IndexReader indexReader, List<Integer> docIndexes) throws IOException {
+        try {
+            writeHeader(context);
+            int n = writeDocuments(indexReader, docIndexes);
+            writeGroupFields();
+            return n;
+        } finally {
+            dos.close();
+        }
+    }
+
+    private void writeHeader(IndexingContext context) throws IOException {
+        dos.writeByte(VERSION);
+        Date timestamp = context.getTimestamp();
+        dos.writeLong(timestamp == null ? -1 : timestamp.getTime());
+    }
+
+    private void writeGroupFields() throws IOException {
+        dos.writeInt(2);
+        writeField(F_INDEXED + F_STORED, ArtifactInfo.ALL_GROUPS, ArtifactInfo.ALL_GROUPS);
+        writeField(F_INDEXED + F_STORED, ArtifactInfo.ALL_GROUPS_LIST, ArtifactInfo.lst2str(allGroups));
+
+        dos.writeInt(2);
+        writeField(F_INDEXED + F_STORED, ArtifactInfo.ROOT_GROUPS, ArtifactInfo.ROOT_GROUPS);
+        writeField(F_INDEXED + F_STORED, ArtifactInfo.ROOT_GROUPS_LIST, ArtifactInfo.lst2str(rootGroups));
+    }
+
+    private int writeDocuments(IndexReader r, List<Integer> docIndexes) throws IOException {
+        int n = 0;
+        Bits liveDocs = MultiFields.getLiveDocs(r);
+
+        if (docIndexes == null) {
+            for (int i = 0; i < r.maxDoc(); i++) {
+                if ((liveDocs == null || liveDocs.get(i)) && writeDocument(r.document(i))) {
+                    n++;
+                }
+            }
+        } else {
+            for (int i : docIndexes) {
+                if ((liveDocs == null || liveDocs.get(i)) && writeDocument(r.document(i))) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return false if the document is one of those written once, or at the end
+     */
+    private boolean writeDocument(Document document) throws IOException {
+        List<IndexableField> fields = document.getFields();
+        List<IndexableField> storedFields = new ArrayList<IndexableField>(fields.size());
+
+        for (IndexableField field : fields) {
+            if (DefaultIndexingContext.FLD_DESCRIPTOR.equals(field.name())) {
+                if (descriptorWritten) {
+                    return false;
+                }
+                descriptorWritten = true;
+            }
+
+            if (ArtifactInfo.ALL_GROUPS.equals(field.name())) {
+                String groupList = document.get(ArtifactInfo.ALL_GROUPS_LIST);
+                if (groupList != null && groupList.trim().length() > 0) {
+                    allGroups.addAll(ArtifactInfo.str2lst(groupList));
+                }
+                return false;
+            }
+
+            if (ArtifactInfo.ROOT_GROUPS.equals(field.name())) {
+                String groupList = document.get(ArtifactInfo.ROOT_GROUPS_LIST);
+                if (groupList != null && groupList.trim().length() > 0) {
+                    rootGroups.addAll(ArtifactInfo.str2lst(groupList));
+                }
+                return false;
+            }
+
+            if (field.fieldType().stored()) {
+                storedFields.add(field);
+            }
+        }
+
+        dos.writeInt(storedFields.size());
+        for (IndexableField field : storedFields) {
+            int flags = (field.fieldType().indexOptions() != IndexOptions.NONE ? F_INDEXED : 0)
+                    + (field.fieldType().tokenized() ? F_TOKENIZED : 0)
+                    + (field.fieldType().stored() ? F_STORED : 0);
+            writeField(flags, field.name(), field.stringValue());
+        }
+        return true;
+    }
+
+    private void writeField(int flags, String name, String value) throws IOException {
+        dos.write(flags);
+        dos.writeUTF(name);
+        writeUTF(value, dos);
+    }
+
+    /**
+     * Modified UTF-8 as {@link DataOutputStream#writeUTF(String)}, with an int length so that values can be long
+     */
+    private static void writeUTF(String str, DataOutputStream out) throws IOException {
+        int strlen = str.length();
+        int utflen = 0;
+        for (int i = 0; i < strlen; i++) {
+            int c = str.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                utflen++;
+            } else if (c > 0x07FF) {
+                utflen += 3;
+            } else {
+                utflen += 2;
+            }
+        }
+        out.writeInt(utflen);
+
+        byte[] bytearr = new byte[utflen];
+        int count = 0;
+        for (int i = 0; i < strlen; i++) {
+            int c = str.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                bytearr[count++] = (byte) c;
+            } else if (c > 0x07FF) {
+                bytearr[count++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+                bytearr[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytearr[count++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                bytearr[count++] = (byte) (0xC0 | ((c >> 6) & 0x1F));
+                bytearr[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        out.write(bytearr, 0, utflen);
+    }
+}
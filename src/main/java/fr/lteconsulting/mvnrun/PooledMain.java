@@ -0,0 +1,162 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Entry point of the warm JVMs of a {@link JvmPool}.
+ *
+ * The pool first sends the classpath, the directory of its {@link ClassIndex}, the main jar and the main class, which
+ * are loaded right away. The JVM then waits
+ * for requests on its stdin, each one made of the arguments followed by stdin frames of the {@link DaemonProtocol},
+ * and answers with stdout, stderr and exit frames on its stdout. The main method is invoked in this JVM, a request
+ * ending when it returns, or when it calls System.exit which ends the JVM. The JVM exits when its stdin is closed.
+ */
+public class PooledMain
+{
+	private PooledMain()
+	{
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), StreamPump.BUFFER_SIZE));
+
+		// from now on the real stdout only carries frames
+		final PrintStream stdout = new PrintStream(new DaemonProtocol.FrameOutputStream(out, DaemonProtocol.CHANNEL_STDOUT),
+				true);
+		final PrintStream stderr = new PrintStream(new DaemonProtocol.FrameOutputStream(out, DaemonProtocol.CHANNEL_STDERR),
+				true);
+		System.setOut(stdout);
+		System.setErr(stderr);
+
+		List<File> classpath = new ArrayList<>();
+		for (int i = DaemonProtocol.readCount(in); i > 0; i--)
+			classpath.add(new File(DaemonProtocol.readString(in)));
+		String indexDirectory = DaemonProtocol.readString(in);
+		File mainJar = new File(DaemonProtocol.readString(in));
+		String className = DaemonProtocol.readString(in);
+
+		// the daemon has already built the index, it only has to be mapped
+		ClassIndex index = null;
+		if (!indexDirectory.isEmpty() && ClassIndex.isIndexable(classpath))
+		{
+			try
+			{
+				index = ClassIndex.of(new File(indexDirectory), classpath);
+			}
+			catch (IOException e)
+			{
+				// classes are looked for in every entry
+			}
+		}
+
+		Method main = InProcessLauncher.loadMain(classpath, index, mainJar, className.isEmpty() ? null : className);
+
+		// an application calling System.exit ends this JVM, the pool then takes the exit code from the process
+		Runtime.getRuntime().addShutdownHook(new Thread("mvnrun-pooled-flush")
+		{
+			@Override
+			public void run()
+			{
+				stdout.flush();
+				stderr.flush();
+			}
+		});
+
+		byte[] buffer = new byte[StreamPump.BUFFER_SIZE];
+		while (true)
+		{
+			String[] arguments;
+			try
+			{
+				arguments = new String[DaemonProtocol.readCount(in)];
+			}
+			catch (EOFException e)
+			{
+				break;
+			}
+			for (int i = 0; i < arguments.length; i++)
+				arguments[i] = DaemonProtocol.readString(in);
+
+			DaemonProtocol.FrameInputStream stdin = new DaemonProtocol.FrameInputStream(in);
+			System.setIn(new FlushingInputStream(stdin, stdout, stderr));
+
+			int exitCode = InProcessLauncher.invoke(main, arguments);
+
+			stdout.flush();
+			stderr.flush();
+			synchronized (out)
+			{
+				out.writeByte(DaemonProtocol.CHANNEL_EXIT);
+				out.writeInt(4);
+				out.writeInt(exitCode);
+				out.flush();
+			}
+
+			// skips what the application did not read, up to the end frame the pool sends once the request is over
+			while (stdin.read(buffer, 0, buffer.length) >= 0)
+				;
+		}
+
+		System.exit(0);
+	}
+
+	/**
+	 * Flushes the outputs before blocking on the input, so that prompts are seen before the application waits for an
+	 * answer.
+	 */
+	private static class FlushingInputStream extends InputStream
+	{
+		private final InputStream in;
+
+		private final PrintStream[] outputs;
+
+		FlushingInputStream(InputStream in, PrintStream... outputs)
+		{
+			this.in = in;
+			this.outputs = outputs;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			flushOutputs();
+			return in.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			flushOutputs();
+			return in.read(b, off, len);
+		}
+
+		@Override
+		public int available() throws IOException
+		{
+			return in.available();
+		}
+
+		private void flushOutputs()
+		{
+			for (PrintStream output : outputs)
+				output.flush();
+		}
+	}
+}
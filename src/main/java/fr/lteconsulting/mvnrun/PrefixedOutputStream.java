@@ -0,0 +1,86 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes whole lines to a shared stream, each one preceded by a prefix, so that the output of several processes can be
+ * interleaved without mixing their lines.
+ *
+ * Bytes are kept until the end of their line, which is then written to the target in a single call made while holding
+ * the target's lock. A pending partial line is written when the stream is closed, or once it reaches
+ * {@link #MAX_LINE_LENGTH} bytes, so that binary output or endless lines do not pile up in memory : the line is then
+ * broken, its continuation getting the prefix as well.
+ */
+public class PrefixedOutputStream extends OutputStream
+{
+	static final int MAX_LINE_LENGTH = 64 * 1024;
+
+	private final byte[] prefix;
+
+	private final OutputStream target;
+
+	private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+	public PrefixedOutputStream(String prefix, OutputStream target)
+	{
+		this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+		this.target = target;
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len) throws IOException
+	{
+		int start = off;
+		int end = off + len;
+		for (int i = off; i < end; i++)
+		{
+			if (b[i] == '\n')
+			{
+				line.write(b, start, i + 1 - start);
+				writeLine();
+				start = i + 1;
+			}
+			else if (line.size() + i + 1 - start >= MAX_LINE_LENGTH)
+			{
+				line.write(b, start, i + 1 - start);
+				line.write('\n');
+				writeLine();
+				start = i + 1;
+			}
+		}
+		line.write(b, start, end - start);
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if (line.size() > 0)
+		{
+			line.write('\n');
+			writeLine();
+		}
+	}
+
+	private void writeLine() throws IOException
+	{
+		byte[] bytes = new byte[prefix.length + line.size()];
+		System.arraycopy(prefix, 0, bytes, 0, prefix.length);
+		System.arraycopy(line.toByteArray(), 0, bytes, prefix.length, line.size());
+		line.reset();
+
+		synchronized (target)
+		{
+			target.write(bytes);
+			target.flush();
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts child processes and connects their standard streams.
+ *
+ * By default the child inherits our stdin, stdout and stderr : the operating system connects them directly and mvnrun
+ * does not copy a single byte. The captured mode instead pipes every stream through dedicated {@link StreamPump}
+ * threads, for callers that need to see or redirect the child's output. In that mode only, the time to the first
+ * output of the child can be measured.
+ */
+public class ProcessLauncher
+{
+	private ProcessLauncher()
+	{
+	}
+
+	/**
+	 * Runs the process with our own standard streams and waits for it. The spawn and run durations are recorded in the
+	 * metrics.
+	 *
+	 * @return the exit code of the process
+	 */
+	public static int inherit(ProcessBuilder builder, LaunchMetrics metrics) throws IOException, InterruptedException
+	{
+		builder.inheritIO();
+
+		long spawn = System.nanoTime();
+		Process process = builder.start();
+		metrics.time("spawn", spawn);
+
+		long started = System.nanoTime();
+		int exitCode = process.waitFor();
+		metrics.time("childRun", started);
+		return exitCode;
+	}
+
+	/**
+	 * Runs the process with its streams pumped from and to our own file descriptors, and waits for it.
+	 *
+	 * @return the exit code of the process
+	 */
+	public static int capture(ProcessBuilder builder, LaunchMetrics metrics) throws IOException, InterruptedException
+	{
+		// raw descriptors, System.out and System.err would add their own locking and buffering
+		return capture(builder, new FileInputStream(FileDescriptor.in), new FileOutputStream(FileDescriptor.out),
+				new FileOutputStream(FileDescriptor.err), metrics);
+	}
+
+	/**
+	 * Runs the process with its streams pumped from and to the given ones, and waits for it. Output streams are
+	 * flushed but not closed.
+	 *
+	 * Besides the spawn and run durations, the time the process took to output its first bytes is recorded in the
+	 * metrics.
+	 *
+	 * @param in stream forwarded to the process stdin, may be null to give it an immediate end of file
+	 * @return the exit code of the process
+	 * @throws IOException also if the output of the process could not be copied, once it exited
+	 */
+	public static int capture(ProcessBuilder builder, InputStream in, OutputStream out, OutputStream err,
+			LaunchMetrics metrics) throws IOException, InterruptedException
+	{
+		builder.redirectInput(ProcessBuilder.Redirect.PIPE);
+		builder.redirectOutput(ProcessBuilder.Redirect.PIPE);
+		builder.redirectError(ProcessBuilder.Redirect.PIPE);
+
+		long spawn = System.nanoTime();
+		Process process = builder.start();
+		metrics.time("spawn", spawn);
+		long started = System.nanoTime();
+
+		if (in != null)
+			new StreamPump(in, process.getOutputStream(), true).start("mvnrun-stdin", true);
+		else
+			process.getOutputStream().close();
+
+		StreamPump stdoutPump = new StreamPump(process.getInputStream(), out, false);
+		StreamPump stderrPump = new StreamPump(process.getErrorStream(), err, false);
+		Thread stdout = stdoutPump.start("mvnrun-stdout", false);
+		Thread stderr = stderrPump.start("mvnrun-stderr", false);
+
+		int exitCode = process.waitFor();
+		metrics.time("childRun", started);
+
+		// the pumps end as soon as they have drained what the child wrote before exiting
+		stdout.join();
+		stderr.join();
+
+		if (stdoutPump.hasRead() || stderrPump.hasRead())
+			metrics.put("firstOutputMs", TimeUnit.NANOSECONDS.toMillis(firstOf(stdoutPump, stderrPump) - started));
+
+		IOException failure = stdoutPump.getFailure() != null ? stdoutPump.getFailure() : stderrPump.getFailure();
+		if (failure != null)
+			throw new IOException("The process exited with code " + exitCode + " but its output could not be copied : "
+					+ failure.getMessage(), failure);
+
+		return exitCode;
+	}
+
+	private static long firstOf(StreamPump a, StreamPump b)
+	{
+		if (!a.hasRead() || !b.hasRead())
+			return a.hasRead() ? a.getFirstReadNanos() : b.getFirstReadNanos();
+		return a.getFirstReadNanos() - b.getFirstReadNanos() < 0 ? a.getFirstReadNanos() : b.getFirstReadNanos();
+	}
+}
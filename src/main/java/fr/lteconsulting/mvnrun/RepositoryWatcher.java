@@ -0,0 +1,549 @@
+package fr.lteconsulting.mvnrun;
+
+import org.apache.maven.index.ArtifactContext;
+import org.apache.maven.index.ArtifactContextProducer;
+import org.apache.maven.index.ArtifactInfo;
+import org.apache.maven.index.IndexerEngine;
+import org.apache.maven.index.context.IndexingContext;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps an index up to date with its repository, indexing artifacts as they are deployed.
+ * <p/>
+ * Every directory of the repository is watched. Events are gathered until the repository has been quiet for the
+ * debounce delay, so that the files of an artifact being deployed are handled together, and the directories they
+ * concern are then indexed again : the artifacts found are updated, those the {@link DirectorySnapshot} recorded and
+ * which are gone are removed. A directory found as the snapshot recorded it is left alone, which makes going through a
+ * whole sub-tree cheap, as when a directory is created with its content or when the system lost events. A repository
+ * which never stays quiet has its changes indexed anyway once they waited for the maximum latency.
+ * <p/>
+ * On Linux each watched directory takes an inotify watch, and a user has at most {@code fs.inotify.max_user_watches}
+ * of them (raised with {@code sysctl fs.inotify.max_user_watches=524288}). Sub-trees which cannot be watched are
+ * looked at again every rescan interval instead, when the watcher also tries to watch them again.
+ * <p/>
+ * Changes are committed at the end of each batch, and are then seen by searches on the context as well as by other
+ * processes opening the index. They are published, by re-packing the index, and the snapshot saved at most once per
+ * publication interval. A failure to commit, save or publish is reported to the listener and tried again later, the
+ * watch goes on.
+ */
+public class RepositoryWatcher implements Closeable {
+    /**
+     * Told about what the watcher does, called by the watching thread
+     */
+    public interface Listener {
+        void changesIndexed(int updated, int removed);
+
+        void artifactError(File file, Exception e);
+
+        /**
+         * Called when something failed which the watch goes past, like a directory which cannot be watched or a
+         * commit which is tried again later.
+         */
+        void watchError(String message, IOException e);
+
+        /**
+         * Called when changes were indexed since the last publication and the publication interval has elapsed.
+         */
+        void publish() throws IOException;
+    }
+
+    /**
+     * How long after a failed commit it is tried again
+     */
+    private static final long RETRY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final IndexingContext context;
+
+    private final ArtifactContextProducer artifactContextProducer;
+
+    private final IndexerEngine indexerEngine;
+
+    private final DirectorySnapshot snapshot;
+
+    private final File snapshotFile;
+
+    private final Listener listener;
+
+    private final WatchService watchService;
+
+    private final Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+
+    /**
+     * Directories to index again, with whether their sub-directories must be looked at too
+     */
+    private final Map<Path, Boolean> pending = new LinkedHashMap<Path, Boolean>();
+
+    /**
+     * Roots of the sub-trees which could not be watched
+     */
+    private final Set<Path> unwatched = new LinkedHashSet<Path>();
+
+    /**
+     * Groups of the artifacts indexed since the last commit
+     */
+    private final Set<String> groups = new TreeSet<String>();
+
+    private final Set<String> rootGroups = new TreeSet<String>();
+
+    private long debounceMillis = 2000;
+
+    private long maxLatencyMillis = TimeUnit.SECONDS.toMillis(30);
+
+    private long publishMillis = TimeUnit.MINUTES.toMillis(5);
+
+    private long rescanMillis = TimeUnit.MINUTES.toMillis(1);
+
+    private volatile boolean closed;
+
+    /**
+     * When the oldest of the pending directories was added
+     */
+    private long pendingSince;
+
+    private boolean unwatchedReported;
+
+    /**
+     * Changes indexed and not committed yet
+     */
+    private int updated;
+
+    private int removed;
+
+    private boolean unpublished;
+
+    private boolean snapshotChanged;
+
+    /**
+     * @param snapshot the state of the repository the index holds, kept up to date
+     * @param snapshotFile where the snapshot is saved with each publication and when the watch ends
+     */
+    public RepositoryWatcher(IndexingContext context, ArtifactContextProducer artifactContextProducer,
+                             IndexerEngine indexerEngine, DirectorySnapshot snapshot, File snapshotFile,
+                             Listener listener) throws IOException {
+        this.context = context;
+        this.artifactContextProducer = artifactContextProducer;
+        this.indexerEngine = indexerEngine;
+        this.snapshot = snapshot;
+        this.snapshotFile = snapshotFile;
+        this.listener = listener;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * @param debounceMillis how long the repository must be quiet before changes are indexed
+     */
+    public void setDebounceMillis(long debounceMillis) {
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * @param maxLatencyMillis how long changes wait at most for the repository to be quiet
+     */
+    public void setMaxLatencyMillis(long maxLatencyMillis) {
+        this.maxLatencyMillis = maxLatencyMillis;
+    }
+
+    /**
+     * @param publishMillis the minimum time between two publications
+     */
+    public void setPublishMillis(long publishMillis) {
+        this.publishMillis = publishMillis;
+    }
+
+    /**
+     * @param rescanMillis how often the sub-trees which could not be watched are looked at
+     */
+    public void setRescanMillis(long rescanMillis) {
+        this.rescanMillis = rescanMillis;
+    }
+
+    /**
+     * Watches the repository until the watcher is closed.
+     */
+    public void watch() throws IOException {
+        Path root = context.getRepository().toPath();
+        register(root);
+
+        // what happened before the watches were registered
+        pend(root, true);
+        long lastEvent = 0;
+        long lastPublish = System.currentTimeMillis();
+        long lastRescan = lastPublish;
+        long lastCommitFailure = 0;
+
+        while (!closed) {
+            long now = System.currentTimeMillis();
+            if (!pending.isEmpty() && (now - lastEvent >= debounceMillis || now - pendingSince >= maxLatencyMillis)) {
+                flush();
+            }
+            if ((updated > 0 || removed > 0) && now - lastCommitFailure >= RETRY_MILLIS && !commit()) {
+                lastCommitFailure = now;
+            }
+            if (unpublished && now - lastPublish >= publishMillis) {
+                publish();
+                lastPublish = System.currentTimeMillis();
+            }
+            if (!unwatched.isEmpty() && now - lastRescan >= rescanMillis) {
+                rescan();
+                lastRescan = now;
+            }
+
+            long wakeUp = Long.MAX_VALUE;
+            if (!pending.isEmpty()) {
+                wakeUp = Math.min(lastEvent + debounceMillis, pendingSince + maxLatencyMillis);
+            }
+            if (updated > 0 || removed > 0) {
+                wakeUp = Math.min(wakeUp, lastCommitFailure + RETRY_MILLIS);
+            }
+            if (unpublished) {
+                wakeUp = Math.min(wakeUp, lastPublish + publishMillis);
+            }
+            if (!unwatched.isEmpty()) {
+                wakeUp = Math.min(wakeUp, lastRescan + rescanMillis);
+            }
+
+            try {
+                WatchKey key = wakeUp == Long.MAX_VALUE ? watchService.take()
+                        : watchService.poll(Math.max(1, wakeUp - now), TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    continue;
+                }
+
+                do {
+                    handle(key);
+                    key = watchService.poll();
+                } while (key != null);
+                lastEvent = System.currentTimeMillis();
+            } catch (ClosedWatchServiceException e) {
+                break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        // what was deployed while quiet time was awaited
+        if (!pending.isEmpty()) {
+            flush();
+        }
+        if (updated > 0 || removed > 0) {
+            commit();
+        }
+        if (unpublished) {
+            publish();
+        } else if (snapshotChanged) {
+            saveSnapshot();
+        }
+    }
+
+    /**
+     * Stops watching, the changes already seen are indexed and published before {@link #watch()} returns.
+     */
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+    }
+
+    private void handle(WatchKey key) {
+        Path directory = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (directory == null) {
+                continue;
+            }
+
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events were lost, the snapshot tells what changed
+                pend(context.getRepository().toPath(), true);
+                continue;
+            }
+
+            Path child = directory.resolve((Path) event.context());
+            if (child.getFileName().toString().startsWith(".")) {
+                continue;
+            }
+
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                // its content may have been created before it was watched
+                register(child);
+                pend(child, true);
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE && isRecorded(child)) {
+                // a deleted file only changes its directory
+                pend(child, true);
+            }
+            pend(directory, false);
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+        }
+    }
+
+    /**
+     * @return whether the snapshot records the directory or directories below it
+     */
+    private boolean isRecorded(Path path) {
+        return !snapshot.getSubTree(ParallelScanner.relativePath(path.toFile(), context.getRepository())).isEmpty();
+    }
+
+    private void pend(Path directory, boolean recursive) {
+        if (pending.isEmpty()) {
+            pendingSince = System.currentTimeMillis();
+        }
+        if (recursive) {
+            pending.put(directory, Boolean.TRUE);
+        } else if (!pending.containsKey(directory)) {
+            pending.put(directory, Boolean.FALSE);
+        }
+    }
+
+    /**
+     * Watches the directories of a sub-tree, those which cannot be watched are left to the rescans with everything
+     * below them.
+     */
+    private void register(final Path start) {
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!dir.equals(start) && dir.getFileName().toString().startsWith(".")) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    try {
+                        keys.put(watch(dir), dir);
+                    } catch (IOException e) {
+                        unwatch(dir, e);
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // removed in the meantime
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            unwatch(start, e);
+        }
+    }
+
+    /**
+     * Registers a directory to the watch service.
+     */
+    WatchKey watch(Path directory) throws IOException {
+        return directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    private void unwatch(Path directory, IOException e) {
+        unwatched.add(directory);
+
+        // reported once until every sub-tree is watched again, the limit failing the siblings the same way
+        if (!unwatchedReported) {
+            unwatchedReported = true;
+            listener.watchError("Unable to watch " + directory + ", it is looked at every "
+                    + TimeUnit.MILLISECONDS.toSeconds(rescanMillis) + " s instead"
+                    + " (on Linux, raise fs.inotify.max_user_watches)", e);
+        }
+    }
+
+    /**
+     * Looks at the sub-trees which could not be watched, and tries to watch them again as watches may have been
+     * freed in the meantime.
+     */
+    private void rescan() {
+        List<Path> subTrees = new ArrayList<Path>(unwatched);
+        unwatched.clear();
+        for (Path subTree : subTrees) {
+            pend(subTree, true);
+            if (Files.isDirectory(subTree)) {
+                register(subTree);
+            }
+        }
+        if (unwatched.isEmpty()) {
+            unwatchedReported = false;
+        }
+    }
+
+    /**
+     * Indexes the pending directories, the changes are committed by {@link #commit()}.
+     */
+    private void flush() {
+        List<Map.Entry<Path, Boolean>> directories = new ArrayList<Map.Entry<Path, Boolean>>(pending.entrySet());
+        pending.clear();
+        for (Map.Entry<Path, Boolean> directory : directories) {
+            process(directory.getKey().toFile(), directory.getValue(), groups, rootGroups);
+        }
+        snapshotChanged = true;
+    }
+
+    /**
+     * Commits the indexed changes.
+     *
+     * @return false if it failed, the changes then stay in the index writer and are committed with the next ones
+     */
+    private boolean commit() {
+        try {
+            if (!context.getAllGroups().containsAll(groups)) {
+                groups.addAll(context.getAllGroups());
+                context.setAllGroups(groups);
+            }
+            if (!context.getRootGroups().containsAll(rootGroups)) {
+                rootGroups.addAll(context.getRootGroups());
+                context.setRootGroups(rootGroups);
+            }
+            context.updateTimestamp(true);
+            context.commit();
+        } catch (IOException e) {
+            listener.watchError("Unable to commit the index, tried again in "
+                    + TimeUnit.MILLISECONDS.toSeconds(RETRY_MILLIS) + " s", e);
+            return false;
+        }
+
+        listener.changesIndexed(updated, removed);
+        updated = 0;
+        removed = 0;
+        groups.clear();
+        rootGroups.clear();
+        unpublished = true;
+        return true;
+    }
+
+    /**
+     * Saves the snapshot and publishes the index, a failed publication being tried again after the next interval.
+     */
+    private void publish() {
+        saveSnapshot();
+        try {
+            listener.publish();
+            unpublished = false;
+        } catch (IOException e) {
+            listener.watchError("Unable to publish the index, tried again after the publication interval", e);
+        }
+    }
+
+    /**
+     * Only saved once the index holds what the snapshot says : an older snapshot only makes the next run look at the
+     * directories changed since again.
+     */
+    private void saveSnapshot() {
+        if (updated > 0 || removed > 0) {
+            return;
+        }
+        try {
+            snapshot.save(snapshotFile);
+            snapshotChanged = false;
+        } catch (IOException e) {
+            listener.watchError("Unable to save the snapshot " + snapshotFile + ", saved again with the next changes",
+                    e);
+        }
+    }
+
+    private void process(File directory, boolean recursive, Set<String> groups, Set<String> rootGroups) {
+        String path = ParallelScanner.relativePath(directory, context.getRepository());
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            // gone with everything below
+            for (String known : snapshot.getSubTree(path)) {
+                remove(snapshot.remove(known));
+            }
+            return;
+        }
+        Arrays.sort(files, ParallelScanner.POMS_FIRST);
+
+        DirectorySnapshot.Entry state = DirectorySnapshot.Entry.of(directory, files);
+        if (!snapshot.isUnchanged(path, state)) {
+            boolean indexed = true;
+            boolean hasFiles = false;
+            Set<String> uinfos = new LinkedHashSet<String>();
+            for (File file : files) {
+                if (file.isDirectory() || file.getName().startsWith(".")) {
+                    continue;
+                }
+                hasFiles = true;
+                indexed &= index(file, uinfos, groups, rootGroups);
+            }
+
+            List<String> gone = new ArrayList<String>(snapshot.getUinfos(path));
+            gone.removeAll(uinfos);
+            remove(gone);
+
+            if (hasFiles && indexed) {
+                snapshot.put(path, state, uinfos);
+            } else {
+                // looked at again on the next event or run
+                snapshot.remove(path);
+            }
+        }
+
+        if (recursive) {
+            for (File file : files) {
+                if (file.isDirectory() && !file.getName().startsWith(".")) {
+                    process(file, true, groups, rootGroups);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the artifact of the file could not be indexed
+     */
+    private boolean index(File file, Set<String> uinfos, Set<String> groups, Set<String> rootGroups) {
+        ArtifactContext ac = artifactContextProducer.getArtifactContext(context, file);
+        if (ac == null || !uinfos.add(ac.getArtifactInfo().getUinfo())) {
+            return true;
+        }
+
+        try {
+            indexerEngine.update(context, ac);
+        } catch (IOException e) {
+            listener.artifactError(file, e);
+            return false;
+        }
+        for (Exception e : ac.getErrors()) {
+            listener.artifactError(file, e);
+        }
+        updated++;
+
+        ArtifactInfo ai = ac.getArtifactInfo();
+        groups.add(ai.getGroupId());
+        rootGroups.add(ai.getRootGroup());
+        return ac.getErrors().isEmpty();
+    }
+
+    private void remove(List<String> uinfos) {
+        for (String uinfo : uinfos) {
+            try {
+                indexerEngine.remove(context, ParallelScanner.toArtifactContext(uinfo));
+                removed++;
+            } catch (IOException e) {
+                listener.artifactError(new File(context.getRepository(), uinfo), e);
+            }
+        }
+    }
+}
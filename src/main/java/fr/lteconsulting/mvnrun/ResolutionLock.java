@@ -0,0 +1,242 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock on the resolution of a coordinate, shared by every process of the host using the same directory.
+ *
+ * While one process resolves a coordinate, the others wait for it and then find its result in the classpath cache,
+ * instead of downloading the same files to the same local repository at the same time. The lock is a file lock, which
+ * the operating system releases if its process dies. As file locks are held by processes, threads of a same process
+ * are also serialized by an in-memory lock, forgotten once no thread holds or waits for it.
+ *
+ * The holder writes its process in the lock file, so that those waiting for it can tell who they wait for. They give up
+ * after a timeout, in case the holder is stuck.
+ */
+public class ResolutionLock implements Closeable
+{
+	/**
+	 * How long to wait for the holder of the lock by default, in seconds
+	 */
+	public static final long DEFAULT_TIMEOUT = 600;
+
+	private static final long POLL_MILLIS = 50;
+
+	/**
+	 * How often a wait is reported
+	 */
+	private static final long REPORT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+	/**
+	 * Like 1234@host
+	 */
+	private static final String PROCESS = ManagementFactory.getRuntimeMXBean().getName();
+
+	private static final Map<String, LocalLock> LOCAL_LOCKS = new HashMap<>();
+
+	private final String key;
+
+	private final LocalLock localLock;
+
+	private final RandomAccessFile file;
+
+	private final FileLock lock;
+
+	private final long waitedMillis;
+
+	/**
+	 * Serializes the threads of this process, along with the number of them holding it or waiting for it.
+	 */
+	private static class LocalLock extends ReentrantLock
+	{
+		private static final long serialVersionUID = 1L;
+
+		private int users;
+	}
+
+	private ResolutionLock(String key, LocalLock localLock, RandomAccessFile file, FileLock lock, long waitedMillis)
+	{
+		this.key = key;
+		this.localLock = localLock;
+		this.file = file;
+		this.lock = lock;
+		this.waitedMillis = waitedMillis;
+	}
+
+	/**
+	 * Waits until no other process or thread resolves the coordinate and takes the lock.
+	 *
+	 * @param directory where lock files are created
+	 * @param timeoutMillis how long to wait for the holder of the lock
+	 * @param quiet false to report the waits
+	 * @throws IOException if the lock cannot be taken, or is still held once the timeout has passed
+	 */
+	public static ResolutionLock acquire(File directory, String artifact, long timeoutMillis, boolean quiet)
+			throws IOException
+	{
+		long start = System.currentTimeMillis();
+		long deadline = start + timeoutMillis;
+		File lockFile = new File(directory, Checksums.sha1(artifact) + ".lock");
+		String key = lockFile.getAbsolutePath();
+
+		LocalLock localLock;
+		synchronized (LOCAL_LOCKS)
+		{
+			localLock = LOCAL_LOCKS.get(key);
+			if (localLock == null)
+			{
+				localLock = new LocalLock();
+				LOCAL_LOCKS.put(key, localLock);
+			}
+			localLock.users++;
+		}
+
+		boolean locallyLocked = false;
+		RandomAccessFile file = null;
+		try
+		{
+			long reported = start;
+			while (!localLock.tryLock(POLL_MILLIS, TimeUnit.MILLISECONDS))
+				reported = waiting(artifact, null, start, deadline, reported, quiet);
+			locallyLocked = true;
+
+			if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory())
+				throw new IOException("Cannot create lock directory " + directory);
+
+			// lock files are never deleted, a process could be waiting on the one being removed
+			file = new RandomAccessFile(lockFile, "rw");
+			FileChannel channel = file.getChannel();
+			FileLock lock;
+			while ((lock = channel.tryLock()) == null)
+			{
+				reported = waiting(artifact, file, start, deadline, reported, quiet);
+				Thread.sleep(POLL_MILLIS);
+			}
+
+			file.setLength(0);
+			file.write(PROCESS.getBytes(StandardCharsets.UTF_8));
+			return new ResolutionLock(key, localLock, file, lock, System.currentTimeMillis() - start);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			abandon(key, localLock, locallyLocked, file);
+			throw new InterruptedIOException("Interrupted while waiting to resolve " + artifact);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			abandon(key, localLock, locallyLocked, file);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return how long it took to get the lock, in milliseconds
+	 */
+	public long getWaitedMillis()
+	{
+		return waitedMillis;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			lock.release();
+			file.close();
+		}
+		finally
+		{
+			localLock.unlock();
+			forget(key, localLock);
+		}
+	}
+
+	/**
+	 * @return the number of lock files threads of this process hold or wait for
+	 */
+	static int localLockCount()
+	{
+		synchronized (LOCAL_LOCKS)
+		{
+			return LOCAL_LOCKS.size();
+		}
+	}
+
+	/**
+	 * Reports a wait from time to time.
+	 *
+	 * @param file the lock file when waiting for another process, null when waiting for another thread
+	 * @return when the wait was last reported
+	 * @throws IOException once the deadline has passed
+	 */
+	private static long waiting(String artifact, RandomAccessFile file, long start, long deadline, long reported,
+			boolean quiet) throws IOException
+	{
+		long now = System.currentTimeMillis();
+		if (now >= deadline)
+			throw new IOException("Gave up waiting for " + holder(file) + " to resolve " + artifact + " after "
+					+ (now - start) / 1000 + " s");
+		if (now - reported < REPORT_MILLIS)
+			return reported;
+
+		MavenRun.log(quiet, "Process " + PROCESS + " waits for " + holder(file) + " to resolve " + artifact + " since "
+				+ (now - start) / 1000 + " s");
+		return now;
+	}
+
+	private static String holder(RandomAccessFile file)
+	{
+		if (file == null)
+			return "another launch of this process";
+		try
+		{
+			byte[] process = new byte[(int) Math.min(file.length(), 256)];
+			file.seek(0);
+			file.readFully(process);
+			return process.length == 0 ? "another process" : "process " + new String(process, StandardCharsets.UTF_8);
+		}
+		catch (IOException e)
+		{
+			return "another process";
+		}
+	}
+
+	private static void abandon(String key, LocalLock localLock, boolean locallyLocked, RandomAccessFile file)
+	{
+		try
+		{
+			if (file != null)
+				file.close();
+		}
+		catch (IOException e)
+		{
+			// nothing was locked through it
+		}
+		if (locallyLocked)
+			localLock.unlock();
+		forget(key, localLock);
+	}
+
+	private static void forget(String key, LocalLock localLock)
+	{
+		synchronized (LOCAL_LOCKS)
+		{
+			if (--localLock.users == 0)
+				LOCAL_LOCKS.remove(key);
+		}
+	}
+}
@@ -0,0 +1,534 @@
+package fr.lteconsulting.mvnrun;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositoryEvent;
+import org.eclipse.aether.RepositoryListener;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.eclipse.aether.transfer.MetadataNotFoundException;
+import org.eclipse.aether.transfer.TransferCancelledException;
+import org.eclipse.aether.transfer.TransferEvent;
+import org.eclipse.aether.transfer.TransferListener;
+import org.jboss.shrinkwrap.resolver.api.maven.ConfigurableMavenResolverSystem;
+import org.jboss.shrinkwrap.resolver.impl.maven.MavenWorkingSessionContainer;
+
+/**
+ * What a resolution did : how many distinct files came from the local repository or were downloaded, and for each
+ * remote repository the number of requests, how they ended, the bytes transferred and how long they took.
+ *
+ * It listens to the resolver's repository and transfer events, passing them on to the listeners it replaces so that
+ * the resolver's own logging goes on.
+ */
+public class ResolutionReport implements LaunchMetrics.JsonValue
+{
+	private final Map<String, RepositoryStats> repositories = new LinkedHashMap<>();
+
+	/**
+	 * Artifacts downloaded and not yet reported as resolved
+	 */
+	private final Set<String> downloads = new HashSet<>();
+
+	/**
+	 * Whether each artifact found was downloaded
+	 */
+	private final Map<String, Boolean> resolved = new HashMap<>();
+
+	private final Set<String> missing = new HashSet<>();
+
+	/**
+	 * Requests made to one remote repository
+	 */
+	public static class RepositoryStats
+	{
+		private final String url;
+
+		private int requests;
+
+		private int succeeded;
+
+		private int notFound;
+
+		private int failed;
+
+		private long bytes;
+
+		private long totalMillis;
+
+		private long maxMillis;
+
+		RepositoryStats(String url)
+		{
+			this.url = url;
+		}
+
+		public String getUrl()
+		{
+			return url;
+		}
+
+		public int getRequests()
+		{
+			return requests;
+		}
+
+		public int getSucceeded()
+		{
+			return succeeded;
+		}
+
+		public int getNotFound()
+		{
+			return notFound;
+		}
+
+		public int getFailed()
+		{
+			return failed;
+		}
+
+		public long getBytes()
+		{
+			return bytes;
+		}
+
+		/**
+		 * @return the average duration of the requests which ended, in milliseconds
+		 */
+		public long getAverageMillis()
+		{
+			int ended = succeeded + notFound + failed;
+			return ended == 0 ? 0 : totalMillis / ended;
+		}
+
+		public long getMaxMillis()
+		{
+			return maxMillis;
+		}
+
+		private void ended(TransferEvent event)
+		{
+			long millis = Math.max(0, System.currentTimeMillis() - event.getResource().getTransferStartTime());
+			totalMillis += millis;
+			maxMillis = Math.max(maxMillis, millis);
+		}
+	}
+
+	/**
+	 * Listens to the resolutions of the resolver, from now on and until its session is regenerated, which switching it
+	 * online or offline does.
+	 *
+	 * @throws IllegalStateException if the session of the resolver cannot be reached, in which case nothing is recorded
+	 */
+	public void attachTo(ConfigurableMavenResolverSystem resolver)
+	{
+		attachTo(sessionOf(resolver));
+	}
+
+	/**
+	 * @return the Aether session the resolver currently resolves with, until it is regenerated
+	 * @throws IllegalStateException if the session of the resolver cannot be reached
+	 */
+	static DefaultRepositorySystemSession sessionOf(ConfigurableMavenResolverSystem resolver)
+	{
+		if (!(resolver instanceof MavenWorkingSessionContainer))
+			throw new IllegalStateException(resolver.getClass().getName() + " does not give its session");
+		try
+		{
+			// a private field of ShrinkWrap's working session
+			Object workingSession = ((MavenWorkingSessionContainer) resolver).getMavenWorkingSession();
+			Field field = workingSession.getClass().getDeclaredField("session");
+			field.setAccessible(true);
+			return (DefaultRepositorySystemSession) field.get(workingSession);
+		}
+		catch (ReflectiveOperationException | RuntimeException e)
+		{
+			throw new IllegalStateException("Cannot reach the session of the resolver : " + e, e);
+		}
+	}
+
+	/**
+	 * Listens to the resolutions made with the session.
+	 */
+	public void attachTo(DefaultRepositorySystemSession session)
+	{
+		TransferListener transferListener = session.getTransferListener();
+		if (transferListener instanceof Transfers)
+			transferListener = ((Transfers) transferListener).next;
+		session.setTransferListener(new Transfers(transferListener));
+
+		RepositoryListener repositoryListener = session.getRepositoryListener();
+		if (repositoryListener instanceof Repositories)
+			repositoryListener = ((Repositories) repositoryListener).next;
+		session.setRepositoryListener(new Repositories(repositoryListener));
+	}
+
+	/**
+	 * @return the number of files found in the local repository
+	 */
+	public synchronized int getLocalFiles()
+	{
+		return resolved.size() - getDownloadedFiles();
+	}
+
+	/**
+	 * @return the number of files downloaded from a remote repository
+	 */
+	public synchronized int getDownloadedFiles()
+	{
+		int downloaded = 0;
+		for (boolean d : resolved.values())
+			if (d)
+				downloaded++;
+		return downloaded;
+	}
+
+	/**
+	 * @return the number of files found nowhere
+	 */
+	public synchronized int getMissingFiles()
+	{
+		return missing.size();
+	}
+
+	public synchronized long getDownloadedBytes()
+	{
+		long bytes = 0;
+		for (RepositoryStats stats : repositories.values())
+			bytes += stats.bytes;
+		return bytes;
+	}
+
+	/**
+	 * @return the remote repositories which were requested, in the order of their first request
+	 */
+	public synchronized List<RepositoryStats> getRepositories()
+	{
+		return new ArrayList<>(repositories.values());
+	}
+
+	/**
+	 * @return human readable lines summing up the resolution
+	 */
+	public synchronized List<String> summary()
+	{
+		List<String> lines = new ArrayList<>();
+		lines.add("Resolution : " + getLocalFiles() + " files from the local repository, " + getDownloadedFiles()
+				+ " downloaded (" + getDownloadedBytes() / 1024 + " KB), " + getMissingFiles() + " missing");
+		for (RepositoryStats stats : repositories.values())
+			lines.add("  " + stats.url + " : " + stats.requests + " requests, " + stats.succeeded + " succeeded, "
+					+ stats.notFound + " not found, " + stats.failed + " failed, " + stats.bytes / 1024 + " KB, "
+					+ stats.getAverageMillis() + " ms average, " + stats.maxMillis + " ms max");
+		return lines;
+	}
+
+	@Override
+	public synchronized String toJson()
+	{
+		StringBuilder sb = new StringBuilder("{");
+		sb.append("\"localFiles\":").append(getLocalFiles());
+		sb.append(",\"downloadedFiles\":").append(getDownloadedFiles());
+		sb.append(",\"missingFiles\":").append(getMissingFiles());
+		sb.append(",\"downloadedBytes\":").append(getDownloadedBytes());
+		sb.append(",\"repositories\":[");
+		boolean first = true;
+		for (RepositoryStats stats : repositories.values())
+		{
+			if (!first)
+				sb.append(',');
+			first = false;
+			sb.append("{\"url\":");
+			LaunchMetrics.appendString(sb, stats.url);
+			sb.append(",\"requests\":").append(stats.requests);
+			sb.append(",\"succeeded\":").append(stats.succeeded);
+			sb.append(",\"notFound\":").append(stats.notFound);
+			sb.append(",\"failed\":").append(stats.failed);
+			sb.append(",\"bytes\":").append(stats.bytes);
+			sb.append(",\"averageMs\":").append(stats.getAverageMillis());
+			sb.append(",\"maxMs\":").append(stats.maxMillis);
+			sb.append('}');
+		}
+		return sb.append("]}").toString();
+	}
+
+	private synchronized void downloaded(RepositoryEvent event)
+	{
+		if (event.getFile() != null && event.getException() == null)
+			downloads.add(event.getArtifact().toString());
+	}
+
+	private synchronized void resolved(RepositoryEvent event)
+	{
+		String artifact = event.getArtifact().toString();
+		boolean downloaded = downloads.remove(artifact);
+
+		// an artifact missing from the local repository offline may be found online afterwards
+		if (event.getFile() == null)
+		{
+			if (!resolved.containsKey(artifact))
+				missing.add(artifact);
+			return;
+		}
+		missing.remove(artifact);
+
+		// a pom is resolved again for each path leading to it, each artifact is only counted once ; the repository of
+		// an artifact found locally is the one it was once downloaded from, so it does not tell
+		Boolean previous = resolved.get(artifact);
+		resolved.put(artifact, downloaded || Boolean.TRUE.equals(previous));
+	}
+
+	private synchronized RepositoryStats stats(TransferEvent event)
+	{
+		String url = event.getResource().getRepositoryUrl();
+		RepositoryStats stats = repositories.get(url);
+		if (stats == null)
+		{
+			stats = new RepositoryStats(url);
+			repositories.put(url, stats);
+		}
+		return stats;
+	}
+
+	private void initiated(TransferEvent event)
+	{
+		synchronized (this)
+		{
+			stats(event).requests++;
+		}
+	}
+
+	private void succeeded(TransferEvent event)
+	{
+		synchronized (this)
+		{
+			RepositoryStats stats = stats(event);
+			stats.succeeded++;
+			stats.bytes += event.getTransferredBytes();
+			stats.ended(event);
+		}
+	}
+
+	private void failed(TransferEvent event)
+	{
+		synchronized (this)
+		{
+			RepositoryStats stats = stats(event);
+			Exception exception = event.getException();
+			if (exception instanceof ArtifactNotFoundException || exception instanceof MetadataNotFoundException)
+				stats.notFound++;
+			else
+				stats.failed++;
+			stats.ended(event);
+		}
+	}
+
+	private class Transfers implements TransferListener
+	{
+		private final TransferListener next;
+
+		Transfers(TransferListener next)
+		{
+			this.next = next;
+		}
+
+		@Override
+		public void transferInitiated(TransferEvent event) throws TransferCancelledException
+		{
+			initiated(event);
+			if (next != null)
+				next.transferInitiated(event);
+		}
+
+		@Override
+		public void transferStarted(TransferEvent event) throws TransferCancelledException
+		{
+			if (next != null)
+				next.transferStarted(event);
+		}
+
+		@Override
+		public void transferProgressed(TransferEvent event) throws TransferCancelledException
+		{
+			if (next != null)
+				next.transferProgressed(event);
+		}
+
+		@Override
+		public void transferCorrupted(TransferEvent event) throws TransferCancelledException
+		{
+			if (next != null)
+				next.transferCorrupted(event);
+		}
+
+		@Override
+		public void transferSucceeded(TransferEvent event)
+		{
+			succeeded(event);
+			if (next != null)
+				next.transferSucceeded(event);
+		}
+
+		@Override
+		public void transferFailed(TransferEvent event)
+		{
+			failed(event);
+			if (next != null)
+				next.transferFailed(event);
+		}
+	}
+
+	/**
+	 * Implements every method so that none of the events misses the replaced listener.
+	 */
+	private class Repositories implements RepositoryListener
+	{
+		private final RepositoryListener next;
+
+		Repositories(RepositoryListener next)
+		{
+			this.next = next;
+		}
+
+		@Override
+		public void artifactResolved(RepositoryEvent event)
+		{
+			resolved(event);
+			if (next != null)
+				next.artifactResolved(event);
+		}
+
+		@Override
+		public void artifactDescriptorInvalid(RepositoryEvent event)
+		{
+			if (next != null)
+				next.artifactDescriptorInvalid(event);
+		}
+
+		@Override
+		public void artifactDescriptorMissing(RepositoryEvent event)
+		{
+			if (next != null)
+				next.artifactDescriptorMissing(event);
+		}
+
+		@Override
+		public void metadataInvalid(RepositoryEvent event)
+		{
+			if (next != null)
+				next.metadataInvalid(event);
+		}
+
+		@Override
+		public void artifactResolving(RepositoryEvent event)
+		{
+			if (next != null)
+				next.artifactResolving(event);
+		}
+
+		@Override
+		public void metadataResolving(RepositoryEvent event)
+		{
+			if (next != null)
+				next.metadataResolving(event);
+		}
+
+		@Override
+		public void metadataResolved(RepositoryEvent event)
+		{
+			if (next != null)
+				next.metadataResolved(event);
+		}
+
+		@Override
+		public void artifactDownloading(RepositoryEvent event)
+		{
+			if (next != null)
+				next.artifactDownloading(event);
+		}
+
+		@Override
+		public void artifactDownloaded(RepositoryEvent event)
+		{
+			downloaded(event);
+			if (next != null)
+				next.artifactDownloaded(event);
+		}
+
+		@Override
+		public void metadataDownloading(RepositoryEvent event)
+		{
+			if (next != null)
+				next.metadataDownloading(event);
+		}
+
+		@Override
+		public void metadataDownloaded(RepositoryEvent event)
+		{
+			if (next != null)
+				next.metadataDownloaded(event);
+		}
+
+		@Override
+		public void artifactInstalling(RepositoryEvent event)
+		{
+			if (next != null)
+				next.artifactInstalling(event);
+		}
+
+		@Override
+		public void artifactInstalled(RepositoryEvent event)
+		{
+			if (next != null)
+				next.artifactInstalled(event);
+		}
+
+		@Override
+		public void metadataInstalling(RepositoryEvent event)
+		{
+			if (next != null)
+				next.metadataInstalling(event);
+		}
+
+		@Override
+		public void metadataInstalled(RepositoryEvent event)
+		{
+			if (next != null)
+				next.metadataInstalled(event);
+		}
+
+		@Override
+		public void artifactDeploying(RepositoryEvent event)
+		{
+			if (next != null)
+				next.artifactDeploying(event);
+		}
+
+		@Override
+		public void artifactDeployed(RepositoryEvent event)
+		{
+			if (next != null)
+				next.artifactDeployed(event);
+		}
+
+		@Override
+		public void metadataDeploying(RepositoryEvent event)
+		{
+			if (next != null)
+				next.metadataDeploying(event);
+		}
+
+		@Override
+		public void metadataDeployed(RepositoryEvent event)
+		{
+			if (next != null)
+				next.metadataDeployed(event);
+		}
+	}
+}
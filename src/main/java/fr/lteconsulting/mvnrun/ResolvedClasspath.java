@@ -0,0 +1,93 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of resolving an artifact : the jar to launch and every file of its runtime classpath.
+ */
+public class ResolvedClasspath
+{
+	/**
+	 * One resolved file of the classpath, along with the coordinate it was resolved from.
+	 */
+	public static class Entry
+	{
+		private final String coordinate;
+
+		private final File file;
+
+		public Entry(String coordinate, File file)
+		{
+			this.coordinate = coordinate;
+			this.file = file;
+		}
+
+		public String getCoordinate()
+		{
+			return coordinate;
+		}
+
+		public File getFile()
+		{
+			return file;
+		}
+	}
+
+	private final String artifact;
+
+	private final File mainJar;
+
+	private final List<Entry> entries;
+
+	public ResolvedClasspath(String artifact, File mainJar, List<Entry> entries)
+	{
+		this.artifact = artifact;
+		this.mainJar = mainJar;
+		this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+	}
+
+	/**
+	 * @return the coordinate this classpath was resolved for, as given by the user
+	 */
+	public String getArtifact()
+	{
+		return artifact;
+	}
+
+	public File getMainJar()
+	{
+		return mainJar;
+	}
+
+	public List<Entry> getEntries()
+	{
+		return entries;
+	}
+
+	/**
+	 * @return the absolute paths of every entry, in resolution order
+	 */
+	public List<String> getPaths()
+	{
+		List<String> paths = new ArrayList<>();
+		for (Entry entry : entries)
+			paths.add(entry.getFile().getAbsolutePath());
+		return paths;
+	}
+
+	/**
+	 * @return the files of every entry in resolution order, followed by the main jar if it is not one of them
+	 */
+	public List<File> getFiles()
+	{
+		List<File> files = new ArrayList<>();
+		for (Entry entry : entries)
+			files.add(entry.getFile());
+		if (!files.contains(mainJar))
+			files.add(mainJar);
+		return files;
+	}
+}
@@ -0,0 +1,356 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Output stream appending to a log file from a background thread, the file being rotated when it reaches a given size.
+ *
+ * Writes only copy the bytes to an in-memory buffer, so that the process producing them never waits for the disk. When
+ * the disk cannot keep up and the buffer is full, what does not fit is dropped and a notice saying how much is written
+ * to the log instead. Rotated files are named after the log with a number, 1 being the most recent, and are compressed
+ * with gzip on another thread when asked to. If the file cannot be written any more, the output is dropped and the
+ * failure reported on close.
+ */
+public class RotatingLog extends OutputStream
+{
+	/**
+	 * Bytes buffered in memory at most
+	 */
+	public static final int BUFFER_CAPACITY = 16 * 1024 * 1024;
+
+	private static final int FILE_BUFFER_SIZE = 1024 * 1024;
+
+	private final File file;
+
+	private final long maxBytes;
+
+	private final int keep;
+
+	private final boolean compress;
+
+	private final int capacity;
+
+	private final Deque<byte[]> chunks = new ArrayDeque<>();
+
+	private final Thread writer;
+
+	private int buffered;
+
+	private long dropped;
+
+	private long totalDropped;
+
+	private boolean closed;
+
+	/**
+	 * Set when the background thread has stopped writing
+	 */
+	private boolean stopped;
+
+	private IOException failure;
+
+	private Thread compressor;
+
+	/**
+	 * Opens the log, appending to the file if it exists.
+	 *
+	 * @param maxBytes size from which the file is rotated, 0 to never rotate it
+	 * @param keep number of rotated files kept
+	 * @param compress whether rotated files are compressed
+	 */
+	public RotatingLog(File file, long maxBytes, int keep, boolean compress) throws IOException
+	{
+		this(file, maxBytes, keep, compress, BUFFER_CAPACITY);
+	}
+
+	RotatingLog(File file, long maxBytes, int keep, boolean compress, int capacity) throws IOException
+	{
+		this.file = file.getAbsoluteFile();
+		this.maxBytes = maxBytes;
+		this.keep = keep;
+		this.compress = compress;
+		this.capacity = capacity;
+
+		File directory = this.file.getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create directory " + directory);
+		// fails now rather than in the background if the file cannot be written
+		new FileOutputStream(this.file, true).close();
+
+		writer = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				writeChunks();
+			}
+		}, "mvnrun-log-" + file.getName());
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		if (len == 0)
+			return;
+
+		synchronized (chunks)
+		{
+			if (closed)
+				throw new IOException("Log " + file + " is closed");
+
+			// once the file cannot be written, the output is lost rather than blocking its producer
+			if (stopped || buffered + len > capacity)
+			{
+				dropped += len;
+				totalDropped += len;
+				return;
+			}
+
+			byte[] chunk = new byte[len];
+			System.arraycopy(b, off, chunk, 0, len);
+			chunks.addLast(chunk);
+			buffered += len;
+			chunks.notifyAll();
+		}
+	}
+
+	/**
+	 * Does not wait for the disk, the background thread writes as soon as it can.
+	 */
+	@Override
+	public void flush()
+	{
+	}
+
+	/**
+	 * Writes what is buffered, waits for the compression of the rotated files and closes the file.
+	 *
+	 * @throws IOException if the log could not be written
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		synchronized (chunks)
+		{
+			if (closed)
+				return;
+			closed = true;
+			chunks.notifyAll();
+		}
+
+		try
+		{
+			writer.join();
+			Thread pending = compressor;
+			if (pending != null)
+				pending.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		synchronized (chunks)
+		{
+			if (failure != null)
+				throw failure;
+		}
+	}
+
+	/**
+	 * @return the number of bytes dropped because the buffer was full or the file could not be written
+	 */
+	public long getDropped()
+	{
+		synchronized (chunks)
+		{
+			return totalDropped;
+		}
+	}
+
+	/**
+	 * @return the file of a rotated log, 1 being the most recent
+	 */
+	File rotated(int index)
+	{
+		return new File(file.getPath() + "." + index + (compress ? ".gz" : ""));
+	}
+
+	private void writeChunks()
+	{
+		OutputStream out = null;
+		try
+		{
+			long written = file.length();
+			out = open();
+
+			List<byte[]> batch = new ArrayList<>();
+			while (true)
+			{
+				long lost;
+				synchronized (chunks)
+				{
+					while (chunks.isEmpty() && dropped == 0 && !closed)
+						chunks.wait();
+					if (chunks.isEmpty() && dropped == 0)
+						break;
+
+					batch.addAll(chunks);
+					chunks.clear();
+					buffered = 0;
+					lost = dropped;
+					dropped = 0;
+				}
+
+				if (lost > 0)
+					batch.add(("\n[mvnrun] " + lost + " bytes dropped, the log could not keep up\n")
+							.getBytes(StandardCharsets.UTF_8));
+
+				for (byte[] chunk : batch)
+				{
+					if (maxBytes > 0 && written > 0 && written + chunk.length > maxBytes)
+					{
+						out.close();
+						rotate();
+						out = open();
+						written = 0;
+					}
+					out.write(chunk);
+					written += chunk.length;
+				}
+				batch.clear();
+
+				// visible to readers of the file once the buffer is drained
+				out.flush();
+			}
+		}
+		catch (IOException e)
+		{
+			synchronized (chunks)
+			{
+				failure = e;
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			synchronized (chunks)
+			{
+				stopped = true;
+				chunks.clear();
+				buffered = 0;
+			}
+			if (out != null)
+			{
+				try
+				{
+					out.close();
+				}
+				catch (IOException e)
+				{
+					// nothing more can be done
+				}
+			}
+		}
+	}
+
+	private OutputStream open() throws IOException
+	{
+		return new BufferedOutputStream(new FileOutputStream(file, true), FILE_BUFFER_SIZE);
+	}
+
+	/**
+	 * Shifts the rotated files and moves the log to the first one.
+	 */
+	private void rotate() throws IOException, InterruptedException
+	{
+		// the previous segment must be compressed before it is shifted
+		if (compressor != null)
+			compressor.join();
+
+		File oldest = rotated(keep);
+		if (oldest.exists() && !oldest.delete())
+			throw new IOException("Cannot delete " + oldest);
+		for (int i = keep - 1; i >= 1; i--)
+		{
+			File rotated = rotated(i);
+			if (rotated.exists() && !rotated.renameTo(rotated(i + 1)))
+				throw new IOException("Cannot rename " + rotated);
+		}
+
+		if (keep < 1)
+		{
+			if (!file.delete())
+				throw new IOException("Cannot delete " + file);
+			return;
+		}
+
+		if (!compress)
+		{
+			if (!file.renameTo(rotated(1)))
+				throw new IOException("Cannot rename " + file);
+			return;
+		}
+
+		final File segment = new File(file.getPath() + ".1");
+		if (!file.renameTo(segment))
+			throw new IOException("Cannot rename " + file);
+		compressor = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					gzip(segment, rotated(1));
+				}
+				catch (IOException e)
+				{
+					System.err.println("Unable to compress " + segment + " : " + e.getMessage());
+				}
+			}
+		}, "mvnrun-log-gzip");
+		compressor.setDaemon(true);
+		compressor.start();
+	}
+
+	private static void gzip(File source, File target) throws IOException
+	{
+		File tmp = new File(target.getPath() + ".tmp");
+		byte[] buffer = new byte[StreamPump.BUFFER_SIZE];
+		try (InputStream in = new FileInputStream(source);
+				OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp), StreamPump.BUFFER_SIZE))
+		{
+			int read;
+			while ((read = in.read(buffer)) >= 0)
+				out.write(buffer, 0, read);
+		}
+		if (!tmp.renameTo(target))
+			throw new IOException("Cannot rename " + tmp);
+		if (!source.delete())
+			throw new IOException("Cannot delete " + source);
+	}
+}
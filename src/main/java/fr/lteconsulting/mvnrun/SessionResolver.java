@@ -0,0 +1,137 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.collection.CollectRequest;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.resolution.DependencyRequest;
+import org.eclipse.aether.resolution.DependencyResolutionException;
+import org.eclipse.aether.util.artifact.JavaScopes;
+import org.eclipse.aether.util.filter.DependencyFilterUtils;
+
+/**
+ * Resolves through the repository system and session of a running Maven build, instead of bootstrapping a resolver of
+ * our own.
+ *
+ * Settings, mirrors, proxies, the offline mode and the local repository are the build's, and so is everything its
+ * session has already resolved.
+ */
+public class SessionResolver
+{
+	private final RepositorySystem system;
+
+	private final RepositorySystemSession session;
+
+	private final List<RemoteRepository> repositories;
+
+	/**
+	 * @param repositories the remote repositories of the build, mirrors already applied
+	 */
+	public SessionResolver(RepositorySystem system, RepositorySystemSession session,
+			List<RemoteRepository> repositories)
+	{
+		this.system = system;
+		this.session = session;
+		this.repositories = repositories;
+	}
+
+	/**
+	 * Resolves the artifact and its runtime dependencies.
+	 *
+	 * @return the resolved classpath, or null if the artifact cannot be resolved
+	 */
+	public ResolvedClasspath resolve(String artifact, boolean quiet)
+	{
+		return resolve(artifact, null, quiet);
+	}
+
+	/**
+	 * @param report records what the resolution transfers, may be null
+	 */
+	public ResolvedClasspath resolve(String artifact, ResolutionReport report, boolean quiet)
+	{
+		return resolve(artifact, report, null, quiet);
+	}
+
+	/**
+	 * @param threads the number of concurrent downloads, the build's own one if null
+	 */
+	public ResolvedClasspath resolve(String artifact, ResolutionReport report, Integer threads, boolean quiet)
+	{
+		RepositorySystemSession session = this.session;
+		if (report != null || threads != null)
+		{
+			// the build's session is left as it is, the listeners and settings are added to a copy
+			DefaultRepositorySystemSession copy = new DefaultRepositorySystemSession(session);
+			if (report != null)
+				report.attachTo(copy);
+			if (threads != null)
+				copy.setConfigProperty(MavenRun.DOWNLOAD_THREADS_PROPERTY, threads);
+			session = copy;
+		}
+
+		if (!quiet)
+			System.err.println("Resolving artifacts with the Maven session...");
+
+		Artifact requested = new DefaultArtifact(artifact);
+		CollectRequest collect = new CollectRequest(new Dependency(requested, JavaScopes.RUNTIME), repositories);
+		DependencyRequest request = new DependencyRequest(collect,
+				DependencyFilterUtils.classpathFilter(JavaScopes.RUNTIME));
+
+		List<ArtifactResult> results;
+		try
+		{
+			results = system.resolveDependencies(session, request).getArtifactResults();
+		}
+		catch (DependencyResolutionException e)
+		{
+			System.err.println("Unable to resolve " + artifact + " : " + e.getMessage());
+			return null;
+		}
+
+		List<ResolvedClasspath.Entry> entries = new ArrayList<>();
+		File jarFile = null;
+		for (ArtifactResult result : results)
+		{
+			Artifact resolved = result.getArtifact();
+			entries.add(new ResolvedClasspath.Entry(canonicalForm(resolved), resolved.getFile()));
+
+			// versions are not compared, the requested one may be a range or a meta version
+			if (jarFile == null && requested.getGroupId().equals(resolved.getGroupId())
+					&& requested.getArtifactId().equals(resolved.getArtifactId())
+					&& requested.getClassifier().equals(resolved.getClassifier()))
+				jarFile = resolved.getFile();
+		}
+
+		if (jarFile == null)
+		{
+			System.err.println("Unable to find a jar file to launch for artifact " + artifact + ". Aborting.");
+			return null;
+		}
+
+		return new ResolvedClasspath(artifact, jarFile, entries);
+	}
+
+	/**
+	 * @return the coordinate in the form the standalone resolver gives, groupId:artifactId:type[:classifier]:version
+	 */
+	static String canonicalForm(Artifact artifact)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(artifact.getGroupId()).append(':').append(artifact.getArtifactId()).append(':')
+				.append(artifact.getExtension());
+		if (!artifact.getClassifier().isEmpty())
+			sb.append(':').append(artifact.getClassifier());
+		sb.append(':').append(artifact.getVersion());
+		return sb.toString();
+	}
+}
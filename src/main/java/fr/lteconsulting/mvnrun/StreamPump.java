@@ -0,0 +1,117 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Copies a stream to another one on its own thread, with a large buffer and without any line or charset processing.
+ *
+ * The target is flushed whenever the source has nothing more immediately available, so interactive output is not
+ * delayed while bulk output is written in large chunks.
+ */
+public class StreamPump implements Runnable
+{
+	public static final int BUFFER_SIZE = 64 * 1024;
+
+	private final InputStream in;
+
+	private final OutputStream out;
+
+	private final boolean closeTarget;
+
+	private volatile IOException failure;
+
+	private volatile boolean read;
+
+	private volatile long firstReadNanos;
+
+	/**
+	 * @param closeTarget whether the target must be closed when the source is exhausted (that is what forwarding to a
+	 *            child's stdin needs, so that it receives end of file)
+	 */
+	public StreamPump(InputStream in, OutputStream out, boolean closeTarget)
+	{
+		this.in = in;
+		this.out = out;
+		this.closeTarget = closeTarget;
+	}
+
+	/**
+	 * Starts the pump on a new thread.
+	 *
+	 * @param daemon true for pumps that may stay blocked forever, like the ones reading our own stdin
+	 */
+	public Thread start(String name, boolean daemon)
+	{
+		Thread thread = new Thread(this, name);
+		thread.setDaemon(daemon);
+		thread.start();
+		return thread;
+	}
+
+	@Override
+	public void run()
+	{
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try
+		{
+			int read;
+			while ((read = in.read(buffer)) >= 0)
+			{
+				if (!this.read && read > 0)
+				{
+					firstReadNanos = System.nanoTime();
+					this.read = true;
+				}
+				out.write(buffer, 0, read);
+				if (in.available() == 0)
+					out.flush();
+			}
+			out.flush();
+		}
+		catch (IOException e)
+		{
+			// the other side went away, nothing more can be copied
+			failure = e;
+		}
+		finally
+		{
+			if (closeTarget)
+			{
+				try
+				{
+					out.close();
+				}
+				catch (IOException e)
+				{
+					// already closed by the child
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return whether any bytes were read from the source
+	 */
+	public boolean hasRead()
+	{
+		return read;
+	}
+
+	/**
+	 * @return the {@link System#nanoTime()} at which the first bytes were read, meaningful only if {@link #hasRead()}
+	 */
+	public long getFirstReadNanos()
+	{
+		return firstReadNanos;
+	}
+
+	/**
+	 * @return the error which stopped the copy, or null if the source was fully copied
+	 */
+	public IOException getFailure()
+	{
+		return failure;
+	}
+}
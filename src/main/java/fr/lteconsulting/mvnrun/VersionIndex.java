@@ -0,0 +1,243 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.maven.index.ArtifactInfo;
+import org.apache.maven.index.Indexer;
+import org.apache.maven.index.IteratorSearchRequest;
+import org.apache.maven.index.IteratorSearchResponse;
+import org.apache.maven.index.MAVEN;
+import org.apache.maven.index.context.IndexCreator;
+import org.apache.maven.index.context.IndexingContext;
+import org.apache.maven.index.expr.SourcedSearchExpression;
+import org.codehaus.plexus.DefaultContainerConfiguration;
+import org.codehaus.plexus.DefaultPlexusContainer;
+import org.codehaus.plexus.PlexusConstants;
+import org.codehaus.plexus.PlexusContainer;
+import org.codehaus.plexus.PlexusContainerException;
+import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
+import org.eclipse.aether.util.version.GenericVersionScheme;
+import org.eclipse.aether.version.InvalidVersionSpecificationException;
+import org.eclipse.aether.version.Version;
+import org.eclipse.aether.version.VersionConstraint;
+
+/**
+ * Selects the version a range, LATEST or RELEASE stands for from a local Maven index, like the one written by the index
+ * command, instead of fetching the metadata of remote repositories.
+ *
+ * The versions known for a groupId and artifactId are kept in a small cache file for a configurable time to live, so
+ * that most selections do not even open the index.
+ */
+public class VersionIndex
+{
+	private static final GenericVersionScheme VERSION_SCHEME = new GenericVersionScheme();
+
+	private final File indexDirectory;
+
+	private final File cacheDirectory;
+
+	private final long ttlMillis;
+
+	public VersionIndex(File indexDirectory, File cacheDirectory, long ttlMillis)
+	{
+		this.indexDirectory = indexDirectory;
+		this.cacheDirectory = cacheDirectory;
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * @return the artifact with its version replaced by the selected one, or null if its version is not a range, LATEST
+	 *         or RELEASE, or if the index knows no matching version
+	 */
+	public String select(String artifact) throws IOException
+	{
+		String[] parts = artifact.split(":");
+		if (parts.length < 3)
+			return null;
+
+		String requested = parts[parts.length - 1];
+		if (!isSelectable(requested))
+			return null;
+
+		String selected = pick(versions(parts[0], parts[1]), requested);
+		if (selected == null)
+			return null;
+
+		return artifact.substring(0, artifact.lastIndexOf(':') + 1) + selected;
+	}
+
+	static boolean isSelectable(String version)
+	{
+		return "LATEST".equals(version) || "RELEASE".equals(version) || version.startsWith("[")
+				|| version.startsWith("(");
+	}
+
+	/**
+	 * @return the highest of the versions that the requested range, LATEST or RELEASE accepts, or null if none does
+	 */
+	static String pick(List<String> versions, String requested)
+	{
+		VersionConstraint constraint = null;
+		if (!"LATEST".equals(requested) && !"RELEASE".equals(requested))
+		{
+			try
+			{
+				constraint = VERSION_SCHEME.parseVersionConstraint(requested);
+			}
+			catch (InvalidVersionSpecificationException e)
+			{
+				return null;
+			}
+		}
+
+		Version best = null;
+		String bestString = null;
+		for (String candidate : versions)
+		{
+			if ("RELEASE".equals(requested) && candidate.endsWith("SNAPSHOT"))
+				continue;
+
+			Version version;
+			try
+			{
+				version = VERSION_SCHEME.parseVersion(candidate);
+			}
+			catch (InvalidVersionSpecificationException e)
+			{
+				continue;
+			}
+
+			if (constraint != null && !constraint.containsVersion(version))
+				continue;
+
+			if (best == null || version.compareTo(best) > 0)
+			{
+				best = version;
+				bestString = candidate;
+			}
+		}
+		return bestString;
+	}
+
+	/**
+	 * @return every version the index knows for the groupId and artifactId, from the cache while it is fresh
+	 */
+	List<String> versions(String groupId, String artifactId) throws IOException
+	{
+		File file = new File(cacheDirectory, (groupId + "_" + artifactId).replaceAll("[^A-Za-z0-9._-]", "_")
+				+ ".properties");
+
+		Properties properties = new Properties();
+		if (file.isFile())
+		{
+			try (InputStream in = new FileInputStream(file))
+			{
+				properties.load(in);
+				long indexed = Long.parseLong(properties.getProperty("indexed"));
+				if (System.currentTimeMillis() - indexed <= ttlMillis)
+				{
+					String list = properties.getProperty("versions");
+					List<String> versions = new ArrayList<>();
+					for (String version : list.split(","))
+					{
+						if (!version.isEmpty())
+							versions.add(version);
+					}
+					return versions;
+				}
+			}
+			catch (IOException | RuntimeException e)
+			{
+				// unreadable cache entry, query the index again
+			}
+		}
+
+		List<String> versions = query(groupId, artifactId);
+
+		properties = new Properties();
+		properties.setProperty("indexed", String.valueOf(System.currentTimeMillis()));
+		properties.setProperty("versions", MavenRun.join(versions, ","));
+
+		if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs())
+			throw new IOException("Cannot create cache directory " + cacheDirectory);
+		File tmp = File.createTempFile(file.getName(), ".tmp", cacheDirectory);
+		try (OutputStream out = new FileOutputStream(tmp))
+		{
+			properties.store(out, "mvnrun indexed versions");
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		return versions;
+	}
+
+	private List<String> query(String groupId, String artifactId) throws IOException
+	{
+		if (!indexDirectory.isDirectory())
+			throw new IOException("No index in " + indexDirectory);
+
+		PlexusContainer plexus;
+		try
+		{
+			DefaultContainerConfiguration configuration = new DefaultContainerConfiguration();
+			configuration.setClassPathScanning(PlexusConstants.SCANNING_INDEX);
+			plexus = new DefaultPlexusContainer(configuration);
+		}
+		catch (PlexusContainerException e)
+		{
+			throw new IOException("Cannot start the indexer", e);
+		}
+
+		try
+		{
+			Indexer indexer = plexus.lookup(Indexer.class);
+			List<IndexCreator> creators = Collections.singletonList(plexus.lookup(IndexCreator.class, "min"));
+
+			IndexingContext context = indexer.createIndexingContext("mvnrun-versions", "mvnrun-versions", null,
+					indexDirectory, null, null, true, false, creators);
+			try
+			{
+				BooleanQuery query = new BooleanQuery();
+				query.add(indexer.constructQuery(MAVEN.GROUP_ID, new SourcedSearchExpression(groupId)), Occur.MUST);
+				query.add(indexer.constructQuery(MAVEN.ARTIFACT_ID, new SourcedSearchExpression(artifactId)),
+						Occur.MUST);
+
+				// every classifier of a version is a separate record
+				Set<String> versions = new LinkedHashSet<>();
+				try (IteratorSearchResponse response = indexer
+						.searchIterator(new IteratorSearchRequest(query, Collections.singletonList(context))))
+				{
+					for (ArtifactInfo info : response)
+						versions.add(info.getVersion());
+				}
+				return new ArrayList<>(versions);
+			}
+			finally
+			{
+				indexer.closeIndexingContext(context, false);
+			}
+		}
+		catch (ComponentLookupException e)
+		{
+			throw new IOException("Cannot start the indexer", e);
+		}
+		finally
+		{
+			plexus.dispose();
+		}
+	}
+}
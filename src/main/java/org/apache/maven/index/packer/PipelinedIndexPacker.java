@@ -0,0 +1,41 @@
+package org.apache.maven.index.packer;
+
+import fr.lteconsulting.mvnrun.PipelinedIndexDataWriter;
+import org.apache.maven.index.incremental.IncrementalHandler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * The packer of indexer-core, writing index data with a {@link PipelinedIndexDataWriter}.
+ * <p/>
+ * Properties, incremental chunks and checksums are handled by {@link DefaultIndexPacker}, only the writing of the data
+ * files is replaced. The method doing it is package private, hence the package of this class.
+ */
+public class PipelinedIndexPacker extends DefaultIndexPacker {
+    private final int threads;
+
+    /**
+     * @param threads the number of threads compressing the data
+     */
+    public PipelinedIndexPacker(IncrementalHandler incrementalHandler, int threads) {
+        super(incrementalHandler);
+        this.threads = threads;
+    }
+
+    @Override
+    void writeIndexData(IndexPackingRequest request, List<Integer> docIndexes, File targetArchive)
+            throws IOException {
+        if (targetArchive.exists()) {
+            targetArchive.delete();
+        }
+
+        try (OutputStream os = new FileOutputStream(targetArchive)) {
+            new PipelinedIndexDataWriter(os, threads)
+                    .write(request.getContext(), request.getIndexReader(), docIndexes);
+        }
+    }
+}
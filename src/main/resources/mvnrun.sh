@@ -15,7 +15,12 @@ done
 
 PRGDIR=$(dirname "$PRG")
 
-java -jar $PRGDIR/mvnrun.jar $*
+if [ -n "$MVNRUN_DAEMON" ]; then
+  # thin client, forwards the request to a running 'mvnrun daemon'
+  java -cp $PRGDIR/mvnrun.jar fr.lteconsulting.mvnrun.DaemonClient "$@"
+else
+  java -jar $PRGDIR/mvnrun.jar $*
+fi
 
 #java -jar target/mvnrun.jar $*
 #java -cp $(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) -jar target/mvnrun.jar $*
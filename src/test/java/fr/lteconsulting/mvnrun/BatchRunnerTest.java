@@ -0,0 +1,158 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.beust.jcommander.ParameterException;
+
+import junit.framework.TestCase;
+
+import static fr.lteconsulting.mvnrun.MavenRunApp.AppOptions;
+
+/**
+ * Unit test for the batch manifest parsing, output prefixing, and the jobs run by a batch.
+ */
+public class BatchRunnerTest
+    extends TestCase
+{
+    public void testTokenizeHonoursQuotes()
+    {
+        assertEquals( Arrays.asList( "-a", "g:a:1.0", "two words", "it's", "" ),
+                      BatchRunner.tokenize( "  -a g:a:1.0 \"two words\" \"it's\" ''" ) );
+    }
+
+    public void testTokenizeRejectsUnterminatedQuote()
+    {
+        try
+        {
+            BatchRunner.tokenize( "-a \"g:a:1.0" );
+            fail();
+        }
+        catch ( ParameterException e )
+        {
+            // expected
+        }
+    }
+
+    public void testOutputIsPrefixedLineByLine() throws IOException
+    {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        PrefixedOutputStream out = new PrefixedOutputStream( "[1:a] ", target );
+
+        out.write( "first\nsec".getBytes( StandardCharsets.UTF_8 ) );
+        assertEquals( "[1:a] first\n", target.toString( "UTF-8" ) );
+
+        out.write( "ond\nlast".getBytes( StandardCharsets.UTF_8 ) );
+        out.close();
+        assertEquals( "[1:a] first\n[1:a] second\n[1:a] last\n", target.toString( "UTF-8" ) );
+    }
+
+    public void testLongLinesAreBrokenAtTheCap() throws IOException
+    {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        PrefixedOutputStream out = new PrefixedOutputStream( "> ", target );
+
+        byte[] data = new byte[PrefixedOutputStream.MAX_LINE_LENGTH * 2 + 10];
+        Arrays.fill( data, (byte) 'x' );
+        for ( int off = 0; off < data.length; off += 1000 )
+        {
+            out.write( data, off, Math.min( 1000, data.length - off ) );
+        }
+        // without any end of line, all but the last bytes are already written
+        assertEquals( 2 * ( 2 + PrefixedOutputStream.MAX_LINE_LENGTH + 1 ), target.size() );
+
+        out.close();
+        String[] lines = target.toString( "UTF-8" ).split( "\n" );
+        assertEquals( 3, lines.length );
+        assertEquals( 2 + PrefixedOutputStream.MAX_LINE_LENGTH, lines[0].length() );
+        assertEquals( "> xxxxxxxxxx", lines[2] );
+    }
+
+    /**
+     * Runs jobs in their own JVM, from lockfiles so that nothing is resolved.
+     */
+    public void testRunsJobsConcurrentlyAndReportsTheFirstFailure() throws Exception
+    {
+        File directory = Files.createTempDirectory( "mvnrun-batch" ).toFile();
+        File markers = new File( directory, "running" );
+        assertTrue( markers.mkdir() );
+
+        File jar = new File( directory, "job.jar" );
+        try ( JarOutputStream out = new JarOutputStream( new FileOutputStream( jar ) );
+              InputStream in = getClass().getResourceAsStream( "BatchRunnerTest$Job.class" ) )
+        {
+            out.putNextEntry( new JarEntry( Job.class.getName().replace( '.', '/' ) + ".class" ) );
+            byte[] buffer = new byte[8192];
+            int n;
+            while ( ( n = in.read( buffer ) ) > 0 )
+            {
+                out.write( buffer, 0, n );
+            }
+        }
+        File lock = new File( directory, "job.lock" );
+        Lockfile.write( lock, new ResolvedClasspath( "g:job:1.0", jar, Arrays.asList(
+            new ResolvedClasspath.Entry( "g:job:1.0", jar ) ) ), Job.class.getName() );
+
+        String options = "--lock " + lock + " --cache-dir " + new File( directory, "cache" ) + " --profiles-file "
+            + new File( directory, "none" ) + " " + markers + " ";
+        File manifest = new File( directory, "jobs.txt" );
+        Files.write( manifest.toPath(), Arrays.asList( "# exit codes", options + "0", options + "3", "",
+                                                       options + "5", options + "0",
+                                                       "--lock " + new File( directory, "missing.lock" ) ),
+                     StandardCharsets.UTF_8 );
+        List<AppOptions> jobs = BatchRunner.readManifest( manifest );
+        assertEquals( 5, jobs.size() );
+
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        int exitCode = new BatchRunner( 2, true, stdout, new ByteArrayOutputStream() ).run( jobs );
+
+        // the first failure in manifest order, not in completion order
+        assertEquals( 3, exitCode );
+        String output = stdout.toString( "UTF-8" );
+        Matcher running =
+            Pattern.compile( "^\\[\\d:job.lock\\] running (\\d+)$", Pattern.MULTILINE ).matcher( output );
+        int launched = 0;
+        while ( running.find() )
+        {
+            launched++;
+            assertTrue( output, Integer.parseInt( running.group( 1 ) ) <= 2 );
+        }
+        assertEquals( output, 4, launched );
+    }
+
+    /**
+     * A job which counts the jobs running alongside it, and exits with the given code.
+     */
+    public static class Job
+    {
+        public static void main( String[] args ) throws Exception
+        {
+            File markers = new File( args[0] );
+            File marker = new File( markers, UUID.randomUUID().toString() );
+            marker.createNewFile();
+            try
+            {
+                Thread.sleep( 300 );
+                System.out.println( "running " + markers.list().length );
+                Thread.sleep( 300 );
+            }
+            finally
+            {
+                marker.delete();
+            }
+            System.exit( Integer.parseInt( args[1] ) );
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the naming of class data sharing archives.
+ */
+public class CdsArchiveTest
+    extends TestCase
+{
+    private static final List<String> NO_OPTIONS = Collections.emptyList();
+
+    private File directory;
+
+    private File jar;
+
+    private ResolvedClasspath resolved;
+
+    protected void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory( "mvnrun-cds" ).toFile();
+        jar = new File( directory, "app.jar" );
+        Files.write( jar.toPath(), new byte[] { 1, 2, 3 } );
+        resolved = new ResolvedClasspath( "g:app:1.0", jar,
+                                          Arrays.asList( new ResolvedClasspath.Entry( "g:app:1.0", jar ) ) );
+    }
+
+    public void testKeyIsStable()
+    {
+        if ( MavenRun.javaVersion() < 13 )
+        {
+            return;
+        }
+
+        assertEquals( archive( NO_OPTIONS, "auto" ), archive( NO_OPTIONS, "auto" ) );
+        assertEquals( archive( Arrays.asList( "-Xss2m" ), "auto" ), archive( Arrays.asList( "-Xss2m" ), "auto" ) );
+    }
+
+    public void testOptionsAndDeliveryChangeTheKey()
+    {
+        if ( MavenRun.javaVersion() < 13 )
+        {
+            return;
+        }
+
+        File plain = archive( NO_OPTIONS, "auto" );
+        assertFalse( plain.equals( archive( Arrays.asList( "-XX:+UseParallelGC" ), "auto" ) ) );
+        assertFalse( archive( Arrays.asList( "-Xss2m" ), "auto" )
+            .equals( archive( Arrays.asList( "-Xss4m" ), "auto" ) ) );
+        assertFalse( plain.equals( archive( NO_OPTIONS, "jar" ) ) );
+        assertFalse( plain.equals( CdsArchive.of( directory, resolved, "org.example.Main", NO_OPTIONS, "auto" )
+            .getArchive() ) );
+    }
+
+    public void testChangedClasspathChangesTheKey()
+    {
+        if ( MavenRun.javaVersion() < 13 )
+        {
+            return;
+        }
+
+        File before = archive( NO_OPTIONS, "auto" );
+        assertTrue( jar.setLastModified( jar.lastModified() - 60000 ) );
+        assertFalse( before.equals( archive( NO_OPTIONS, "auto" ) ) );
+    }
+
+    public void testExistingArchiveIsUsed() throws IOException
+    {
+        if ( MavenRun.javaVersion() < 13 )
+        {
+            return;
+        }
+
+        CdsArchive cds = CdsArchive.of( directory, resolved, null, NO_OPTIONS, "auto" );
+        assertTrue( cds.jvmOptions().get( 0 ).startsWith( "-XX:ArchiveClassesAtExit=" ) );
+
+        Files.write( cds.getArchive().toPath(), new byte[0] );
+        assertEquals( "-XX:SharedArchiveFile=" + cds.getArchive().getAbsolutePath(), cds.jvmOptions().get( 0 ) );
+    }
+
+    private File archive( List<String> jvmOptions, String delivery )
+    {
+        return CdsArchive.of( directory, resolved, null, jvmOptions, delivery ).getArchive();
+    }
+}
@@ -0,0 +1,127 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import static fr.lteconsulting.mvnrun.MavenRunApp.AppOptions;
+
+/**
+ * Unit test for the class-to-jar index of a classpath.
+ */
+public class ClassIndexTest
+    extends TestCase
+{
+    private File directory;
+
+    private File first;
+
+    private File second;
+
+    protected void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory( "mvnrun-classindex" ).toFile();
+        first = jar( "first.jar", "org/example/Main.class", "org/example/Shared.class", "config.properties" );
+        second = jar( "second.jar", "org/example/Shared.class", "org/other/Util.class" );
+    }
+
+    public void testFindsTheJarOfAClass() throws IOException
+    {
+        ClassIndex index = ClassIndex.of( new File( directory, "index" ), Arrays.asList( first, second ) );
+
+        assertEquals( first, index.findClass( "org.example.Main" ) );
+        assertEquals( second, index.findClass( "org.other.Util" ) );
+        assertEquals( first, index.find( "config.properties" ) );
+    }
+
+    public void testFirstJarWins() throws IOException
+    {
+        ClassIndex index = ClassIndex.of( new File( directory, "index" ), Arrays.asList( second, first ) );
+
+        assertEquals( second, index.findClass( "org.example.Shared" ) );
+    }
+
+    public void testUnknownNamesAreNotFound() throws IOException
+    {
+        ClassIndex index = ClassIndex.of( new File( directory, "index" ), Arrays.asList( first, second ) );
+
+        assertNull( index.findClass( "org.example.Missing" ) );
+        assertNull( index.find( "org/example" ) );
+    }
+
+    public void testIndexIsReused() throws IOException
+    {
+        File indexDirectory = new File( directory, "index" );
+        ClassIndex.of( indexDirectory, Arrays.asList( first, second ) );
+        File[] files = indexDirectory.listFiles();
+
+        ClassIndex index = ClassIndex.of( indexDirectory, Arrays.asList( first, second ) );
+
+        assertEquals( 1, files.length );
+        assertEquals( files.length, indexDirectory.listFiles().length );
+        assertEquals( first, index.findClass( "org.example.Main" ) );
+    }
+
+    public void testChangedJarsGetANewIndex() throws IOException
+    {
+        File indexDirectory = new File( directory, "index" );
+        ClassIndex.of( indexDirectory, Arrays.asList( first, second ) );
+        second = jar( "second.jar", "org/other/Util.class", "org/other/Added.class" );
+        second.setLastModified( second.lastModified() + 2000 );
+
+        ClassIndex index = ClassIndex.of( indexDirectory, Arrays.asList( first, second ) );
+
+        assertEquals( second, index.findClass( "org.other.Added" ) );
+    }
+
+    /**
+     * The target/classes of a reactor module is left to the URL class loader, and does not fail the main class check.
+     */
+    public void testClasspathsWithDirectoriesAreNotIndexed() throws IOException
+    {
+        File classes = new File( directory, "classes" );
+        assertTrue( new File( classes, "org/module" ).mkdirs() );
+        Files.write( new File( classes, "org/module/Main.class" ).toPath(), new byte[] { 1 } );
+        assertFalse( ClassIndex.isIndexable( Arrays.asList( first, classes ) ) );
+        try
+        {
+            ClassIndex.of( new File( directory, "index" ), Arrays.asList( first, classes ) );
+            fail();
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+
+        AppOptions options = new AppOptions();
+        options.cacheDir = new File( directory, "cache" ).getPath();
+        options.mainClass = "org.module.Main";
+        ResolvedClasspath resolved = new ResolvedClasspath( "g:module:1.0", classes, Arrays.asList(
+            new ResolvedClasspath.Entry( "g:lib:1.0", first ), new ResolvedClasspath.Entry( "g:module:1.0", classes ) ) );
+        ClassIndex index = MavenRun.classIndex( resolved, options, new LaunchMetrics(), true );
+        assertNull( index );
+        assertNull( MavenRun.checkMainClass( index, resolved, options ) );
+    }
+
+    private File jar( String name, String... entries ) throws IOException
+    {
+        File file = new File( directory, name );
+        try ( ZipOutputStream out = new ZipOutputStream( new FileOutputStream( file ) ) )
+        {
+            for ( String entry : entries )
+            {
+                out.putNextEntry( new ZipEntry( entry ) );
+                out.write( entry.getBytes( StandardCharsets.UTF_8 ) );
+                out.closeEntry();
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,81 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the resolved classpath cache.
+ */
+public class ClasspathCacheTest
+    extends TestCase
+{
+    private File directory;
+
+    private File jar;
+
+    protected void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory( "mvnrun-cache" ).toFile();
+        jar = new File( directory, "lib.jar" );
+        write( jar, "content" );
+    }
+
+    public void testHitWhileFilesAreUnchanged() throws IOException
+    {
+        ClasspathCache cache = new ClasspathCache( new File( directory, "cache" ), 0 );
+        cache.put( classpath( "g:a:1.0" ) );
+
+        ResolvedClasspath cached = cache.get( "g:a:1.0" );
+        assertNotNull( cached );
+        assertEquals( jar.getAbsolutePath(), cached.getMainJar().getAbsolutePath() );
+        assertEquals( Arrays.asList( jar.getAbsolutePath() ), cached.getPaths() );
+    }
+
+    public void testMissWhenAFileChanged() throws IOException
+    {
+        ClasspathCache cache = new ClasspathCache( new File( directory, "cache" ), 0 );
+        cache.put( classpath( "g:a:1.0" ) );
+
+        write( jar, "other content" );
+
+        assertNull( cache.get( "g:a:1.0" ) );
+    }
+
+    public void testSnapshotsExpire() throws IOException
+    {
+        ClasspathCache expired = new ClasspathCache( new File( directory, "cache" ), -1 );
+        expired.put( classpath( "g:a:1.0-SNAPSHOT" ) );
+        assertNull( expired.get( "g:a:1.0-SNAPSHOT" ) );
+
+        ClasspathCache fresh = new ClasspathCache( new File( directory, "cache" ), 60000 );
+        assertNotNull( fresh.get( "g:a:1.0-SNAPSHOT" ) );
+    }
+
+    public void testClear() throws IOException
+    {
+        ClasspathCache cache = new ClasspathCache( new File( directory, "cache" ), 0 );
+        cache.put( classpath( "g:a:1.0" ) );
+        cache.clear();
+
+        assertNull( cache.get( "g:a:1.0" ) );
+    }
+
+    private ResolvedClasspath classpath( String artifact )
+    {
+        return new ResolvedClasspath( artifact, jar,
+                Arrays.asList( new ResolvedClasspath.Entry( artifact, jar ) ) );
+    }
+
+    private static void write( File file, String content ) throws IOException
+    {
+        try ( FileOutputStream out = new FileOutputStream( file ) )
+        {
+            out.write( content.getBytes( "UTF-8" ) );
+        }
+    }
+}
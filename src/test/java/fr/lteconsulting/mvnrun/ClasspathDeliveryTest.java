@@ -0,0 +1,154 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+import static fr.lteconsulting.mvnrun.MavenRunApp.AppOptions;
+
+/**
+ * Unit test for the ways a classpath is given to a child JVM.
+ */
+public class ClasspathDeliveryTest
+    extends TestCase
+{
+    private File directory;
+
+    protected void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory( "mvnrun-delivery" ).toFile();
+    }
+
+    public void testShortClasspathIsInline() throws IOException
+    {
+        List<String> classPath = Arrays.asList( "/repo/a.jar", "/repo/b.jar" );
+
+        assertEquals( Arrays.asList( "-cp", "/repo/a.jar" + File.pathSeparator + "/repo/b.jar" ),
+                      ClasspathDelivery.arguments( classPath, ClasspathDelivery.AUTO, directory ) );
+        assertFalse( directory.list().length > 0 );
+    }
+
+    public void testLongClasspathGoesToAnArgumentFile() throws IOException
+    {
+        if ( MavenRun.javaVersion() < 9 )
+        {
+            return;
+        }
+
+        List<String> classPath = longClasspath();
+        List<String> arguments = ClasspathDelivery.arguments( classPath, ClasspathDelivery.AUTO, directory );
+
+        assertEquals( 1, arguments.size() );
+        assertTrue( arguments.get( 0 ).startsWith( "@" ) );
+        File file = new File( arguments.get( 0 ).substring( 1 ) );
+        assertEquals( "-cp \"" + MavenRun.join( classPath, File.pathSeparator ) + "\"\n",
+                      new String( Files.readAllBytes( file.toPath() ), StandardCharsets.UTF_8 ) );
+
+        // written once per classpath
+        assertEquals( arguments, ClasspathDelivery.arguments( classPath, ClasspathDelivery.AUTO, directory ) );
+    }
+
+    public void testArgumentFileEscapesBackslashesAndQuotes() throws IOException
+    {
+        List<String> arguments = ClasspathDelivery.arguments( Arrays.asList( "C:\\repo\\a \"b\".jar" ),
+                                                              ClasspathDelivery.ARGFILE, directory );
+
+        File file = new File( arguments.get( 0 ).substring( 1 ) );
+        assertEquals( "-cp \"C:\\\\repo\\\\a \\\"b\\\".jar\"\n",
+                      new String( Files.readAllBytes( file.toPath() ), StandardCharsets.UTF_8 ) );
+    }
+
+    public void testPathingJarListsTheClasspath() throws IOException
+    {
+        List<String> classPath = Arrays.asList( new File( directory, "a.jar" ).getPath(),
+                                                new File( directory, "b c.jar" ).getPath() );
+        List<String> arguments = ClasspathDelivery.arguments( classPath, ClasspathDelivery.JAR, directory );
+
+        assertEquals( "-cp", arguments.get( 0 ) );
+        try ( JarFile jar = new JarFile( arguments.get( 1 ) ) )
+        {
+            assertEquals( new File( classPath.get( 0 ) ).toURI() + " " + new File( classPath.get( 1 ) ).toURI(),
+                          jar.getManifest().getMainAttributes().getValue( Attributes.Name.CLASS_PATH ) );
+        }
+    }
+
+    public void testUnknownModeIsRejected() throws IOException
+    {
+        try
+        {
+            ClasspathDelivery.arguments( Arrays.asList( "a.jar" ), "other", directory );
+            fail();
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Without a main class, the one of the manifest is launched with the delivered classpath, which -jar would ignore.
+     */
+    public void testManifestMainClassIsLaunchedWithTheDeliveredClasspath() throws Exception
+    {
+        File mainJar = new File( directory, "main.jar" );
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put( Attributes.Name.MANIFEST_VERSION, "1.0" );
+        manifest.getMainAttributes().put( Attributes.Name.MAIN_CLASS, InProcessLauncherTest.Exiting.class.getName() );
+        try ( JarOutputStream out = new JarOutputStream( new FileOutputStream( mainJar ), manifest ) )
+        {
+            // the class is in the rest of the classpath
+        }
+        File classes = new File( InProcessLauncherTest.Exiting.class.getProtectionDomain().getCodeSource()
+            .getLocation().toURI() );
+        ResolvedClasspath resolved =
+            new ResolvedClasspath( "g:main:1.0", mainJar,
+                                   Arrays.asList( new ResolvedClasspath.Entry( "g:main:1.0", mainJar ),
+                                                  new ResolvedClasspath.Entry( "g:classes:1.0", classes ) ) );
+
+        for ( String mode : new String[] { ClasspathDelivery.INLINE, ClasspathDelivery.ARGFILE, ClasspathDelivery.JAR } )
+        {
+            if ( ClasspathDelivery.ARGFILE.equals( mode ) && MavenRun.javaVersion() < 9 )
+            {
+                continue;
+            }
+
+            AppOptions options = new AppOptions();
+            options.cacheDir = directory.getPath();
+            options.profilesFile = new File( directory, "none.properties" ).getPath();
+            options.classpathDelivery = mode;
+            List<String> command =
+                new ArrayList<String>( MavenRun.buildCommand( resolved, options, Collections.<String>emptyList() ) );
+            assertFalse( command.contains( "-jar" ) );
+            command.set( 0, new File( System.getProperty( "java.home" ), "bin/java" ).getPath() );
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int exitCode = ProcessLauncher.capture( new ProcessBuilder( command ), null, out,
+                                                    new ByteArrayOutputStream(), new LaunchMetrics() );
+            assertEquals( mode, 7, exitCode );
+            assertEquals( "exiting\n", out.toString( "UTF-8" ) );
+        }
+    }
+
+    private List<String> longClasspath()
+    {
+        List<String> classPath = new ArrayList<String>();
+        for ( int i = 0; classPath.size() * 40 <= ClasspathDelivery.INLINE_LIMIT; i++ )
+        {
+            classPath.add( "/repository/org/example/lib" + i + "/1.0/lib" + i + "-1.0.jar" );
+        }
+        return classPath;
+    }
+}
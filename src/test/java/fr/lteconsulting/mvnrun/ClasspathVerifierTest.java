@@ -0,0 +1,82 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the verification of classpath files against their checksums.
+ */
+public class ClasspathVerifierTest
+    extends TestCase
+{
+    private File directory;
+
+    private File jar;
+
+    private ClasspathVerifier verifier;
+
+    protected void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory( "mvnrun-verify" ).toFile();
+        jar = new File( directory, "lib-1.0.jar" );
+        write( jar, "library" );
+        write( new File( directory, "lib-1.0.jar.sha1" ), Checksums.sha1( "library" ) + "  lib-1.0.jar\n" );
+        verifier = new ClasspathVerifier( new File( directory, "verified.properties" ) );
+    }
+
+    public void testValidFilesPass() throws IOException
+    {
+        assertTrue( verifier.verify( classpath() ).isEmpty() );
+        assertEquals( 1, verifier.getHashed() );
+    }
+
+    public void testCorruptedFileIsReported() throws IOException
+    {
+        write( jar, "corrupted" );
+
+        assertEquals( 1, verifier.verify( classpath() ).size() );
+    }
+
+    public void testUnchangedFilesAreNotHashedAgain() throws IOException
+    {
+        verifier.verify( classpath() );
+
+        assertTrue( verifier.verify( classpath() ).isEmpty() );
+        assertEquals( 0, verifier.getHashed() );
+    }
+
+    public void testChangedFilesAreHashedAgain() throws IOException
+    {
+        verifier.verify( classpath() );
+        write( jar, "modified library" );
+
+        assertEquals( 1, verifier.verify( classpath() ).size() );
+        assertEquals( 1, verifier.getHashed() );
+    }
+
+    public void testFilesWithoutChecksumAreSkipped() throws IOException
+    {
+        new File( directory, "lib-1.0.jar.sha1" ).delete();
+
+        assertTrue( verifier.verify( classpath() ).isEmpty() );
+        assertEquals( 0, verifier.getHashed() );
+    }
+
+    private ResolvedClasspath classpath()
+    {
+        return new ResolvedClasspath( "g:lib:1.0", jar, Arrays.asList( new ResolvedClasspath.Entry( "g:lib:jar:1.0", jar ) ) );
+    }
+
+    private static void write( File file, String content ) throws IOException
+    {
+        try ( FileOutputStream out = new FileOutputStream( file ) )
+        {
+            out.write( content.getBytes( "UTF-8" ) );
+        }
+    }
+}
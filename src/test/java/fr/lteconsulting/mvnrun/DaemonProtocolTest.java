@@ -0,0 +1,119 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the wire format of the daemon.
+ */
+public class DaemonProtocolTest
+    extends TestCase
+{
+    public void testStringsAndFramesRoundTrip() throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        DaemonProtocol.writeString( out, "token" );
+        DaemonProtocol.writeString( out, "héllo" );
+        DaemonProtocol.FrameOutputStream frames = new DaemonProtocol.FrameOutputStream( out, DaemonProtocol.CHANNEL_STDIN );
+        frames.write( "first ".getBytes( "UTF-8" ) );
+        frames.write( "second".getBytes( "UTF-8" ) );
+        frames.end();
+
+        DataInputStream in = input( bytes.toByteArray() );
+        assertEquals( "token", DaemonProtocol.readString( in, DaemonProtocol.MAX_TOKEN_LENGTH ) );
+        assertEquals( "héllo", DaemonProtocol.readString( in ) );
+
+        DaemonProtocol.FrameInputStream stdin = new DaemonProtocol.FrameInputStream( in );
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4];
+        int n;
+        while ( ( n = stdin.read( buffer, 0, buffer.length ) ) >= 0 )
+        {
+            read.write( buffer, 0, n );
+        }
+        assertEquals( "first second", read.toString( "UTF-8" ) );
+        assertEquals( -1, stdin.read() );
+    }
+
+    public void testRejectsNegativeAndOversizedLengths() throws IOException
+    {
+        assertRejected( lengthOf( -1 ), DaemonProtocol.MAX_TOKEN_LENGTH );
+        assertRejected( lengthOf( Integer.MAX_VALUE ), DaemonProtocol.MAX_REQUEST_LENGTH );
+        assertRejected( lengthOf( DaemonProtocol.MAX_TOKEN_LENGTH + 1 ), DaemonProtocol.MAX_TOKEN_LENGTH );
+
+        try
+        {
+            DaemonProtocol.readCount( input( lengthOf( Integer.MAX_VALUE ) ) );
+            fail();
+        }
+        catch ( ProtocolException e )
+        {
+            // expected
+        }
+
+        try
+        {
+            new DaemonProtocol.FrameInputStream( input( new byte[] { 0, -1, -1, -1, -1 } ) ).read();
+            fail();
+        }
+        catch ( ProtocolException e )
+        {
+            // expected
+        }
+    }
+
+    public void testRequestIsBounded() throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        String large = new String( new char[DaemonProtocol.MAX_REQUEST_LENGTH / 2 - 4] ).replace( '\0', 'x' );
+        DaemonProtocol.writeString( out, large );
+        DaemonProtocol.writeString( out, large );
+        DaemonProtocol.writeString( out, "over" );
+
+        DataInputStream request = DaemonProtocol.requestInput( input( bytes.toByteArray() ) );
+        assertEquals( large, DaemonProtocol.readString( request ) );
+        assertEquals( large, DaemonProtocol.readString( request ) );
+        try
+        {
+            DaemonProtocol.readString( request );
+            fail();
+        }
+        catch ( ProtocolException e )
+        {
+            // expected
+        }
+    }
+
+    private static void assertRejected( byte[] data, int maxLength ) throws IOException
+    {
+        try
+        {
+            DaemonProtocol.readString( input( data ), maxLength );
+            fail();
+        }
+        catch ( ProtocolException e )
+        {
+            // expected, before anything was allocated
+        }
+    }
+
+    private static byte[] lengthOf( int length ) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream( bytes ).writeInt( length );
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream input( byte[] data )
+    {
+        return new DataInputStream( new ByteArrayInputStream( data ) );
+    }
+}
@@ -0,0 +1,131 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import fr.lteconsulting.mvnrun.DirectorySnapshot.Entry;
+
+/**
+ * Unit test for the directory snapshots kept in part on disk when they do not fit their budget.
+ */
+public class DirectorySnapshotTest
+    extends TestCase
+{
+    private static final int DIRECTORIES = 35;
+
+    private File root;
+
+    private File file;
+
+    protected void setUp() throws IOException
+    {
+        root = Files.createTempDirectory( "mvnrun-snapshot" ).toFile();
+        file = new File( root, MavenIndWriter.SNAPSHOT_FILE );
+    }
+
+    public void testSavesWhatItSpilled() throws IOException
+    {
+        DirectorySnapshot snapshot = new DirectorySnapshot( "test", 10, root );
+        for ( int d = 0; d < DIRECTORIES; d++ )
+        {
+            snapshot.put( path( d ), entry( d ), uinfos( d ) );
+        }
+        // in batches, whatever is in memory once the budget is exceeded
+        assertTrue( snapshot.getSpilled() >= DIRECTORIES - 10 );
+        assertEquals( DIRECTORIES, snapshot.size() );
+        snapshot.save( file );
+        snapshot.close();
+
+        DirectorySnapshot loaded = DirectorySnapshot.load( file, "test" );
+        assertEquals( DIRECTORIES, loaded.size() );
+        assertEquals( 0, loaded.getSpilled() );
+        for ( int d = 0; d < DIRECTORIES; d++ )
+        {
+            assertTrue( loaded.isUnchanged( path( d ), entry( d ) ) );
+            assertEquals( uinfos( d ), loaded.getUinfos( path( d ) ) );
+        }
+    }
+
+    public void testListsTheDirectoriesOfASubTree()
+    {
+        DirectorySnapshot snapshot = new DirectorySnapshot( "test" );
+        String a = File.separator + "a";
+        String b = a + File.separator + "b";
+        String c = b + File.separator + "c";
+        String ab = File.separator + "ab";
+        for ( String path : Arrays.asList( ab, c, a ) )
+        {
+            snapshot.put( path, new Entry( 1, 1, 1 ), Arrays.asList( path ) );
+        }
+
+        assertEquals( Arrays.asList( a, c ), snapshot.getSubTree( a ) );
+        // a parent which holds no file is not recorded, the directories below it are
+        assertEquals( Arrays.asList( c ), snapshot.getSubTree( b ) );
+        assertTrue( snapshot.getSubTree( File.separator + "x" ).isEmpty() );
+
+        // kept up to date once looked up
+        snapshot.put( b, new Entry( 1, 1, 1 ), Arrays.asList( b ) );
+        snapshot.remove( c );
+        assertEquals( Arrays.asList( a, b ), snapshot.getSubTree( a ) );
+        assertEquals( Arrays.asList( a, b, ab ), snapshot.getSubTree( "" ) );
+    }
+
+    public void testLooksUpLargeSnapshotsOnDisk() throws IOException
+    {
+        DirectorySnapshot snapshot = new DirectorySnapshot( "test" );
+        for ( int d = 0; d < DIRECTORIES; d++ )
+        {
+            snapshot.put( path( d ), entry( d ), uinfos( d ) );
+        }
+        snapshot.save( file );
+
+        DirectorySnapshot loaded = DirectorySnapshot.load( file, "test", 10, root );
+        try
+        {
+            assertEquals( DIRECTORIES, loaded.getSpilled() );
+            for ( int d = 0; d < DIRECTORIES; d++ )
+            {
+                assertTrue( loaded.isUnchanged( path( d ), entry( d ) ) );
+                assertFalse( loaded.isUnchanged( path( d ), entry( d + 1 ) ) );
+                assertEquals( uinfos( d ), loaded.getUinfos( path( d ) ) );
+            }
+            assertFalse( loaded.isUnchanged( "org/unknown", entry( 0 ) ) );
+            assertTrue( loaded.getUinfos( "org/unknown" ).isEmpty() );
+
+            try
+            {
+                loaded.getPaths();
+                fail();
+            }
+            catch ( IllegalStateException e )
+            {
+                // only a snapshot held in memory can be walked
+            }
+        }
+        finally
+        {
+            loaded.close();
+        }
+    }
+
+    private static String path( int d )
+    {
+        return "org/example" + ( d % 4 ) + "/lib" + d + "/1.0";
+    }
+
+    private static Entry entry( int d )
+    {
+        return new Entry( 1000L * d, d % 3, 31L * d );
+    }
+
+    private static List<String> uinfos( int d )
+    {
+        return Arrays.asList( "org.example" + ( d % 4 ) + "|lib" + d + "|1.0|NA|jar",
+                              "org.example" + ( d % 4 ) + "|lib" + d + "|1.0|sources|jar" );
+    }
+}
@@ -0,0 +1,115 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the applications run inside the current JVM.
+ */
+public class InProcessLauncherTest
+    extends TestCase
+{
+    public void testReturningMainIsSuccess() throws Exception
+    {
+        assertEquals( 0, InProcessLauncher.launch( classpath(), null, null, Returning.class.getName(),
+                                                   new String[] { "a" } ) );
+    }
+
+    public void testFailingMainIsFailure() throws Exception
+    {
+        assertEquals( 1, InProcessLauncher.launch( classpath(), null, null, Failing.class.getName(),
+                                                   new String[0] ) );
+    }
+
+    public void testMainIsLoadedInAnIsolatedLoader() throws Exception
+    {
+        Class<?> loaded =
+            InProcessLauncher.loadMain( classpath(), null, null, Returning.class.getName() ).getDeclaringClass();
+
+        assertNotSame( Returning.class, loaded );
+        assertNotSame( getClass().getClassLoader(), loaded.getClassLoader() );
+    }
+
+    /**
+     * System.exit ends the JVM with its status, run in a JVM of its own.
+     */
+    public void testSystemExitEndsTheJvmWithItsStatus() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        ProcessBuilder builder =
+            new ProcessBuilder( new File( System.getProperty( "java.home" ), "bin/java" ).getPath(), "-cp",
+                                MavenRun.join( Arrays.asList( location( InProcessLauncher.class ),
+                                                              location( getClass() ), location( TestCase.class ) ),
+                                               File.pathSeparator ),
+                                Launch.class.getName() );
+
+        int exitCode = ProcessLauncher.capture( builder, null, out, err, new LaunchMetrics() );
+
+        assertEquals( err.toString( "UTF-8" ), 7, exitCode );
+        assertEquals( "exiting\n", out.toString( "UTF-8" ) );
+    }
+
+    private List<File> classpath()
+    {
+        return Arrays.asList( new File( location( getClass() ) ) );
+    }
+
+    private static String location( Class<?> type )
+    {
+        try
+        {
+            return new File( type.getProtectionDomain().getCodeSource().getLocation().toURI() ).getPath();
+        }
+        catch ( Exception e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    public static class Returning
+    {
+        public static void main( String[] args )
+        {
+            if ( args.length != 1 )
+            {
+                throw new IllegalArgumentException();
+            }
+        }
+    }
+
+    public static class Failing
+    {
+        public static void main( String[] args )
+        {
+            throw new IllegalStateException( "expected failure" );
+        }
+    }
+
+    public static class Exiting
+    {
+        public static void main( String[] args )
+        {
+            System.out.println( "exiting" );
+            System.exit( 7 );
+        }
+    }
+
+    /**
+     * Launches {@link Exiting} in process, what follows the launch must not run.
+     */
+    public static class Launch
+    {
+        public static void main( String[] args ) throws Exception
+        {
+            File classes = new File( location( Launch.class ) );
+            int exitCode = InProcessLauncher.launch( Arrays.asList( classes ), null, null, Exiting.class.getName(),
+                                                     new String[0] );
+            System.out.println( "returned " + exitCode );
+        }
+    }
+}
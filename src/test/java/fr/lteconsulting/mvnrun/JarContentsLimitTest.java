@@ -0,0 +1,92 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.index.ArtifactContext;
+import org.apache.maven.index.ArtifactInfo;
+import org.apache.maven.index.context.IndexCreator;
+import org.apache.maven.index.creator.JarFileContentsIndexCreator;
+import org.apache.maven.index.creator.MinimalArtifactInfoIndexCreator;
+
+/**
+ * Unit test for the index creator leaving out the content of jars having too many entries.
+ */
+public class JarContentsLimitTest
+    extends TestCase
+{
+    private File jar;
+
+    protected void setUp() throws IOException
+    {
+        jar = new File( Files.createTempDirectory( "mvnrun-jar-contents" ).toFile(), "lib-1.0.jar" );
+        try ( JarOutputStream out = new JarOutputStream( new FileOutputStream( jar ) ) )
+        {
+            for ( String name : Arrays.asList( "org/example/A.class", "org/example/B.class", "org/example/C.class" ) )
+            {
+                out.putNextEntry( new ZipEntry( name ) );
+                out.write( new byte[] { 1, 2, 3 } );
+                out.closeEntry();
+            }
+        }
+    }
+
+    public void testIndexesTheContentOfJarsWithinTheLimit() throws IOException
+    {
+        MemoryBudget budget = new MemoryBudget();
+        budget.setMaxJarEntries( 3 );
+
+        ArtifactContext ac = populate( budget );
+        assertNotNull( ac.getArtifactInfo().getClassNames() );
+        assertTrue( ac.getArtifactInfo().getClassNames().contains( "/org/example/C" ) );
+        assertEquals( 0, budget.getSkippedJars() );
+    }
+
+    public void testLeavesOutTheContentOfJarsOverTheLimit() throws IOException
+    {
+        MemoryBudget budget = new MemoryBudget();
+        budget.setMaxJarEntries( 2 );
+
+        ArtifactContext ac = populate( budget );
+        assertNull( ac.getArtifactInfo().getClassNames() );
+        assertEquals( 1, budget.getSkippedJars() );
+    }
+
+    /**
+     * A snapshot taken with another limit does not tell which jars had their content indexed.
+     */
+    public void testTheLimitIsPartOfTheSnapshotKey()
+    {
+        MemoryBudget limited = new MemoryBudget();
+        limited.setMaxJarEntries( 2 );
+        MemoryBudget other = new MemoryBudget();
+        other.setMaxJarEntries( 3 );
+
+        String key = snapshotKey( new JarContentsLimit( new JarFileContentsIndexCreator(), limited ) );
+        assertEquals( key, snapshotKey( new JarContentsLimit( new JarFileContentsIndexCreator(), limited ) ) );
+        assertFalse( key.equals( snapshotKey( new JarContentsLimit( new JarFileContentsIndexCreator(), other ) ) ) );
+        assertFalse( key.equals( snapshotKey( new JarFileContentsIndexCreator() ) ) );
+    }
+
+    private static String snapshotKey( IndexCreator jarContents )
+    {
+        return MavenIndWriter.snapshotKey(
+            Arrays.<IndexCreator>asList( new MinimalArtifactInfoIndexCreator(), jarContents ) );
+    }
+
+    private ArtifactContext populate( MemoryBudget budget ) throws IOException
+    {
+        ArtifactContext ac = new ArtifactContext( null, jar, null,
+                                                  new ArtifactInfo( "test", "org.example", "lib", "1.0", null, "jar" ),
+                                                  null );
+        new JarContentsLimit( new JarFileContentsIndexCreator(), budget ).populateArtifactInfo( ac );
+        return ac;
+    }
+}
@@ -0,0 +1,150 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import junit.framework.TestCase;
+
+import static fr.lteconsulting.mvnrun.MavenRunApp.AppOptions;
+
+/**
+ * Unit test for the pool keys, and requests served by warm {@link PooledMain} JVMs.
+ */
+public class JvmPoolTest
+    extends TestCase
+{
+    private File directory;
+
+    private ResolvedClasspath resolved;
+
+    private AppOptions options;
+
+    protected void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory( "mvnrun-pool" ).toFile();
+        File jar = new File( directory, "echo.jar" );
+        try ( JarOutputStream out = new JarOutputStream( new FileOutputStream( jar ) );
+              InputStream in = getClass().getResourceAsStream( "JvmPoolTest$Echo.class" ) )
+        {
+            out.putNextEntry( new JarEntry( Echo.class.getName().replace( '.', '/' ) + ".class" ) );
+            byte[] buffer = new byte[8192];
+            int n;
+            while ( ( n = in.read( buffer ) ) > 0 )
+            {
+                out.write( buffer, 0, n );
+            }
+        }
+        resolved = new ResolvedClasspath( "g:echo:1.0", jar,
+                                          Arrays.asList( new ResolvedClasspath.Entry( "g:echo:1.0", jar ) ) );
+
+        options = new AppOptions();
+        options.mainClass = Echo.class.getName();
+        options.cacheDir = new File( directory, "cache" ).getAbsolutePath();
+        options.profilesFile = new File( directory, "none" ).getAbsolutePath();
+        options.pool = 1;
+        options.poolMaxUses = 2;
+    }
+
+    public void testKeyDependsOnTheEnvironment()
+    {
+        Map<String, String> environment = new HashMap<>();
+        environment.put( "A", "1" );
+        environment.put( "B", "2" );
+        Map<String, String> reordered = new HashMap<>();
+        reordered.put( "B", "2" );
+        reordered.put( "A", "1" );
+        Map<String, String> changed = new HashMap<>( environment );
+        changed.put( "B", "3" );
+
+        String key = JvmPool.key( resolved, options, directory, environment );
+        assertEquals( key, JvmPool.key( resolved, options, directory, reordered ) );
+        assertFalse( key.equals( JvmPool.key( resolved, options, directory, changed ) ) );
+        assertFalse( key.equals( JvmPool.key( resolved, options, new File( directory, "other" ), environment ) ) );
+    }
+
+    /**
+     * A request which returns keeps its JVM, a request calling System.exit ends it with its exit code.
+     */
+    public void testServesRequestsFromWarmJvms() throws Exception
+    {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        JvmPool pool = new JvmPool( resolved, options, directory, System.getenv(), executor );
+        try
+        {
+            pool.reserve();
+            LaunchMetrics metrics = new LaunchMetrics();
+            JvmPool.Jvm jvm = pool.take( metrics );
+            assertEquals( Boolean.FALSE, metrics.get( "poolHit" ) );
+
+            ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+            ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+            int exitCode = jvm.run( Arrays.asList( "a" ), input( "world\n" ), stdout, stderr, metrics );
+            assertEquals( 0, exitCode );
+            assertEquals( "hello a world\n", stdout.toString( "UTF-8" ) );
+            assertEquals( "done\n", stderr.toString( "UTF-8" ) );
+            pool.release( jvm, true );
+
+            pool.reserve();
+            metrics = new LaunchMetrics();
+            jvm = pool.take( metrics );
+            assertEquals( Boolean.TRUE, metrics.get( "poolHit" ) );
+
+            stdout = new ByteArrayOutputStream();
+            try
+            {
+                jvm.run( Arrays.asList( "b", "4" ), input( "again\n" ), stdout, new ByteArrayOutputStream(), metrics );
+                fail();
+            }
+            catch ( EOFException e )
+            {
+                // the JVM ended during the request
+            }
+            assertEquals( 4, jvm.waitFor() );
+            assertEquals( "hello b again\n", stdout.toString( "UTF-8" ) );
+            pool.release( jvm, false );
+        }
+        finally
+        {
+            pool.shutdown();
+            executor.shutdown();
+        }
+    }
+
+    private static InputStream input( String text )
+    {
+        return new ByteArrayInputStream( text.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * Greets the line read from stdin, and exits with the second argument if any.
+     */
+    public static class Echo
+    {
+        public static void main( String[] args ) throws Exception
+        {
+            BufferedReader in = new BufferedReader( new InputStreamReader( System.in, StandardCharsets.UTF_8 ) );
+            System.out.println( "hello " + args[0] + " " + in.readLine() );
+            if ( args.length > 1 )
+            {
+                System.exit( Integer.parseInt( args[1] ) );
+            }
+            System.err.println( "done" );
+        }
+    }
+}
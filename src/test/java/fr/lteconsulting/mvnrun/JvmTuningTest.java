@@ -0,0 +1,176 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the JVM tuning profiles and the detection of container limits.
+ */
+public class JvmTuningTest
+    extends TestCase
+{
+    private static final long GB = 1024L * 1024 * 1024;
+
+    private File directory;
+
+    protected void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory( "mvnrun-tuning" ).toFile();
+    }
+
+    public void testCgroupV2Limits() throws IOException
+    {
+        write( new File( directory, "cpu.max" ), "150000 100000\n" );
+        write( new File( directory, "memory.max" ), String.valueOf( 2 * GB ) + "\n" );
+
+        JvmTuning.Limits limits = JvmTuning.detect( directory, noProcessCgroups(), 16, 64 * GB );
+
+        assertEquals( 2, limits.getCpus() );
+        assertEquals( 2 * GB, limits.getMemoryBytes() );
+    }
+
+    public void testCgroupV2WithoutLimits() throws IOException
+    {
+        write( new File( directory, "cpu.max" ), "max 100000\n" );
+        write( new File( directory, "memory.max" ), "max\n" );
+
+        JvmTuning.Limits limits = JvmTuning.detect( directory, noProcessCgroups(), 16, 64 * GB );
+
+        assertEquals( 16, limits.getCpus() );
+        assertEquals( 64 * GB, limits.getMemoryBytes() );
+    }
+
+    public void testCgroupV1Limits() throws IOException
+    {
+        new File( directory, "cpu" ).mkdirs();
+        new File( directory, "memory" ).mkdirs();
+        write( new File( directory, "cpu/cpu.cfs_quota_us" ), "400000\n" );
+        write( new File( directory, "cpu/cpu.cfs_period_us" ), "100000\n" );
+        write( new File( directory, "memory/memory.limit_in_bytes" ), "9223372036854771712\n" );
+
+        JvmTuning.Limits limits = JvmTuning.detect( directory, noProcessCgroups(), 16, 64 * GB );
+
+        assertEquals( 4, limits.getCpus() );
+        assertEquals( 64 * GB, limits.getMemoryBytes() );
+    }
+
+    /**
+     * The limits of the cgroup of the process and of its ancestors apply, the lowest one winning.
+     */
+    public void testCgroupV2OfTheProcess() throws IOException
+    {
+        File service = new File( directory, "system.slice/app.service" );
+        assertTrue( service.mkdirs() );
+        write( new File( directory, "cpu.max" ), "max 100000\n" );
+        write( new File( directory, "system.slice/memory.max" ), String.valueOf( 4 * GB ) + "\n" );
+        write( new File( service, "cpu.max" ), "300000 100000\n" );
+        write( new File( service, "memory.max" ), "max\n" );
+        File processCgroups = new File( directory, "cgroup" );
+        write( processCgroups, "0::/system.slice/app.service\n" );
+
+        JvmTuning.Limits limits = JvmTuning.detect( directory, processCgroups, 16, 64 * GB );
+
+        assertEquals( 3, limits.getCpus() );
+        assertEquals( 4 * GB, limits.getMemoryBytes() );
+    }
+
+    /**
+     * In a container, the path of the process' cgroup is not visible and the mounted root is its cgroup.
+     */
+    public void testCgroupV1OfTheProcess() throws IOException
+    {
+        new File( directory, "cpu" ).mkdirs();
+        assertTrue( new File( directory, "memory/batch" ).mkdirs() );
+        write( new File( directory, "cpu/cpu.cfs_quota_us" ), "200000\n" );
+        write( new File( directory, "cpu/cpu.cfs_period_us" ), "100000\n" );
+        write( new File( directory, "memory/batch/memory.limit_in_bytes" ), String.valueOf( GB ) + "\n" );
+        File processCgroups = new File( directory, "cgroup" );
+        write( processCgroups, "5:memory:/batch\n4:cpu,cpuacct:/docker/0123\n1:name=systemd:/init.scope\n" );
+
+        JvmTuning.Limits limits = JvmTuning.detect( directory, processCgroups, 16, 64 * GB );
+
+        assertEquals( 2, limits.getCpus() );
+        assertEquals( GB, limits.getMemoryBytes() );
+    }
+
+    public void testNoCgroup()
+    {
+        JvmTuning.Limits limits = JvmTuning.detect( directory, noProcessCgroups(), 8, 16 * GB );
+
+        assertEquals( 8, limits.getCpus() );
+        assertEquals( 16 * GB, limits.getMemoryBytes() );
+    }
+
+    public void testProfilesAreSizedFromLimits() throws IOException
+    {
+        JvmTuning.Limits limits = new JvmTuning.Limits( 2, 4 * GB );
+
+        List<String> throughput = JvmTuning.options( JvmTuning.THROUGHPUT, limits, 17 );
+        assertTrue( throughput.contains( "-Xmx3072m" ) );
+        assertTrue( throughput.contains( "-Xms768m" ) );
+        assertTrue( throughput.contains( "-XX:ParallelGCThreads=2" ) );
+        assertTrue( throughput.contains( "-XX:ActiveProcessorCount=2" ) );
+
+        List<String> small = JvmTuning.options( JvmTuning.SMALL, limits, 8 );
+        assertTrue( small.contains( "-Xmx256m" ) );
+        assertFalse( small.contains( "-XX:ActiveProcessorCount=2" ) );
+
+        assertTrue( JvmTuning.options( JvmTuning.NONE, limits, 17 ).isEmpty() );
+    }
+
+    /**
+     * The memory left by mvnrun's own heap is shared by the JVMs running together.
+     */
+    public void testConcurrentJvmsShareTheMemory() throws IOException
+    {
+        JvmTuning.Limits limits = new JvmTuning.Limits( 2, 8 * GB ).share( 2 * GB, 3 );
+
+        assertEquals( 2 * GB, limits.getMemoryBytes() );
+        assertTrue( JvmTuning.options( JvmTuning.THROUGHPUT, limits, 17 ).contains( "-Xmx1536m" ) );
+        assertEquals( 64L * 1024 * 1024, new JvmTuning.Limits( 2, GB ).share( 2 * GB, 1 ).getMemoryBytes() );
+        assertEquals( 0, new JvmTuning.Limits( 2, 0 ).share( GB, 2 ).getMemoryBytes() );
+    }
+
+    public void testUnknownProfileIsRejected()
+    {
+        try
+        {
+            JvmTuning.options( "fast", new JvmTuning.Limits( 1, GB ), 17 );
+            fail();
+        }
+        catch ( IOException e )
+        {
+            assertTrue( e.getMessage().contains( "fast" ) );
+        }
+    }
+
+    public void testProfileOfArtifact() throws IOException
+    {
+        File file = new File( directory, "profiles.properties" );
+        write( file, "org.example\\:tool=small\norg.example\\:server\\:2.0=low-latency\n" );
+
+        assertEquals( "small", JvmTuning.profileOf( "org.example:tool:1.0", file ) );
+        assertEquals( "low-latency", JvmTuning.profileOf( "org.example:server:2.0", file ) );
+        assertNull( JvmTuning.profileOf( "org.example:server:1.0", file ) );
+        assertNull( JvmTuning.profileOf( "org.example:tool:1.0", new File( directory, "missing.properties" ) ) );
+    }
+
+    private File noProcessCgroups()
+    {
+        return new File( directory, "missing" );
+    }
+
+    private static void write( File file, String content ) throws IOException
+    {
+        try ( FileOutputStream out = new FileOutputStream( file ) )
+        {
+            out.write( content.getBytes( StandardCharsets.UTF_8 ) );
+        }
+    }
+}
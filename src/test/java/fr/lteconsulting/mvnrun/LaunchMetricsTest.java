@@ -0,0 +1,56 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the launch metrics record.
+ */
+public class LaunchMetricsTest
+    extends TestCase
+{
+    public void testRecordIsOneJsonLine()
+    {
+        LaunchMetrics metrics = new LaunchMetrics();
+        metrics.put( "artifact", "g:a:1.0" );
+        metrics.put( "cacheHit", true );
+        metrics.put( "artifacts", 3 );
+
+        String json = metrics.toJson();
+        assertTrue( json.startsWith( "{\"timestamp\":" ) );
+        assertTrue( json.contains( ",\"artifact\":\"g:a:1.0\",\"cacheHit\":true,\"artifacts\":3,\"totalMs\":" ) );
+        assertTrue( json.endsWith( "}" ) );
+    }
+
+    public void testStringsAreEscaped()
+    {
+        LaunchMetrics metrics = new LaunchMetrics();
+        metrics.put( "artifact", "a\"b\\c\nd" );
+
+        assertTrue( metrics.toJson().contains( "\"artifact\":\"a\\\"b\\\\c\\u000ad\"" ) );
+    }
+
+    public void testRecordsAreAppendedToTheTarget() throws IOException
+    {
+        File file = new File( Files.createTempDirectory( "mvnrun-metrics" ).toFile(), "metrics.jsonl" );
+        new LaunchMetrics().write( file.getPath(), null );
+        new LaunchMetrics().write( file.getPath(), null );
+
+        List<String> lines = Files.readAllLines( file.toPath(), StandardCharsets.UTF_8 );
+        assertEquals( 2, lines.size() );
+    }
+
+    public void testDashTargetsStderr() throws IOException
+    {
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        new LaunchMetrics().write( LaunchMetrics.STDERR, stderr );
+
+        assertTrue( new String( stderr.toByteArray(), StandardCharsets.UTF_8 ).endsWith( "}\n" ) );
+    }
+}
@@ -0,0 +1,74 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the lookups of artifacts in the local repository layout.
+ */
+public class LocalRepositoryTest
+    extends TestCase
+{
+    private File root;
+
+    private LocalRepository repository;
+
+    protected void setUp() throws IOException
+    {
+        root = Files.createTempDirectory( "mvnrun-local" ).toFile();
+        repository = new LocalRepository( root );
+
+        deploy( "org/example/lib/1.0", "lib-1.0.pom", "lib-1.0.jar", "lib-1.0-tests.jar" );
+        deploy( "org/example/web/2.0", "web-2.0.pom", "web-2.0.war" );
+        deploy( "org/example/nopom/1.0", "nopom-1.0.jar" );
+        deploy( "org/example/snap/1.0-SNAPSHOT", "snap-1.0-SNAPSHOT.pom", "snap-1.0-SNAPSHOT.jar" );
+    }
+
+    public void testFindsArtifactsWithTheirPom()
+    {
+        assertTrue( repository.contains( "org.example:lib:1.0" ) );
+        assertTrue( repository.contains( "org.example:lib:jar:tests:1.0" ) );
+        assertTrue( repository.contains( "org.example:web:war:2.0" ) );
+        assertTrue( repository.contains( "org.example:snap:1.0-SNAPSHOT" ) );
+    }
+
+    public void testMissingFilesAreNotFound()
+    {
+        assertFalse( repository.contains( "org.example:lib:1.1" ) );
+        assertFalse( repository.contains( "org.example:lib:jar:sources:1.0" ) );
+        assertFalse( repository.contains( "org.example:web:2.0" ) );
+        assertFalse( repository.contains( "org.example:nopom:1.0" ) );
+    }
+
+    public void testRangesAndMetaVersionsAreNeverFound()
+    {
+        assertFalse( repository.contains( "org.example:lib:[1.0,2.0)" ) );
+        assertFalse( repository.contains( "org.example:lib:LATEST" ) );
+        assertFalse( repository.contains( "org.example:lib:RELEASE" ) );
+    }
+
+    public void testInvalidCoordinatesAreNotFound()
+    {
+        assertFalse( repository.contains( "org.example" ) );
+        assertFalse( repository.contains( "" ) );
+    }
+
+    public void testOfflineModeIsKept()
+    {
+        assertFalse( repository.isOffline() );
+        assertTrue( new LocalRepository( root, true ).isOffline() );
+    }
+
+    private void deploy( String folder, String... files ) throws IOException
+    {
+        File directory = new File( root, folder );
+        assertTrue( directory.mkdirs() );
+        for ( String file : files )
+        {
+            Files.write( new File( directory, file ).toPath(), new byte[] { 1 } );
+        }
+    }
+}
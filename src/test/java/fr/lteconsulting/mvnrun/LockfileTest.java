@@ -0,0 +1,89 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for frozen classpaths.
+ */
+public class LockfileTest
+    extends TestCase
+{
+    private File directory;
+
+    private File jar;
+
+    private File dependency;
+
+    protected void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory( "mvnrun-lock" ).toFile();
+        jar = new File( directory, "app.jar" );
+        dependency = new File( directory, "lib.jar" );
+        write( jar, "application" );
+        write( dependency, "library" );
+    }
+
+    public void testLockedClasspathIsRestored() throws IOException
+    {
+        File file = new File( directory, Lockfile.DEFAULT_NAME );
+        Lockfile.write( file, classpath(), "org.example.Main" );
+
+        Lockfile lockfile = Lockfile.read( file );
+        assertEquals( "g:app:1.0", lockfile.getArtifact() );
+        assertEquals( "org.example.Main", lockfile.getMainClass() );
+
+        ResolvedClasspath locked = lockfile.verify();
+        assertEquals( jar.getAbsolutePath(), locked.getMainJar().getAbsolutePath() );
+        assertEquals( Arrays.asList( dependency.getAbsolutePath(), jar.getAbsolutePath() ), locked.getPaths() );
+        assertEquals( "g:lib:jar:2.0", locked.getEntries().get( 0 ).getCoordinate() );
+    }
+
+    public void testFreezingIsReproducible() throws IOException
+    {
+        File first = new File( directory, "first.lock" );
+        File second = new File( directory, "second.lock" );
+        Lockfile.write( first, classpath(), null );
+        Lockfile.write( second, classpath(), null );
+
+        assertTrue( Arrays.equals( Files.readAllBytes( first.toPath() ), Files.readAllBytes( second.toPath() ) ) );
+    }
+
+    public void testModifiedFileIsRejected() throws IOException
+    {
+        File file = new File( directory, Lockfile.DEFAULT_NAME );
+        Lockfile.write( file, classpath(), null );
+
+        write( dependency, "tampered" );
+
+        try
+        {
+            Lockfile.read( file ).verify();
+            fail();
+        }
+        catch ( IOException e )
+        {
+            assertTrue( e.getMessage().contains( "g:lib:jar:2.0" ) );
+        }
+    }
+
+    private ResolvedClasspath classpath()
+    {
+        return new ResolvedClasspath( "g:app:1.0", jar,
+                Arrays.asList( new ResolvedClasspath.Entry( "g:lib:jar:2.0", dependency ),
+                               new ResolvedClasspath.Entry( "g:app:jar:1.0", jar ) ) );
+    }
+
+    private static void write( File file, String content ) throws IOException
+    {
+        try ( FileOutputStream out = new FileOutputStream( file ) )
+        {
+            out.write( content.getBytes( "UTF-8" ) );
+        }
+    }
+}
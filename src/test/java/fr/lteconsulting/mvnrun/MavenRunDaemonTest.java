@@ -0,0 +1,239 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+/**
+ * Talks to a daemon on the loopback interface, with and without its token.
+ */
+public class MavenRunDaemonTest
+    extends TestCase
+{
+    private File daemonFile;
+
+    private Thread serving;
+
+    private Properties daemon;
+
+    protected void setUp() throws Exception
+    {
+        daemonFile = new File( Files.createTempDirectory( "mvnrun-daemon" ).toFile(), "daemon.properties" );
+        final MavenRunDaemon server = new MavenRunDaemon( 0, true, daemonFile );
+        serving = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    server.serve();
+                }
+                catch ( IOException e )
+                {
+                    throw new IllegalStateException( e );
+                }
+            }
+        } );
+        serving.start();
+
+        for ( int i = 0; i < 500 && !daemonFile.isFile(); i++ )
+        {
+            Thread.sleep( 10 );
+        }
+        daemon = new Properties();
+        try ( InputStream in = new FileInputStream( daemonFile ) )
+        {
+            daemon.load( in );
+        }
+    }
+
+    protected void tearDown() throws Exception
+    {
+        request( daemon.getProperty( "token" ), DaemonProtocol.REQUEST_STOP );
+        serving.join( 10000 );
+        assertFalse( serving.isAlive() );
+        assertFalse( daemonFile.exists() );
+    }
+
+    public void testServesRequestsWithTheToken() throws IOException
+    {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+
+        assertEquals( 0, request( daemon.getProperty( "token" ), DaemonProtocol.REQUEST_STATS, stdout ) );
+        assertTrue( stdout.toString( "UTF-8" ).contains( "Requests served:   0" ) );
+    }
+
+    public void testRefusesABadToken() throws IOException
+    {
+        assertEquals( -1, request( daemon.getProperty( "token" ) + "x", DaemonProtocol.REQUEST_STATS ) );
+        assertEquals( -1, request( "", DaemonProtocol.REQUEST_STOP ) );
+
+        // still serving
+        assertEquals( 0, request( daemon.getProperty( "token" ), DaemonProtocol.REQUEST_STATS ) );
+    }
+
+    public void testRefusesAHugeTokenWithoutReadingIt() throws IOException
+    {
+        try ( Socket socket = connect() )
+        {
+            DataOutputStream out = new DataOutputStream( socket.getOutputStream() );
+            out.writeInt( Integer.MAX_VALUE );
+            out.flush();
+
+            assertEquals( -1, readChannel( new DataInputStream( socket.getInputStream() ) ) );
+        }
+
+        assertEquals( 0, request( daemon.getProperty( "token" ), DaemonProtocol.REQUEST_STATS ) );
+    }
+
+    /**
+     * A cache hit is verified like a resolution, the tampered jar being rejected before anything is launched.
+     */
+    public void testVerifiesCacheHits() throws IOException
+    {
+        File cache = new File( daemonFile.getParentFile(), "cache" );
+        tamperCachedJar( cache );
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertEquals( -1, run( output, "--cache-dir", cache.getPath(), "--verify" ) );
+        assertTrue( output.toString( "UTF-8" ),
+                    output.toString( "UTF-8" ).contains( "g:lib:1.0 failed the verification" ) );
+        assertNull( new ClasspathCache( cache, 0 ).get( "g:lib:1.0" ) );
+    }
+
+    /**
+     * A relative cache folder is the one of the client's working directory, where the command run without the daemon
+     * finds it.
+     */
+    public void testUsesTheCacheFolderOfTheClient() throws IOException
+    {
+        File cache = new File( daemonFile.getParentFile(), "cache" );
+        tamperCachedJar( cache );
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertEquals( -1, run( output, "--cache-dir", "cache", "--verify" ) );
+        assertTrue( output.toString( "UTF-8" ),
+                    output.toString( "UTF-8" ).contains( "g:lib:1.0 failed the verification" ) );
+    }
+
+    /**
+     * Caches the classpath of g:lib:1.0, whose jar is then changed without changing its size or date.
+     */
+    private void tamperCachedJar( File cache ) throws IOException
+    {
+        File directory = daemonFile.getParentFile();
+        File jar = new File( directory, "lib-1.0.jar" );
+        Files.write( jar.toPath(), "library".getBytes( "UTF-8" ) );
+        Files.write( new File( directory, "lib-1.0.jar.sha1" ).toPath(),
+                     Checksums.sha1( "library" ).getBytes( "UTF-8" ) );
+        new ClasspathCache( cache, 0 ).put( new ResolvedClasspath( "g:lib:1.0", jar, Arrays.asList(
+            new ResolvedClasspath.Entry( "g:lib:jar:1.0", jar ) ) ) );
+        // same size and date, so that the cached entry stays valid
+        long lastModified = jar.lastModified();
+        Files.write( jar.toPath(), "librarz".getBytes( "UTF-8" ) );
+        assertTrue( jar.setLastModified( lastModified ) );
+    }
+
+    /**
+     * Runs g:lib:1.0 from the directory of the daemon file, with an empty standard input.
+     */
+    private int run( ByteArrayOutputStream output, String... options ) throws IOException
+    {
+        ByteArrayOutputStream launch = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream( launch );
+        DaemonProtocol.writeString( body, daemonFile.getParentFile().getAbsolutePath() );
+        body.writeInt( options.length + 3 );
+        for ( String arg : Arrays.asList( "app", "--artifact", "g:lib:1.0" ) )
+        {
+            DaemonProtocol.writeString( body, arg );
+        }
+        for ( String arg : options )
+        {
+            DaemonProtocol.writeString( body, arg );
+        }
+        body.writeInt( 0 );
+        new DaemonProtocol.FrameOutputStream( body, DaemonProtocol.CHANNEL_STDIN ).end();
+
+        return request( daemon.getProperty( "token" ), DaemonProtocol.REQUEST_RUN, launch.toByteArray(), output );
+    }
+
+    private int request( String token, String kind ) throws IOException
+    {
+        return request( token, kind, new ByteArrayOutputStream() );
+    }
+
+    private int request( String token, String kind, ByteArrayOutputStream output ) throws IOException
+    {
+        return request( token, kind, new byte[0], output );
+    }
+
+    /**
+     * @param body what follows the kind of request
+     * @param output receives the stdout and stderr frames
+     * @return the exit code sent by the daemon, -1 if it closed the connection without one
+     */
+    private int request( String token, String kind, byte[] body, ByteArrayOutputStream output ) throws IOException
+    {
+        try ( Socket socket = connect() )
+        {
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+            DaemonProtocol.writeString( out, token );
+            DaemonProtocol.writeString( out, kind );
+            out.write( body );
+            out.flush();
+
+            DataInputStream in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+            while ( true )
+            {
+                int channel = readChannel( in );
+                if ( channel < 0 )
+                {
+                    return -1;
+                }
+                byte[] payload = new byte[in.readInt()];
+                in.readFully( payload );
+                if ( channel == DaemonProtocol.CHANNEL_EXIT )
+                {
+                    return new DataInputStream( new ByteArrayInputStream( payload ) ).readInt();
+                }
+                output.write( payload );
+            }
+        }
+    }
+
+    /**
+     * @return the channel of the next frame, -1 if the daemon closed the connection
+     */
+    private static int readChannel( DataInputStream in ) throws IOException
+    {
+        try
+        {
+            return in.read();
+        }
+        catch ( SocketException e )
+        {
+            // reset, the daemon closed without reading what was sent
+            return -1;
+        }
+    }
+
+    private Socket connect() throws IOException
+    {
+        return new Socket( InetAddress.getLoopbackAddress(), Integer.parseInt( daemon.getProperty( "port" ) ) );
+    }
+}
@@ -0,0 +1,194 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+import org.eclipse.aether.AbstractRepositoryListener;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositoryEvent;
+import org.jboss.shrinkwrap.resolver.api.maven.ConfigurableMavenResolverSystem;
+import org.jboss.shrinkwrap.resolver.api.maven.Maven;
+
+/**
+ * Resolution test, using a file based repository in place of a remote one.
+ */
+public class MavenRunResolveTest
+    extends TestCase
+{
+    private File remote;
+
+    private File local;
+
+    private String previousLocal;
+
+    protected void setUp() throws IOException
+    {
+        File root = Files.createTempDirectory( "mvnrun-resolve" ).toFile();
+        remote = new File( root, "remote" );
+        local = new File( root, "local" );
+
+        deploy( "fr.test", "lib", "1.0", "" );
+        deploy( "fr.test", "app", "1.0", "<dependency><groupId>fr.test</groupId><artifactId>lib</artifactId>"
+            + "<version>1.0</version></dependency>" );
+
+        previousLocal = System.getProperty( "maven.repo.local" );
+        System.setProperty( "maven.repo.local", local.getAbsolutePath() );
+    }
+
+    protected void tearDown()
+    {
+        if ( previousLocal == null )
+        {
+            System.clearProperty( "maven.repo.local" );
+        }
+        else
+        {
+            System.setProperty( "maven.repo.local", previousLocal );
+        }
+    }
+
+    public void testSinglePassResolution()
+    {
+        ResolvedClasspath classpath = MavenRun.resolve( resolver(), "fr.test:app:1.0", true );
+
+        assertNotNull( classpath );
+        assertEquals( "app-1.0.jar", classpath.getMainJar().getName() );
+        assertEquals( 2, classpath.getEntries().size() );
+        for ( ResolvedClasspath.Entry entry : classpath.getEntries() )
+        {
+            assertTrue( entry.getFile().getAbsolutePath().startsWith( local.getAbsolutePath() ) );
+        }
+    }
+
+    public void testResolutionReport()
+    {
+        ResolutionReport first = new ResolutionReport();
+        assertNotNull( MavenRun.resolve( resolver(), "fr.test:app:1.0", first, true ) );
+
+        assertTrue( first.getDownloadedFiles() >= 2 );
+        assertEquals( 0, first.getLocalFiles() );
+        assertEquals( 0, first.getMissingFiles() );
+        assertTrue( first.getDownloadedBytes() > 0 );
+        assertEquals( 1, first.getRepositories().size() );
+        ResolutionReport.RepositoryStats stats = first.getRepositories().get( 0 );
+        assertEquals( remote.toURI().toString(), stats.getUrl() );
+        assertTrue( stats.getSucceeded() >= 2 );
+        assertEquals( 0, stats.getFailed() );
+        assertTrue( first.toJson().contains( "\"downloadedFiles\":" + first.getDownloadedFiles() ) );
+
+        ResolutionReport second = new ResolutionReport();
+        assertNotNull( MavenRun.resolve( resolver(), "fr.test:app:1.0", second, true ) );
+
+        assertEquals( 0, second.getDownloadedFiles() );
+        assertEquals( first.getDownloadedFiles(), second.getLocalFiles() );
+        assertEquals( 0, second.getDownloadedBytes() );
+    }
+
+    public void testMissingArtifactIsReported()
+    {
+        ResolutionReport report = new ResolutionReport();
+        try
+        {
+            MavenRun.resolve( resolver(), "fr.test:missing:1.0", report, true );
+            fail();
+        }
+        catch ( RuntimeException e )
+        {
+            // expected
+        }
+
+        assertEquals( 1, report.getRepositories().size() );
+        assertTrue( report.getRepositories().get( 0 ).getNotFound() > 0 );
+    }
+
+    /**
+     * The number of downloads is given to the session of the resolution only, the resolver getting its own back.
+     */
+    public void testThreadsApplyToTheResolutionOnly()
+    {
+        ConfigurableMavenResolverSystem resolver = resolver();
+        DefaultRepositorySystemSession session = ResolutionReport.sessionOf( resolver );
+        final List<Object> seen = new ArrayList<>();
+        session.setRepositoryListener( new AbstractRepositoryListener()
+        {
+            public void artifactDownloaded( RepositoryEvent event )
+            {
+                seen.add( event.getSession().getConfigProperties().get( "aether.connector.wagon.threads" ) );
+            }
+        } );
+
+        assertNotNull( MavenRun.resolve( resolver, "fr.test:app:1.0", null, 3, true ) );
+
+        assertFalse( seen.isEmpty() );
+        for ( Object threads : seen )
+        {
+            assertEquals( 3, threads );
+        }
+        assertNull( session.getConfigProperties().get( "aether.connector.wagon.threads" ) );
+        assertNull( System.getProperty( "aether.connector.wagon.threads" ) );
+    }
+
+    private ConfigurableMavenResolverSystem resolver()
+    {
+        ConfigurableMavenResolverSystem resolver = Maven.configureResolver();
+        resolver.withClassPathResolution( false ).withMavenCentralRepo( false ).withRemoteRepo( "test",
+            remote.toURI().toString(), "default" );
+        return resolver;
+    }
+
+    private void deploy( String groupId, String artifactId, String version, String dependencies ) throws IOException
+    {
+        File folder = new File( remote, groupId.replace( '.', '/' ) + "/" + artifactId + "/" + version );
+        folder.mkdirs();
+
+        // central is redefined so that transitive resolution never leaves the test repository
+        String pom = "<project><modelVersion>4.0.0</modelVersion><groupId>" + groupId + "</groupId><artifactId>"
+            + artifactId + "</artifactId><version>" + version + "</version><repositories><repository><id>central"
+            + "</id><url>" + remote.toURI() + "</url></repository></repositories><dependencies>" + dependencies
+            + "</dependencies></project>";
+        File pomFile = new File( folder, artifactId + "-" + version + ".pom" );
+        try ( OutputStream out = new FileOutputStream( pomFile ) )
+        {
+            out.write( pom.getBytes( "UTF-8" ) );
+        }
+        writeSha1( pomFile );
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue( "Manifest-Version", "1.0" );
+        File jarFile = new File( folder, artifactId + "-" + version + ".jar" );
+        new JarOutputStream( new FileOutputStream( jarFile ), manifest ).close();
+        writeSha1( jarFile );
+    }
+
+    private static void writeSha1( File file ) throws IOException
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( Files.readAllBytes( file.toPath() ) );
+            StringBuilder sb = new StringBuilder();
+            for ( byte b : digest )
+            {
+                sb.append( String.format( "%02x", b ) );
+            }
+            try ( OutputStream out = new FileOutputStream( file.getPath() + ".sha1" ) )
+            {
+                out.write( sb.toString().getBytes( "UTF-8" ) );
+            }
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IOException( e );
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the gzip stream compressing on several threads, read back with the gzip reader of the JDK.
+ */
+public class ParallelGzipOutputStreamTest
+    extends TestCase
+{
+    public void testIsAStandardGzipStream() throws IOException
+    {
+        byte[] data = sample( 3 * 1024 * 1024 + 17 );
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try ( ParallelGzipOutputStream out = new ParallelGzipOutputStream( compressed, 4, 64 * 1024 ) )
+        {
+            // in pieces which do not match the blocks
+            for ( int off = 0; off < data.length; off += 10000 )
+            {
+                out.write( data, off, Math.min( 10000, data.length - off ) );
+            }
+        }
+
+        assertTrue( Arrays.equals( data, gunzip( compressed.toByteArray() ) ) );
+
+        // primed with the previous blocks, the ratio is the one of a single stream
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        try ( GZIPOutputStream out = new GZIPOutputStream( single ) )
+        {
+            out.write( data );
+        }
+        assertTrue( compressed.size() < single.size() * 1.05 );
+    }
+
+    public void testEmptyStream() throws IOException
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new ParallelGzipOutputStream( compressed, 2 ).close();
+
+        assertEquals( 0, gunzip( compressed.toByteArray() ).length );
+    }
+
+    /**
+     * Text like data, which compresses as index data does
+     */
+    private static byte[] sample( int size )
+    {
+        String[] words = { "org", "apache", "maven", "plugin", "jar", "pom", "1.0", "SNAPSHOT", "sources", "|" };
+        Random random = new Random( 42 );
+        StringBuilder text = new StringBuilder();
+        while ( text.length() < size )
+        {
+            text.append( words[random.nextInt( words.length )] ).append( random.nextInt( 100 ) );
+        }
+        return text.substring( 0, size ).getBytes();
+    }
+
+    private static byte[] gunzip( byte[] compressed ) throws IOException
+    {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try ( InputStream in = new GZIPInputStream( new ByteArrayInputStream( compressed ) ) )
+        {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ( ( n = in.read( buffer ) ) > 0 )
+            {
+                data.write( buffer, 0, n );
+            }
+        }
+        return data.toByteArray();
+    }
+}
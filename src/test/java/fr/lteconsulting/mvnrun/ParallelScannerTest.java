@@ -0,0 +1,291 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.Bits;
+import org.apache.maven.index.ArtifactContext;
+import org.apache.maven.index.ArtifactContextProducer;
+import org.apache.maven.index.ArtifactInfo;
+import org.apache.maven.index.ArtifactScanningListener;
+import org.apache.maven.index.DefaultArtifactContextProducer;
+import org.apache.maven.index.DefaultIndexer;
+import org.apache.maven.index.DefaultIndexerEngine;
+import org.apache.maven.index.DefaultNexusIndexer;
+import org.apache.maven.index.DefaultQueryCreator;
+import org.apache.maven.index.DefaultScanner;
+import org.apache.maven.index.DefaultSearchEngine;
+import org.apache.maven.index.IndexerEngine;
+import org.apache.maven.index.NexusIndexer;
+import org.apache.maven.index.Scanner;
+import org.apache.maven.index.ScanningResult;
+import org.apache.maven.index.artifact.DefaultArtifactPackagingMapper;
+import org.apache.maven.index.context.IndexCreator;
+import org.apache.maven.index.context.IndexingContext;
+import org.apache.maven.index.creator.JarFileContentsIndexCreator;
+import org.apache.maven.index.creator.MinimalArtifactInfoIndexCreator;
+
+/**
+ * Indexes a small repository on several threads and compares the result with the single threaded scan.
+ */
+public class ParallelScannerTest
+    extends TestCase
+{
+    private File root;
+
+    private File repository;
+
+    private int indexSize;
+
+    /**
+     * Artifact documents of the last index, without the deleted ones and the deletion markers
+     */
+    private int liveArtifacts;
+
+    private List<IndexCreator> creators;
+
+    protected void setUp() throws IOException
+    {
+        root = Files.createTempDirectory( "mvnrun-scan" ).toFile();
+        repository = new File( root, "repository" );
+        creators =
+            Arrays.<IndexCreator>asList( new MinimalArtifactInfoIndexCreator(), new JarFileContentsIndexCreator() );
+        for ( int g = 0; g < 4; g++ )
+        {
+            for ( int a = 0; a < 5; a++ )
+            {
+                for ( String version : new String[] { "1.0", "1.1" } )
+                {
+                    deploy( "org.example" + g, "lib" + a, version );
+                }
+            }
+        }
+    }
+
+    public void testIndexesLikeTheDefaultScanner() throws Exception
+    {
+        CountingListener single = new CountingListener();
+        ArtifactContextProducer producer = new DefaultArtifactContextProducer( new DefaultArtifactPackagingMapper() );
+        IndexerEngine engine = new DefaultIndexerEngine();
+        int expected = index( "single", new DefaultScanner( producer ), engine, single );
+
+        CountingListener parallel = new CountingListener();
+        ParallelScanner scanner = new ParallelScanner( producer, engine, 4 );
+        int size = index( "parallel", scanner, scanner.getIndexerEngine(), parallel );
+
+        assertEquals( 40, single.discovered.size() );
+        assertEquals( expected, size );
+        Collections.sort( single.discovered );
+        Collections.sort( parallel.discovered );
+        assertEquals( single.discovered, parallel.discovered );
+        assertEquals( 40, parallel.finishedTotal );
+        assertTrue( parallel.started );
+        assertEquals( 0, parallel.errors );
+    }
+
+    public void testOnlyIndexesChangedDirectories() throws Exception
+    {
+        ParallelScanner first = indexIncrementally( new CountingListener() );
+        assertEquals( 0, first.getUnchanged() );
+        int size = indexSize;
+
+        ParallelScanner second = indexIncrementally( new CountingListener() );
+        assertEquals( 40, second.getUnchanged() );
+        assertEquals( size, indexSize );
+
+        // one version deployed, one removed
+        deploy( "org.example0", "lib0", "1.2" );
+        File removed = new File( repository, "org/example3/lib4/1.1" );
+        for ( File file : removed.listFiles() )
+        {
+            file.delete();
+        }
+        removed.delete();
+
+        CountingListener listener = new CountingListener();
+        ParallelScanner third = indexIncrementally( listener );
+        int artifacts = liveArtifacts;
+        assertEquals( 39, third.getUnchanged() );
+        // the new version and the marker of the deleted one, which indexer-core adds whatever the scanner
+        assertEquals( size + 2, indexSize );
+        assertTrue( listener.discovered.contains( "org.example0|lib0|1.2|NA|jar" ) );
+        assertFalse( listener.discovered.contains( "org.example3|lib4|1.1|NA|jar" ) );
+
+        // a jar deployed again
+        File jar = new File( repository, "org/example1/lib1/1.0/lib1-1.0.jar" );
+        assertTrue( jar.setLastModified( jar.lastModified() - 60000 ) );
+        ParallelScanner fourth = indexIncrementally( new CountingListener() );
+        assertEquals( 39, fourth.getUnchanged() );
+        // its document is replaced rather than added again
+        assertEquals( artifacts, liveArtifacts );
+    }
+
+    public void testStaysWithinTheMemoryBudget() throws Exception
+    {
+        MemoryBudget budget = new MemoryBudget();
+        budget.setMaxQueuedDirectories( 2 );
+        budget.setMaxJarEntries( 0 );
+        creators = Arrays.<IndexCreator>asList( new MinimalArtifactInfoIndexCreator(),
+                                                new JarContentsLimit( new JarFileContentsIndexCreator(), budget ) );
+
+        CountingListener listener = new CountingListener();
+        ParallelScanner scanner = new ParallelScanner(
+            new DefaultArtifactContextProducer( new DefaultArtifactPackagingMapper() ), new DefaultIndexerEngine(), 4 );
+        scanner.setMemoryBudget( budget );
+        index( "budget", scanner, scanner.getIndexerEngine(), listener );
+
+        // the directories which could not be queued are walked all the same
+        assertEquals( 40, listener.discovered.size() );
+        assertEquals( 0, listener.errors );
+        assertTrue( budget.getPeakQueuedDirectories() <= 2 );
+        assertEquals( 40, budget.getSkippedJars() );
+    }
+
+    /**
+     * Indexes with the snapshot of the previous run, kept in the index folder like the index command does.
+     */
+    private ParallelScanner indexIncrementally( ArtifactScanningListener listener ) throws Exception
+    {
+        File snapshotFile = new File( new File( root, "incremental" ), MavenIndWriter.SNAPSHOT_FILE );
+        DirectorySnapshot snapshot = new DirectorySnapshot( "test" );
+        ParallelScanner scanner = new ParallelScanner(
+            new DefaultArtifactContextProducer( new DefaultArtifactPackagingMapper() ), new DefaultIndexerEngine(), 4 );
+        scanner.setSnapshots( DirectorySnapshot.load( snapshotFile, "test" ), snapshot );
+
+        indexSize = index( "incremental", scanner, scanner.getIndexerEngine(), listener, false );
+        snapshot.save( snapshotFile );
+        return scanner;
+    }
+
+    private int index( String name, Scanner scanner, IndexerEngine engine, ArtifactScanningListener listener )
+        throws Exception
+    {
+        return index( name, scanner, engine, listener, true );
+    }
+
+    private int index( String name, Scanner scanner, IndexerEngine engine, ArtifactScanningListener listener,
+                       boolean delete )
+        throws Exception
+    {
+        DefaultSearchEngine searchEngine = new DefaultSearchEngine();
+        DefaultQueryCreator queryCreator = new DefaultQueryCreator();
+        NexusIndexer indexer = new DefaultNexusIndexer( new DefaultIndexer( searchEngine, engine, queryCreator ),
+                                                        scanner, engine, queryCreator );
+        IndexingContext context =
+            indexer.addIndexingContext( name, name, repository, new File( root, name ), null, null, creators );
+        try
+        {
+            indexer.scan( context, listener, true );
+            IndexSearcher searcher = context.acquireIndexSearcher();
+            try
+            {
+                IndexReader reader = searcher.getIndexReader();
+                Bits live = MultiFields.getLiveDocs( reader );
+                liveArtifacts = 0;
+                for ( int i = 0; i < reader.maxDoc(); i++ )
+                {
+                    if ( ( live == null || live.get( i ) ) && reader.document( i ).get( ArtifactInfo.UINFO ) != null )
+                    {
+                        liveArtifacts++;
+                    }
+                }
+            }
+            finally
+            {
+                context.releaseIndexSearcher( searcher );
+            }
+            return context.getSize();
+        }
+        finally
+        {
+            indexer.removeIndexingContext( context, delete );
+        }
+    }
+
+    private void deploy( String groupId, String artifactId, String version ) throws IOException
+    {
+        File folder = new File( repository, groupId.replace( '.', '/' ) + "/" + artifactId + "/" + version );
+        folder.mkdirs();
+
+        String pom = "<project><modelVersion>4.0.0</modelVersion><groupId>" + groupId + "</groupId><artifactId>"
+            + artifactId + "</artifactId><version>" + version + "</version></project>";
+        try ( OutputStream out = new FileOutputStream( new File( folder, artifactId + "-" + version + ".pom" ) ) )
+        {
+            out.write( pom.getBytes( "UTF-8" ) );
+        }
+
+        try ( JarOutputStream jar =
+            new JarOutputStream( new FileOutputStream( new File( folder, artifactId + "-" + version + ".jar" ) ) ) )
+        {
+            jar.putNextEntry( new ZipEntry( groupId.replace( '.', '/' ) + "/" + artifactId + "/Main.class" ) );
+            jar.write( new byte[] { 1, 2, 3 } );
+            jar.closeEntry();
+        }
+    }
+
+    /**
+     * Checks that the listener is never called by two threads at the same time.
+     */
+    private static class CountingListener
+        implements ArtifactScanningListener
+    {
+        private final List<String> discovered = new ArrayList<String>();
+
+        private boolean started;
+
+        private boolean busy;
+
+        private int errors;
+
+        private int finishedTotal;
+
+        public void scanningStarted( IndexingContext context )
+        {
+            started = true;
+        }
+
+        public void artifactDiscovered( ArtifactContext ac )
+        {
+            enter();
+            discovered.add( ac.getArtifactInfo().getUinfo() );
+            leave();
+        }
+
+        public void artifactError( ArtifactContext ac, Exception e )
+        {
+            enter();
+            errors++;
+            leave();
+        }
+
+        public void scanningFinished( IndexingContext context, ScanningResult result )
+        {
+            finishedTotal = result.getTotalFiles();
+        }
+
+        private void enter()
+        {
+            assertFalse( busy );
+            busy = true;
+        }
+
+        private void leave()
+        {
+            busy = false;
+        }
+    }
+}
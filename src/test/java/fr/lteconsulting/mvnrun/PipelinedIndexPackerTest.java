@@ -0,0 +1,139 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.maven.index.DefaultArtifactContextProducer;
+import org.apache.maven.index.DefaultIndexer;
+import org.apache.maven.index.DefaultIndexerEngine;
+import org.apache.maven.index.DefaultNexusIndexer;
+import org.apache.maven.index.DefaultQueryCreator;
+import org.apache.maven.index.DefaultScanner;
+import org.apache.maven.index.DefaultSearchEngine;
+import org.apache.maven.index.NexusIndexer;
+import org.apache.maven.index.artifact.DefaultArtifactPackagingMapper;
+import org.apache.maven.index.context.IndexCreator;
+import org.apache.maven.index.context.IndexingContext;
+import org.apache.maven.index.creator.JarFileContentsIndexCreator;
+import org.apache.maven.index.creator.MinimalArtifactInfoIndexCreator;
+import org.apache.maven.index.incremental.DefaultIncrementalHandler;
+import org.apache.maven.index.packer.DefaultIndexPacker;
+import org.apache.maven.index.packer.IndexPacker;
+import org.apache.maven.index.packer.IndexPackingRequest;
+import org.apache.maven.index.packer.PipelinedIndexPacker;
+
+/**
+ * Packs an index with indexer-core and with the pipelined packer and compares the data they write.
+ */
+public class PipelinedIndexPackerTest
+    extends TestCase
+{
+    private File root;
+
+    protected void setUp() throws IOException
+    {
+        root = Files.createTempDirectory( "mvnrun-pack" ).toFile();
+    }
+
+    public void testWritesTheDataOfTheDefaultPacker() throws Exception
+    {
+        File repository = new File( root, "repository" );
+        for ( int a = 0; a < 30; a++ )
+        {
+            deploy( repository, "org.example" + ( a % 3 ), "lib" + a, "1." + a );
+        }
+
+        DefaultSearchEngine searchEngine = new DefaultSearchEngine();
+        DefaultQueryCreator queryCreator = new DefaultQueryCreator();
+        DefaultIndexerEngine engine = new DefaultIndexerEngine();
+        NexusIndexer indexer =
+            new DefaultNexusIndexer( new DefaultIndexer( searchEngine, engine, queryCreator ),
+                                     new DefaultScanner( new DefaultArtifactContextProducer(
+                                         new DefaultArtifactPackagingMapper() ) ), engine, queryCreator );
+        List<IndexCreator> creators =
+            Arrays.<IndexCreator>asList( new MinimalArtifactInfoIndexCreator(), new JarFileContentsIndexCreator() );
+        IndexingContext context = indexer.addIndexingContext( "pack", "pack", repository, new File( root, "index" ),
+                                                              null, null, creators );
+        try
+        {
+            indexer.scan( context, null, true );
+
+            File expected = pack( context, new DefaultIndexPacker( new DefaultIncrementalHandler() ), "default" );
+            File actual = pack( context, new PipelinedIndexPacker( new DefaultIncrementalHandler(), 4 ), "pipelined" );
+
+            byte[] data = gunzip( expected );
+            assertTrue( data.length > 1000 );
+            assertTrue( Arrays.equals( data, gunzip( actual ) ) );
+        }
+        finally
+        {
+            indexer.removeIndexingContext( context, true );
+        }
+    }
+
+    private File pack( IndexingContext context, IndexPacker packer, String name ) throws IOException
+    {
+        File target = new File( root, name );
+        IndexSearcher searcher = context.acquireIndexSearcher();
+        try
+        {
+            packer.packIndex( new IndexPackingRequest( context, searcher.getIndexReader(), target ) );
+        }
+        finally
+        {
+            context.releaseIndexSearcher( searcher );
+        }
+        return new File( target, IndexingContext.INDEX_FILE_PREFIX + ".gz" );
+    }
+
+    private static byte[] gunzip( File file ) throws IOException
+    {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try ( InputStream in = new GZIPInputStream( new FileInputStream( file ) ) )
+        {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ( ( n = in.read( buffer ) ) > 0 )
+            {
+                data.write( buffer, 0, n );
+            }
+        }
+        return data.toByteArray();
+    }
+
+    private static void deploy( File repository, String groupId, String artifactId, String version )
+        throws IOException
+    {
+        File folder = new File( repository, groupId.replace( '.', '/' ) + "/" + artifactId + "/" + version );
+        folder.mkdirs();
+
+        String pom = "<project><modelVersion>4.0.0</modelVersion><groupId>" + groupId + "</groupId><artifactId>"
+            + artifactId + "</artifactId><version>" + version + "</version></project>";
+        try ( OutputStream out = new FileOutputStream( new File( folder, artifactId + "-" + version + ".pom" ) ) )
+        {
+            out.write( pom.getBytes( "UTF-8" ) );
+        }
+
+        try ( JarOutputStream jar =
+            new JarOutputStream( new FileOutputStream( new File( folder, artifactId + "-" + version + ".jar" ) ) ) )
+        {
+            jar.putNextEntry( new ZipEntry( groupId.replace( '.', '/' ) + "/" + artifactId + "/Main.class" ) );
+            jar.write( new byte[] { 1, 2, 3 } );
+            jar.closeEntry();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the child processes launched with inherited or pumped streams.
+ */
+public class ProcessLauncherTest
+    extends TestCase
+{
+    public void testInheritReturnsTheExitCode() throws Exception
+    {
+        LaunchMetrics metrics = new LaunchMetrics();
+
+        assertEquals( 5, ProcessLauncher.inherit( new ProcessBuilder( "sh", "-c", "exit 5" ), metrics ) );
+        assertNotNull( metrics.get( "spawnMs" ) );
+        assertNotNull( metrics.get( "childRunMs" ) );
+    }
+
+    public void testCaptureForwardsStdinAndCopiesOutputs() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        LaunchMetrics metrics = new LaunchMetrics();
+
+        int exitCode = ProcessLauncher.capture( new ProcessBuilder( "sh", "-c", "cat; echo oops >&2; exit 3" ),
+                                                new ByteArrayInputStream( "hello\nworld\n".getBytes( "UTF-8" ) ),
+                                                out, err, metrics );
+
+        assertEquals( 3, exitCode );
+        assertEquals( "hello\nworld\n", out.toString( "UTF-8" ) );
+        assertEquals( "oops\n", err.toString( "UTF-8" ) );
+        assertNotNull( metrics.get( "firstOutputMs" ) );
+    }
+
+    public void testCaptureWithoutStdinGivesEndOfFile() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        int exitCode = ProcessLauncher.capture( new ProcessBuilder( "sh", "-c", "cat; echo done" ), null, out,
+                                                new ByteArrayOutputStream(), new LaunchMetrics() );
+
+        assertEquals( 0, exitCode );
+        assertEquals( "done\n", out.toString( "UTF-8" ) );
+    }
+
+    public void testCaptureWithoutOutputHasNoFirstOutputTime() throws Exception
+    {
+        LaunchMetrics metrics = new LaunchMetrics();
+
+        ProcessLauncher.capture( new ProcessBuilder( "sh", "-c", "exit 0" ), null, new ByteArrayOutputStream(),
+                                 new ByteArrayOutputStream(), metrics );
+
+        assertNull( metrics.get( "firstOutputMs" ) );
+    }
+
+    public void testOutputFailureIsReported() throws Exception
+    {
+        OutputStream broken = new OutputStream()
+        {
+            public void write( int b ) throws IOException
+            {
+                throw new IOException( "disk full" );
+            }
+
+            public void write( byte[] b, int off, int len ) throws IOException
+            {
+                throw new IOException( "disk full" );
+            }
+        };
+
+        try
+        {
+            ProcessLauncher.capture( new ProcessBuilder( "sh", "-c", "echo lost; exit 2" ), null, broken,
+                                     new ByteArrayOutputStream(), new LaunchMetrics() );
+            fail();
+        }
+        catch ( IOException e )
+        {
+            assertTrue( e.getMessage().contains( "code 2" ) );
+            assertEquals( "disk full", e.getCause().getMessage() );
+        }
+    }
+}
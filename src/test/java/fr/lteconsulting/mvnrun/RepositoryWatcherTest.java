@@ -0,0 +1,353 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.maven.index.ArtifactInfo;
+import org.apache.maven.index.DefaultArtifactContextProducer;
+import org.apache.maven.index.DefaultIndexer;
+import org.apache.maven.index.DefaultIndexerEngine;
+import org.apache.maven.index.DefaultNexusIndexer;
+import org.apache.maven.index.DefaultQueryCreator;
+import org.apache.maven.index.DefaultSearchEngine;
+import org.apache.maven.index.NexusIndexer;
+import org.apache.maven.index.artifact.DefaultArtifactPackagingMapper;
+import org.apache.maven.index.context.IndexCreator;
+import org.apache.maven.index.context.IndexingContext;
+import org.apache.maven.index.creator.JarFileContentsIndexCreator;
+import org.apache.maven.index.creator.MinimalArtifactInfoIndexCreator;
+
+/**
+ * Deploys artifacts to a watched repository and waits for them to be searchable.
+ */
+public class RepositoryWatcherTest
+    extends TestCase
+{
+    private File root;
+
+    private File repository;
+
+    private NexusIndexer indexer;
+
+    private IndexingContext context;
+
+    protected void setUp() throws Exception
+    {
+        root = Files.createTempDirectory( "mvnrun-watch" ).toFile();
+        repository = new File( root, "repository" );
+        deploy( "org.example", "lib", "1.0" );
+        deploy( "org.example", "lib", "1.1" );
+
+        DefaultSearchEngine searchEngine = new DefaultSearchEngine();
+        DefaultQueryCreator queryCreator = new DefaultQueryCreator();
+        DefaultIndexerEngine engine = new DefaultIndexerEngine();
+        indexer = new DefaultNexusIndexer( new DefaultIndexer( searchEngine, engine, queryCreator ), null, engine,
+                                           queryCreator );
+        List<IndexCreator> creators =
+            Arrays.<IndexCreator>asList( new MinimalArtifactInfoIndexCreator(), new JarFileContentsIndexCreator() );
+        context = indexer.addIndexingContext( "watch", "watch", repository, new File( root, "index" ), null, null,
+                                              creators );
+    }
+
+    protected void tearDown() throws IOException
+    {
+        indexer.removeIndexingContext( context, true );
+    }
+
+    public void testIndexesDeployedArtifacts() throws Exception
+    {
+        final AtomicInteger published = new AtomicInteger();
+        RepositoryWatcher watcher = watcher( new Listener()
+        {
+            public void publish()
+            {
+                published.incrementAndGet();
+            }
+        } );
+        watcher.setDebounceMillis( 100 );
+        watcher.setPublishMillis( 0 );
+
+        Watch watch = new Watch( watcher );
+        try
+        {
+            // what the repository held before the watch
+            waitFor( "org.example|lib|1.1|NA|jar", true );
+
+            deploy( "org.example", "lib", "1.2" );
+            deploy( "org.other", "tool", "2.0" );
+            waitFor( "org.example|lib|1.2|NA|jar", true );
+            waitFor( "org.other|tool|2.0|NA|jar", true );
+            // the artifacts may be searchable before the groups are committed
+            long deadline = System.currentTimeMillis() + 10000;
+            while ( !context.getAllGroups().contains( "org.other" ) )
+            {
+                assertTrue( "org.other in the groups", System.currentTimeMillis() < deadline );
+                Thread.sleep( 50 );
+            }
+
+            File removed = new File( repository, "org/example/lib/1.0" );
+            for ( File file : removed.listFiles() )
+            {
+                file.delete();
+            }
+            removed.delete();
+            waitFor( "org.example|lib|1.0|NA|jar", false );
+        }
+        finally
+        {
+            watch.stop();
+        }
+
+        assertTrue( published.get() > 0 );
+        assertTrue( new File( root, MavenIndWriter.SNAPSHOT_FILE ).isFile() );
+    }
+
+    /**
+     * Changes are indexed after the maximum latency even though the repository is never quiet for the debounce delay.
+     */
+    public void testIndexesChangesAfterTheMaximumLatency() throws Exception
+    {
+        RepositoryWatcher watcher = watcher( new Listener() );
+        watcher.setDebounceMillis( TimeUnit.HOURS.toMillis( 1 ) );
+        watcher.setMaxLatencyMillis( 200 );
+
+        Watch watch = new Watch( watcher );
+        try
+        {
+            waitFor( "org.example|lib|1.1|NA|jar", true );
+
+            deploy( "org.example", "lib", "1.2" );
+            waitFor( "org.example|lib|1.2|NA|jar", true );
+        }
+        finally
+        {
+            watch.stop();
+        }
+    }
+
+    /**
+     * A sub-tree which cannot be watched, as when the inotify watches are exhausted, is looked at by the rescans.
+     */
+    public void testRescansSubTreesWhichCannotBeWatched() throws Exception
+    {
+        final Path unwatchable = new File( repository, "org/other" ).toPath();
+        Files.createDirectories( unwatchable );
+        final List<String> errors = new CopyOnWriteArrayList<String>();
+        RepositoryWatcher watcher =
+            new RepositoryWatcher( context, new DefaultArtifactContextProducer( new DefaultArtifactPackagingMapper() ),
+                                   new DefaultIndexerEngine(), new DirectorySnapshot( "test" ),
+                                   new File( root, MavenIndWriter.SNAPSHOT_FILE ), new Listener()
+                                   {
+                                       public void watchError( String message, IOException e )
+                                       {
+                                           errors.add( message );
+                                       }
+                                   } )
+            {
+                WatchKey watch( Path directory ) throws IOException
+                {
+                    if ( directory.startsWith( unwatchable ) )
+                    {
+                        throw new IOException( "User limit of inotify watches reached" );
+                    }
+                    return super.watch( directory );
+                }
+            };
+        watcher.setDebounceMillis( 100 );
+        watcher.setRescanMillis( 200 );
+
+        Watch watch = new Watch( watcher );
+        try
+        {
+            waitFor( "org.example|lib|1.1|NA|jar", true );
+
+            deploy( "org.other", "tool", "2.0" );
+            waitFor( "org.other|tool|2.0|NA|jar", true );
+        }
+        finally
+        {
+            watch.stop();
+        }
+
+        assertEquals( 1, errors.size() );
+        assertTrue( errors.get( 0 ), errors.get( 0 ).contains( unwatchable.toString() ) );
+    }
+
+    /**
+     * A failed publication is reported, the watch goes on and publishes later.
+     */
+    public void testKeepsWatchingWhenThePublicationFails() throws Exception
+    {
+        final AtomicInteger published = new AtomicInteger();
+        final List<String> errors = new CopyOnWriteArrayList<String>();
+        RepositoryWatcher watcher = watcher( new Listener()
+        {
+            public void watchError( String message, IOException e )
+            {
+                errors.add( message );
+            }
+
+            public void publish() throws IOException
+            {
+                if ( published.incrementAndGet() == 1 )
+                {
+                    throw new IOException( "No space left on device" );
+                }
+            }
+        } );
+        watcher.setDebounceMillis( 100 );
+        watcher.setPublishMillis( 0 );
+
+        Watch watch = new Watch( watcher );
+        try
+        {
+            waitFor( "org.example|lib|1.1|NA|jar", true );
+
+            deploy( "org.example", "lib", "1.2" );
+            waitFor( "org.example|lib|1.2|NA|jar", true );
+        }
+        finally
+        {
+            watch.stop();
+        }
+
+        assertTrue( published.get() > 1 );
+        assertEquals( 1, errors.size() );
+        assertTrue( new File( root, MavenIndWriter.SNAPSHOT_FILE ).isFile() );
+    }
+
+    private RepositoryWatcher watcher( Listener listener ) throws IOException
+    {
+        return new RepositoryWatcher( context,
+                                      new DefaultArtifactContextProducer( new DefaultArtifactPackagingMapper() ),
+                                      new DefaultIndexerEngine(), new DirectorySnapshot( "test" ),
+                                      new File( root, MavenIndWriter.SNAPSHOT_FILE ), listener );
+    }
+
+    private void waitFor( String uinfo, boolean indexed ) throws Exception
+    {
+        long deadline = System.currentTimeMillis() + 10000;
+        while ( isIndexed( uinfo ) != indexed )
+        {
+            assertTrue( uinfo + " indexed " + !indexed, System.currentTimeMillis() < deadline );
+            Thread.sleep( 50 );
+        }
+    }
+
+    private boolean isIndexed( String uinfo ) throws IOException
+    {
+        IndexSearcher searcher = context.acquireIndexSearcher();
+        try
+        {
+            return searcher.search( new TermQuery( new Term( ArtifactInfo.UINFO, uinfo ) ), 1 ).totalHits > 0;
+        }
+        finally
+        {
+            context.releaseIndexSearcher( searcher );
+        }
+    }
+
+    private void deploy( String groupId, String artifactId, String version ) throws IOException
+    {
+        File folder = new File( repository, groupId.replace( '.', '/' ) + "/" + artifactId + "/" + version );
+        folder.mkdirs();
+
+        String pom = "<project><modelVersion>4.0.0</modelVersion><groupId>" + groupId + "</groupId><artifactId>"
+            + artifactId + "</artifactId><version>" + version + "</version></project>";
+        try ( OutputStream out = new FileOutputStream( new File( folder, artifactId + "-" + version + ".pom" ) ) )
+        {
+            out.write( pom.getBytes( "UTF-8" ) );
+        }
+
+        try ( JarOutputStream jar =
+            new JarOutputStream( new FileOutputStream( new File( folder, artifactId + "-" + version + ".jar" ) ) ) )
+        {
+            jar.putNextEntry( new ZipEntry( groupId.replace( '.', '/' ) + "/" + artifactId + "/Main.class" ) );
+            jar.write( new byte[] { 1, 2, 3 } );
+            jar.closeEntry();
+        }
+    }
+
+    /**
+     * Fails on artifact and watch errors, does nothing on publication.
+     */
+    private static class Listener
+        implements RepositoryWatcher.Listener
+    {
+        public void changesIndexed( int updated, int removed )
+        {
+        }
+
+        public void artifactError( File file, Exception e )
+        {
+            fail( file + " " + e );
+        }
+
+        public void watchError( String message, IOException e )
+        {
+            fail( message + " " + e );
+        }
+
+        public void publish() throws IOException
+        {
+        }
+    }
+
+    /**
+     * Runs a watcher on its own thread.
+     */
+    private static class Watch
+    {
+        private final RepositoryWatcher watcher;
+
+        private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        private final Thread thread;
+
+        Watch( final RepositoryWatcher watcher )
+        {
+            this.watcher = watcher;
+            thread = new Thread( new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        watcher.watch();
+                    }
+                    catch ( Exception e )
+                    {
+                        failure.set( e );
+                    }
+                }
+            } );
+            thread.start();
+        }
+
+        void stop() throws Exception
+        {
+            watcher.close();
+            thread.join( 10000 );
+            assertFalse( thread.isAlive() );
+            assertNull( failure.get() );
+        }
+    }
+}
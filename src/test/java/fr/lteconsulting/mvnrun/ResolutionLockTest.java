@@ -0,0 +1,149 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the lock serializing the resolutions of a coordinate.
+ */
+public class ResolutionLockTest
+    extends TestCase
+{
+    private File directory;
+
+    protected void setUp() throws IOException
+    {
+        directory = new File( Files.createTempDirectory( "mvnrun-lock" ).toFile(), "locks" );
+    }
+
+    public void testWaitsForTheHolder() throws Exception
+    {
+        ResolutionLock held = acquire( "g:a:1.0" );
+
+        final CountDownLatch acquired = new CountDownLatch( 1 );
+        final AtomicLong acquiredAt = new AtomicLong( -1 );
+        Thread waiter = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try ( ResolutionLock lock = acquire( "g:a:1.0" ) )
+                {
+                    acquiredAt.set( System.currentTimeMillis() );
+                    acquired.countDown();
+                }
+                catch ( IOException e )
+                {
+                    // the latch is never released
+                }
+            }
+        } );
+        waiter.start();
+
+        assertFalse( acquired.await( 200, TimeUnit.MILLISECONDS ) );
+        long releasedAt = System.currentTimeMillis();
+        held.close();
+        assertTrue( acquired.await( 5, TimeUnit.SECONDS ) );
+        waiter.join();
+        assertTrue( acquiredAt.get() >= releasedAt );
+    }
+
+    public void testGivesUpOnceTheTimeoutHasPassed() throws Exception
+    {
+        try ( ResolutionLock held = acquire( "g:a:1.0" ) )
+        {
+            long start = System.currentTimeMillis();
+            IOException failure = acquireFromAnotherThread( "g:a:1.0", 100 );
+            assertTrue( System.currentTimeMillis() - start >= 100 );
+            assertTrue( failure.getMessage(), failure.getMessage().contains( "g:a:1.0" ) );
+        }
+        acquire( "g:a:1.0" ).close();
+    }
+
+    public void testHolderIsWrittenInTheLockFile() throws IOException
+    {
+        try ( ResolutionLock lock = acquire( "g:a:1.0" ) )
+        {
+            File[] files = directory.listFiles();
+            assertEquals( 1, files.length );
+            assertEquals( ManagementFactory.getRuntimeMXBean().getName(),
+                          new String( Files.readAllBytes( files[0].toPath() ), StandardCharsets.UTF_8 ) );
+        }
+    }
+
+    public void testInMemoryLocksAreForgotten() throws Exception
+    {
+        int before = ResolutionLock.localLockCount();
+        ResolutionLock held = acquire( "g:a:1.0" );
+        assertEquals( before + 1, ResolutionLock.localLockCount() );
+        assertNotNull( acquireFromAnotherThread( "g:a:1.0", 0 ) );
+        assertEquals( before + 1, ResolutionLock.localLockCount() );
+
+        held.close();
+        assertEquals( before, ResolutionLock.localLockCount() );
+    }
+
+    public void testCoordinatesAreLockedSeparately() throws IOException
+    {
+        try ( ResolutionLock first = acquire( "g:a:1.0" );
+              ResolutionLock second = acquire( "g:b:1.0" ) )
+        {
+            assertEquals( 2, directory.list().length );
+        }
+    }
+
+    public void testCanBeTakenAgainOnceReleased() throws IOException
+    {
+        acquire( "g:a:1.0" ).close();
+        ResolutionLock lock = acquire( "g:a:1.0" );
+        assertTrue( lock.getWaitedMillis() < 1000 );
+        lock.close();
+    }
+
+    private ResolutionLock acquire( String artifact ) throws IOException
+    {
+        return ResolutionLock.acquire( directory, artifact, TimeUnit.SECONDS.toMillis( 10 ), true );
+    }
+
+    /**
+     * @return why the lock could not be taken, null if it was
+     */
+    private IOException acquireFromAnotherThread( final String artifact, final long timeoutMillis ) throws Exception
+    {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            return executor.submit( new Callable<IOException>()
+            {
+                @Override
+                public IOException call()
+                {
+                    try
+                    {
+                        ResolutionLock.acquire( directory, artifact, timeoutMillis, true ).close();
+                        return null;
+                    }
+                    catch ( IOException e )
+                    {
+                        return e;
+                    }
+                }
+            } ).get();
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package fr.lteconsulting.mvnrun;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositoryEvent;
+import org.eclipse.aether.RepositoryListener;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.jboss.shrinkwrap.resolver.api.maven.Maven;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the listeners a resolution report puts in front of the resolver's own ones.
+ */
+public class ResolutionReportTest
+    extends TestCase
+{
+    public void testEveryRepositoryEventReachesTheReplacedListener() throws Exception
+    {
+        final List<String> received = new ArrayList<>();
+        RepositoryListener replaced = (RepositoryListener) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { RepositoryListener.class }, new InvocationHandler()
+            {
+                public Object invoke( Object proxy, Method method, Object[] args )
+                {
+                    received.add( method.getName() );
+                    return null;
+                }
+            } );
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+        session.setRepositoryListener( replaced );
+
+        new ResolutionReport().attachTo( session );
+
+        RepositoryEvent event =
+            new RepositoryEvent.Builder( session, RepositoryEvent.EventType.ARTIFACT_INSTALLED )
+                .setArtifact( new DefaultArtifact( "org.example:app:1.0" ) ).build();
+        List<String> sent = new ArrayList<>();
+        for ( Method method : RepositoryListener.class.getMethods() )
+        {
+            method.invoke( session.getRepositoryListener(), event );
+            sent.add( method.getName() );
+        }
+        assertEquals( sent, received );
+    }
+
+    public void testAttachesToTheShrinkWrapResolver()
+    {
+        new ResolutionReport().attachTo( Maven.configureResolver().workOffline() );
+    }
+}
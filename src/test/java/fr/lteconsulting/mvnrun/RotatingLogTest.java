@@ -0,0 +1,113 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the log files written in the background and rotated by size.
+ */
+public class RotatingLogTest
+    extends TestCase
+{
+    private File directory;
+
+    private File file;
+
+    protected void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory( "mvnrun-log" ).toFile();
+        file = new File( directory, "logs/out.log" );
+    }
+
+    public void testAppendsToTheFile() throws IOException
+    {
+        write( new RotatingLog( file, 0, 1, false ), "first\n" );
+        write( new RotatingLog( file, 0, 1, false ), "second\n" );
+
+        assertEquals( "first\nsecond\n", read( file ) );
+    }
+
+    public void testRotatesBySize() throws IOException
+    {
+        RotatingLog log = new RotatingLog( file, 10, 2, false );
+        for ( String line : new String[] { "line 1\n", "line 2\n", "line 3\n", "line 4\n" } )
+            log.write( line.getBytes( StandardCharsets.UTF_8 ) );
+        log.close();
+
+        assertEquals( "line 4\n", read( file ) );
+        assertEquals( "line 3\n", read( log.rotated( 1 ) ) );
+        assertEquals( "line 2\n", read( log.rotated( 2 ) ) );
+        assertFalse( new File( file.getPath() + ".3" ).exists() );
+    }
+
+    public void testCompressesRotatedFiles() throws IOException
+    {
+        RotatingLog log = new RotatingLog( file, 10, 3, true );
+        for ( String line : new String[] { "line 1\n", "line 2\n", "line 3\n" } )
+            log.write( line.getBytes( StandardCharsets.UTF_8 ) );
+        log.close();
+
+        assertEquals( "line 3\n", read( file ) );
+        assertEquals( "line 2\n", gunzip( log.rotated( 1 ) ) );
+        assertEquals( "line 1\n", gunzip( log.rotated( 2 ) ) );
+        assertFalse( new File( file.getPath() + ".1" ).exists() );
+    }
+
+    public void testDropsWhatDoesNotFitInTheBuffer() throws IOException
+    {
+        RotatingLog log = new RotatingLog( file, 0, 1, false, 4 );
+        log.write( "12345678".getBytes( StandardCharsets.UTF_8 ) );
+        log.close();
+
+        assertEquals( 8, log.getDropped() );
+        assertTrue( read( file ).contains( "8 bytes dropped" ) );
+    }
+
+    public void testWritesFailOnceClosed() throws IOException
+    {
+        RotatingLog log = new RotatingLog( file, 0, 1, false );
+        log.close();
+
+        try
+        {
+            log.write( 'x' );
+            fail();
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+    }
+
+    private static void write( RotatingLog log, String content ) throws IOException
+    {
+        log.write( content.getBytes( StandardCharsets.UTF_8 ) );
+        log.close();
+    }
+
+    private static String read( File file ) throws IOException
+    {
+        return new String( Files.readAllBytes( file.toPath() ), StandardCharsets.UTF_8 );
+    }
+
+    private static String gunzip( File file ) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try ( InputStream in = new GZIPInputStream( new FileInputStream( file ) ) )
+        {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ( ( read = in.read( buffer ) ) >= 0 )
+                out.write( buffer, 0, read );
+        }
+        return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+    }
+}
@@ -0,0 +1,81 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the resolution through the repository system of a Maven build.
+ */
+public class SessionResolverTest
+    extends TestCase
+{
+    private File repository;
+
+    private SessionResolver resolver;
+
+    protected void setUp() throws IOException
+    {
+        repository = Files.createTempDirectory( "mvnrun-session" ).toFile();
+        install( "org.example", "app", "1.0",
+                 "<dependencies><dependency><groupId>org.example</groupId><artifactId>lib</artifactId>"
+                     + "<version>2.0</version></dependency>"
+                     + "<dependency><groupId>org.example</groupId><artifactId>test-lib</artifactId>"
+                     + "<version>1.0</version><scope>test</scope></dependency></dependencies>" );
+        install( "org.example", "lib", "2.0", "" );
+
+        RepositorySystem system = MavenRepositorySystemUtils.newServiceLocator().getService( RepositorySystem.class );
+        DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
+        session.setOffline( true );
+        session.setLocalRepositoryManager( system.newLocalRepositoryManager( session,
+                                                                             new LocalRepository( repository ) ) );
+        resolver = new SessionResolver( system, session, Collections.<RemoteRepository> emptyList() );
+    }
+
+    public void testResolvesRuntimeClasspath()
+    {
+        ResolvedClasspath resolved = resolver.resolve( "org.example:app:1.0", true );
+
+        assertEquals( new File( repository, "org/example/app/1.0/app-1.0.jar" ), resolved.getMainJar() );
+        List<ResolvedClasspath.Entry> entries = resolved.getEntries();
+        assertEquals( 2, entries.size() );
+        assertEquals( "org.example:app:jar:1.0", entries.get( 0 ).getCoordinate() );
+        assertEquals( "org.example:lib:jar:2.0", entries.get( 1 ).getCoordinate() );
+    }
+
+    public void testMissingArtifactIsNotResolved()
+    {
+        assertNull( resolver.resolve( "org.example:missing:1.0", true ) );
+    }
+
+    private void install( String groupId, String artifactId, String version, String dependencies )
+        throws IOException
+    {
+        File directory = new File( repository, groupId.replace( '.', '/' ) + "/" + artifactId + "/" + version );
+        directory.mkdirs();
+        write( new File( directory, artifactId + "-" + version + ".pom" ),
+               "<project><modelVersion>4.0.0</modelVersion><groupId>" + groupId + "</groupId><artifactId>"
+                   + artifactId + "</artifactId><version>" + version + "</version>" + dependencies + "</project>" );
+        write( new File( directory, artifactId + "-" + version + ".jar" ), artifactId );
+    }
+
+    private static void write( File file, String content ) throws IOException
+    {
+        try ( FileOutputStream out = new FileOutputStream( file ) )
+        {
+            out.write( content.getBytes( StandardCharsets.UTF_8 ) );
+        }
+    }
+}
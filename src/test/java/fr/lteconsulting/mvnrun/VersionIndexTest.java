@@ -0,0 +1,68 @@
+package fr.lteconsulting.mvnrun;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the selection of versions from the local index.
+ */
+public class VersionIndexTest
+    extends TestCase
+{
+    private static final List<String> VERSIONS = Arrays.asList( "1.0", "1.10", "1.9", "2.0-SNAPSHOT", "2.0-beta-1" );
+
+    public void testPickHighestInRange()
+    {
+        assertEquals( "1.10", VersionIndex.pick( VERSIONS, "[1.0,2.0-alpha)" ) );
+        assertEquals( "1.9", VersionIndex.pick( VERSIONS, "[1.0,1.10)" ) );
+        assertNull( VersionIndex.pick( VERSIONS, "[3.0,)" ) );
+    }
+
+    public void testPickLatestAndRelease()
+    {
+        assertEquals( "2.0-SNAPSHOT", VersionIndex.pick( VERSIONS, "LATEST" ) );
+        assertEquals( "2.0-beta-1", VersionIndex.pick( VERSIONS, "RELEASE" ) );
+    }
+
+    public void testFixedVersionsAreNotSelected() throws IOException
+    {
+        VersionIndex index = new VersionIndex( new File( "missing" ), new File( "missing" ), 0 );
+        assertNull( index.select( "g:a:1.0" ) );
+        assertNull( index.select( "g:a:1.0-SNAPSHOT" ) );
+    }
+
+    public void testFreshVersionsAreReadFromTheCache() throws IOException
+    {
+        File cache = Files.createTempDirectory( "mvnrun-versions" ).toFile();
+        Properties properties = new Properties();
+        properties.setProperty( "indexed", String.valueOf( System.currentTimeMillis() ) );
+        properties.setProperty( "versions", "1.0,1.2,1.1" );
+        try ( OutputStream out = new FileOutputStream( new File( cache, "g_a.properties" ) ) )
+        {
+            properties.store( out, null );
+        }
+
+        // the index does not exist, only the cache can answer
+        VersionIndex index = new VersionIndex( new File( cache, "no-index" ), cache, 60000 );
+        assertEquals( "g:a:jar:1.2", index.select( "g:a:jar:[1.0,)" ) );
+
+        VersionIndex expired = new VersionIndex( new File( cache, "no-index" ), cache, -1 );
+        try
+        {
+            expired.select( "g:a:jar:[1.0,)" );
+            fail();
+        }
+        catch ( IOException e )
+        {
+            // the index has to be queried
+        }
+    }
+}